@@ -9,6 +9,8 @@ import alien4cloud.paas.yorc.context.YorcOrchestratorConfiguration;
 import alien4cloud.paas.yorc.dao.YorcESDao;
 import alien4cloud.paas.yorc.model.EventIndex;
 import alien4cloud.paas.yorc.model.LogEventIndex;
+import alien4cloud.paas.yorc.model.LogRateLimit;
+import alien4cloud.paas.yorc.model.PollerLease;
 import alien4cloud.utils.ClassLoaderUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -16,6 +18,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.alien4cloud.tosca.model.definitions.PropertyDefinition;
 import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
 import org.alien4cloud.tosca.normative.types.ToscaTypes;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
@@ -40,6 +43,8 @@ public class YorcPluginFactory implements IOrchestratorPluginFactory<YorcOrchest
 
     public static final String MONITORING_TIME_INTERVAL = "monitoring_time_interval";
 
+    public static final String LOG_RATE_LIMIT = "log_rate_limit";
+
     // Living instances
     private List<YorcOrchestrator> instances = Lists.newArrayList();
 
@@ -157,6 +162,13 @@ public class YorcPluginFactory implements IOrchestratorPluginFactory<YorcOrchest
         monitoringInterval.setDefault(new ScalarPropertyValue("0"));
         props.put(MONITORING_TIME_INTERVAL, monitoringInterval);
 
+        // Log rate limit, no default so that the orchestrator configuration applies
+        PropertyDefinition logRateLimit = new PropertyDefinition();
+        logRateLimit.setType(ToscaTypes.INTEGER.toString());
+        logRateLimit.setRequired(false);
+        logRateLimit.setDescription("Maximum number of logs per second saved for this deployment, overrides the logRateLimit of the orchestrator. 0 disables the limit.");
+        props.put(LOG_RATE_LIMIT, logRateLimit);
+
         return props;
     }
 
@@ -164,6 +176,14 @@ public class YorcPluginFactory implements IOrchestratorPluginFactory<YorcOrchest
     public void delete(String id) {
         dao.delete(LogEventIndex.class,id);
         dao.delete(EventIndex.class,id);
+        dao.delete(PollerLease.class,id);
+
+        // Checkpoints of the deployment streams
+        dao.delete(LogEventIndex.class,QueryBuilders.termQuery("orchestratorId",id));
+        dao.delete(EventIndex.class,QueryBuilders.termQuery("orchestratorId",id));
+
+        // Log rate limits of the deployments
+        dao.delete(LogRateLimit.class,QueryBuilders.termQuery("orchestratorId",id));
     }
 
     @PreDestroy
@@ -17,7 +17,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Getter
 @Setter
 @NoArgsConstructor
-@FormProperties({"urlYorc", "insecureTLS", "caCertificate", "clientKey", "clientCertificate", "undeployStopOnError", "connectionTimeout", "socketTimeout", "executorThreadPoolSize", "IOThreadCount", "pollingRetryDelay", "connectionMaxPoolSize", "connectionEvictionPeriod", "connectionTtl", "connectionMaxIdleTime", "registryEvictionPerdiod", "registryEntryTtl", "cleanupDeploymentsPeriod" })
+@FormProperties({"urlYorc", "insecureTLS", "caCertificate", "clientKey", "clientCertificate", "undeployStopOnError", "connectionTimeout", "socketTimeout", "executorThreadPoolSize", "IOThreadCount", "eventDispatcherLanes", "statusPropagationAlertThreshold", "pollingRetryDelay", "pollingMaxRetryDelay", "pollingCircuitBreakerThreshold", "pollingCircuitBreakerOpenPeriod", "pollingMinWait", "pollingMaxWait", "pollingLagRefreshPeriod", "pollingLeaseEnabled", "pollingLeaseTtl", "pollingLeaseRenewPeriod", "scopedPollingThreshold", "scopedPollingCheckPeriod", "connectionMaxPoolSize", "connectionEvictionPeriod", "connectionTtl", "connectionMaxIdleTime", "registryEvictionPerdiod", "registryEntryTtl", "cleanupDeploymentsPeriod", "instanceInformationDeadline", "instanceInformationChangeLogSize", "instanceInformationRefreshDebounce", "crawlBudget", "crawlNodeConcurrency", "crawlInstanceConcurrency", "crawlAttributeConcurrency", "crawlMaxRetries", "crawlRetryDelay", "logBatchAdaptive", "logBatchMinSize", "logBatchMaxSize", "logWriterLanes", "logIngestionBudget", "logJournalEnabled", "logJournalPath", "logJournalSegmentSize", "logJournalRetention", "logRateLimit", "logRateBurst", "logRateExcessPolicy", "logRateSampleRatio", "logRateTruncateLength", "logRateSummaryPeriod", "logContentMaxSize", "logContentPolicy", "logContentPreviewSize", "eventPrefetchDepth", "checkpointFlushPeriod", "checkpointFlushCount", "checkpointSlowThreshold", "checkpointJournalPath" })
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class ProviderConfiguration implements IPaaSProviderConfiguration {
@@ -85,6 +85,20 @@ public class ProviderConfiguration implements IPaaSProviderConfiguration {
     )
     private Integer executorThreadPoolSize = 4;
 
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "0",
+            description = "eventDispatcherLanes: number of lanes dispatching the events of the deployments to the state machines, each deployment uses one lane. 0 uses executorThreadPoolSize lanes."
+    )
+    private Integer eventDispatcherLanes = 0;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "5000",
+            description = "statusPropagationAlertThreshold: in milliseconds, a warning is logged and the BusMetrics MBean reports StatusPropagationSlow when an A4C event is posted longer than this after its Yorc event was received. 0 disables it."
+    )
+    private Integer statusPropagationAlertThreshold = 5000;
+
     @FormPropertyDefinition(
             type = "integer",
             defaultValue = "4",
@@ -99,6 +113,82 @@ public class ProviderConfiguration implements IPaaSProviderConfiguration {
     )
     private Integer pollingRetryDelay = 2;
 
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "60",
+            description = "pollingMaxRetryDelay: in seconds, the maximum delay before reconnecting to poll events / log. The retry delay starts at pollingRetryDelay and doubles after each consecutive error, with a random jitter."
+    )
+    private Integer pollingMaxRetryDelay = 60;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "5",
+            description = "pollingCircuitBreakerThreshold: number of consecutive polling errors after which polling is suspended for pollingCircuitBreakerOpenPeriod."
+    )
+    private Integer pollingCircuitBreakerThreshold = 5;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "30",
+            description = "pollingCircuitBreakerOpenPeriod: in seconds, the duration polling is suspended once the circuit breaker is open. A single probe request is then sent to check if Yorc is back."
+    )
+    private Integer pollingCircuitBreakerOpenPeriod = 30;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "30",
+            description = "pollingMinWait: in seconds, the initial duration Yorc can hold an events / logs long polling request when there is nothing new."
+    )
+    private Integer pollingMinWait = 30;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "300",
+            description = "pollingMaxWait: in seconds, the maximum duration Yorc can hold an events / logs long polling request. The wait grows up to this value while the orchestrator is idle. Always kept below socketTimeout."
+    )
+    private Integer pollingMaxWait = 300;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "30",
+            description = "pollingLagRefreshPeriod: in seconds, how often the last Yorc event / log index is read to compute the pollers lag. 0 to disable."
+    )
+    private Integer pollingLagRefreshPeriod = 30;
+
+    @FormPropertyDefinition(
+            type = "boolean",
+            description = "pollingLeaseEnabled: in a cluster, only the A4C node holding a lease in ES polls Yorc events and logs. Other nodes take over when the lease expires."
+    )
+    private Boolean pollingLeaseEnabled = Boolean.FALSE;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "30",
+            description = "pollingLeaseTtl: in seconds, validity of the polling lease. Another node takes over when the holder did not renew it for this duration."
+    )
+    private Integer pollingLeaseTtl = 30;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "10",
+            description = "pollingLeaseRenewPeriod: in seconds, how often the polling lease is renewed or, when not held, checked. Must be lower than pollingLeaseTtl."
+    )
+    private Integer pollingLeaseRenewPeriod = 10;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "0",
+            description = "scopedPollingThreshold: below this number of deployments, events and logs are polled per deployment instead of globally, above it the global streams are used again. 0 always uses the global streams. Each deployment holds 2 pooled connections: the threshold is capped so that 2 x threshold + crawlBudget stays below connectionMaxPoolSize."
+    )
+    private Integer scopedPollingThreshold = 0;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "30",
+            description = "scopedPollingCheckPeriod: in seconds, how often the number of deployments is checked to switch between global and per deployment polling."
+    )
+    private Integer scopedPollingCheckPeriod = 30;
+
     @FormPropertyDefinition(
             type = "integer",
             defaultValue = "20",
@@ -148,6 +238,69 @@ public class ProviderConfiguration implements IPaaSProviderConfiguration {
     )
     private Integer cleanupDeploymentsPeriod = 300;
 
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "0",
+            description = "instanceInformationDeadline: in seconds, when the instances of a deployment are still being fetched from Yorc after this delay, the information fetched so far is returned with the yorc_information_stale runtime property. 0 waits for the end of the fetch."
+    )
+    private Integer instanceInformationDeadline = 0;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "1000",
+            description = "instanceInformationChangeLogSize: number of instance and attribute changes kept for each deployment to compute the changes since a version. Older versions get all the instances."
+    )
+    private Integer instanceInformationChangeLogSize = 1000;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "1000",
+            description = "instanceInformationRefreshDebounce: in milliseconds, delay before refreshing the instances of a deployment, the refresh requests coming meanwhile or while it runs share it."
+    )
+    private Integer instanceInformationRefreshDebounce = 1000;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "16",
+            description = "crawlBudget: maximum number of http requests in flight to fetch the instances and attributes of the deployments, shared fairly between them. Keep it below connectionMaxPoolSize so that polling always gets a connection. 0 for no limit."
+    )
+    private Integer crawlBudget = 16;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "5",
+            description = "crawlNodeConcurrency: maximum number of nodes fetched at the same time for a deployment."
+    )
+    private Integer crawlNodeConcurrency = 5;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "10",
+            description = "crawlInstanceConcurrency: maximum number of instances fetched at the same time for a deployment."
+    )
+    private Integer crawlInstanceConcurrency = 10;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "16",
+            description = "crawlAttributeConcurrency: maximum number of attributes fetched at the same time for a deployment."
+    )
+    private Integer crawlAttributeConcurrency = 16;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "3",
+            description = "crawlMaxRetries: number of retries of a failed request while fetching instances and attributes."
+    )
+    private Integer crawlMaxRetries = 3;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "500",
+            description = "crawlRetryDelay: in milliseconds, delay before the first retry of a failed request, doubled for each next one."
+    )
+    private Integer crawlRetryDelay = 500;
+
     @FormPropertyDefinition(
             type = "boolean",
             description = "Undeploy should stop when an error occurs."
@@ -157,7 +310,7 @@ public class ProviderConfiguration implements IPaaSProviderConfiguration {
     @FormPropertyDefinition(
             type = "integer",
             defaultValue = "100",
-            description = "logBufferCount: the maxium log events counts in a buffer flush."
+            description = "logBufferCount: the maxium log events counts in a buffer flush when logBatchAdaptive is disabled."
     )
     private Integer logBufferCount = 100;
 
@@ -168,6 +321,164 @@ public class ProviderConfiguration implements IPaaSProviderConfiguration {
     )
     private Integer logBufferDelay = 250;
 
+    @FormPropertyDefinition(
+            type = "boolean",
+            defaultValue = "false",
+            description = "logBatchAdaptive: log batches are sized from the incoming log rate and the ES save latency, between logBatchMinSize and logBatchMaxSize, and wait at most one save latency (bounded by logBufferDelay)."
+    )
+    private Boolean logBatchAdaptive = Boolean.FALSE;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "10",
+            description = "logBatchMinSize: minimum size of the adaptive log batches."
+    )
+    private Integer logBatchMinSize = 10;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "1000",
+            description = "logBatchMaxSize: maximum size of the adaptive log batches."
+    )
+    private Integer logBatchMaxSize = 1000;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "1",
+            description = "logWriterLanes: number of log batches saved in parallel. The deployments are spread over the lanes, the logs of a deployment are saved in order."
+    )
+    private Integer logWriterLanes = 1;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "10000",
+            description = "logIngestionBudget: maximum number of logs received from Yorc and not yet saved. Log polling pauses when it is reached and resumes when half of it has been saved."
+    )
+    private Integer logIngestionBudget = 10000;
+
+    @FormPropertyDefinition(
+            type = "boolean",
+            description = "logJournalEnabled: logs that cannot be saved in ES are written to a local journal and saved later."
+    )
+    private Boolean logJournalEnabled = Boolean.FALSE;
+
+    @FormPropertyDefinition(
+            type = "string",
+            description = "logJournalPath: directory of the log journal. Defaults to yorc-log-journal in the temporary directory."
+    )
+    private String logJournalPath;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "64",
+            description = "logJournalSegmentSize: in MB, size of the log journal segment files."
+    )
+    private Integer logJournalSegmentSize = 64;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "24",
+            description = "logJournalRetention: in hours, journal segments older than this are dropped even if they have not been saved in ES."
+    )
+    private Integer logJournalRetention = 24;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "0",
+            description = "logRateLimit: maximum number of logs per second saved for a deployment, the excess is handled by logRateExcessPolicy. 0 disables the limit. Can be overridden by the log_rate_limit deployment property."
+    )
+    private Integer logRateLimit = 0;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "500",
+            description = "logRateBurst: number of logs a deployment can send at once above logRateLimit."
+    )
+    private Integer logRateBurst = 500;
+
+    @FormPropertyDefinition(
+            type = "string",
+            defaultValue = "drop",
+            description = "logRateExcessPolicy: what to do with the logs above the limit: drop, sample (keep one log every logRateSampleRatio) or truncate (keep the first logRateTruncateLength characters)."
+    )
+    private String logRateExcessPolicy = "drop";
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "10",
+            description = "logRateSampleRatio: with the sample policy, one log out of this number is kept above the limit."
+    )
+    private Integer logRateSampleRatio = 10;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "200",
+            description = "logRateTruncateLength: with the truncate policy, number of characters kept from the logs above the limit."
+    )
+    private Integer logRateTruncateLength = 200;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "10",
+            description = "logRateSummaryPeriod: in seconds, period of the log telling how many logs of a deployment have been dropped or truncated."
+    )
+    private Integer logRateSummaryPeriod = 10;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "0",
+            description = "logContentMaxSize: in characters, logs with a longer content are handled by logContentPolicy. 0 disables it."
+    )
+    private Integer logContentMaxSize = 0;
+
+    @FormPropertyDefinition(
+            type = "string",
+            defaultValue = "chunk",
+            description = "logContentPolicy: chunk splits oversized logs into logs of logContentMaxSize characters prefixed by [part i/n], compress keeps a preview of logContentPreviewSize characters followed by the gzipped and base64 encoded content."
+    )
+    private String logContentPolicy = "chunk";
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "4096",
+            description = "logContentPreviewSize: in characters, size of the preview of the compressed logs."
+    )
+    private Integer logContentPreviewSize = 4096;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "0",
+            description = "eventPrefetchDepth: number of event batches that can be fetched from Yorc while previous batches are still being dispatched. 0 disables prefetching: the next batch is requested once the previous one has been dispatched."
+    )
+    private Integer eventPrefetchDepth = 0;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "5",
+            description = "checkpointFlushPeriod: in seconds, the maximum duration between two writes of the event / log indexes. After a crash, at most this period of events and logs is replayed."
+    )
+    private Integer checkpointFlushPeriod = 5;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "50",
+            description = "checkpointFlushCount: the number of index updates after which the event / log indexes are written without waiting for the flush period."
+    )
+    private Integer checkpointFlushCount = 50;
+
+    @FormPropertyDefinition(
+            type = "integer",
+            defaultValue = "1000",
+            description = "checkpointSlowThreshold: in milliseconds, an index write to ElasticSearch slower than this switches the checkpoints to the local journal for a while."
+    )
+    private Integer checkpointSlowThreshold = 1000;
+
+    @FormPropertyDefinition(
+            type = "string",
+            description = "checkpointJournalPath: directory of the local checkpoint journal used when ElasticSearch is slow or unavailable. Defaults to a directory in the system temporary directory."
+    )
+    private String checkpointJournalPath;
+
     private String orchestratorName;
     private String orchestratorId;
 
@@ -9,6 +9,7 @@ import alien4cloud.paas.exception.MaintenanceModeException;
 import alien4cloud.paas.exception.OperationExecutionException;
 import alien4cloud.paas.exception.PluginConfigurationException;
 import alien4cloud.paas.model.*;
+import alien4cloud.paas.yorc.YorcPluginFactory;
 import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
 import alien4cloud.paas.yorc.context.rest.DeploymentClient;
 import alien4cloud.paas.yorc.context.rest.ServerClient;
@@ -18,6 +19,9 @@ import alien4cloud.paas.yorc.context.service.fsm.FsmEvents;
 import alien4cloud.paas.yorc.context.service.fsm.FsmMapper;
 import alien4cloud.paas.yorc.context.service.fsm.FsmStates;
 import alien4cloud.paas.yorc.context.service.fsm.StateMachineService;
+import alien4cloud.paas.yorc.context.service.lease.LeaseService;
+import alien4cloud.paas.yorc.context.service.log.LogJournal;
+import alien4cloud.paas.yorc.context.service.log.LogRateLimiter;
 import alien4cloud.paas.yorc.exception.YorcInvalidStateException;
 import alien4cloud.paas.yorc.location.AbstractLocationConfigurerFactory;
 import alien4cloud.paas.yorc.service.PluginArchiveService;
@@ -57,6 +61,24 @@ public class YorcOrchestrator implements IOrchestratorPlugin<ProviderConfigurati
     @Inject
     private LogEventPollingService logEventPollingService;
 
+    @Inject
+    private CheckpointService checkpointService;
+
+    @Inject
+    private LeaseService leaseService;
+
+    @Inject
+    private LogJournal logJournal;
+
+    @Inject
+    private LogRateLimiter logRateLimiter;
+
+    @Inject
+    private BusMetrics busMetrics;
+
+    @Inject
+    private PollingModeService pollingModeService;
+
     @Inject
     private StateMachineService stateMachineService;
 
@@ -148,9 +170,36 @@ public class YorcOrchestrator implements IOrchestratorPlugin<ProviderConfigurati
             }
         });
 
-        // Start Pollers
-        eventPollingService.init();
-        logEventPollingService.init();
+        // Start the index checkpoints
+        checkpointService.init();
+
+        // Open the log journal, replay what is left
+        logJournal.init();
+
+        // Start the log rate limiter, its summaries are not limited
+        logRateLimiter.restore(activeDeployments.keySet());
+        logRateLimiter.init(busService::publishUnlimited);
+
+        // Start Pollers, only on the lease holder node in lease mode
+        if (isLeaseEnabled()) {
+            leaseService.init(new LeaseService.Listener() {
+                @Override
+                public void onAcquired() {
+                    checkpointService.resume();
+                    startPollers();
+                }
+
+                @Override
+                public void onLost() {
+                    stopPollers();
+
+                    // Write our indexes so that the next holder starts from them, drop the late ones
+                    checkpointService.suspend();
+                }
+            });
+        } else {
+            startPollers();
+        }
 
         // Start the deployment checker
         checker.init();
@@ -163,8 +212,20 @@ public class YorcOrchestrator implements IOrchestratorPlugin<ProviderConfigurati
         checker.term();
 
         // Notify Pollers that they have to stop
-        eventPollingService.term();
-        logEventPollingService.term();
+        if (isLeaseEnabled()) {
+            leaseService.term();
+        } else {
+            stopPollers();
+        }
+
+        // Flush the last indexes
+        checkpointService.term();
+
+        // Stop the log rate limiter
+        logRateLimiter.term();
+
+        // Close the log journal
+        logJournal.term();
 
         // Notify termination to Registry
         registry.term();
@@ -173,12 +234,26 @@ public class YorcOrchestrator implements IOrchestratorPlugin<ProviderConfigurati
         templateManager.term();
     }
 
+    private boolean isLeaseEnabled() {
+        return Boolean.TRUE.equals(configuration.getPollingLeaseEnabled());
+    }
+
+    private void startPollers() {
+        pollingModeService.start();
+    }
+
+    private void stopPollers() {
+        pollingModeService.stop();
+    }
+
     @Override
     public void deploy(PaaSTopologyDeploymentContext deploymentContext, IPaaSCallback<?> callback) {
         stateMachineService.newStateMachine(deploymentContext.getDeploymentPaaSId());
 
         // Registering alienId to yorcId
         registry.register(deploymentContext.getDeploymentPaaSId(), deploymentContext.getDeploymentId());
+        pollingModeService.onDeploymentRegistered();
+        setLogRateLimit(deploymentContext);
 
         Message<FsmEvents> message = stateMachineService.createMessage(FsmEvents.DEPLOYMENT_STARTED, deploymentContext, callback);
         busService.publish(message);
@@ -186,10 +261,27 @@ public class YorcOrchestrator implements IOrchestratorPlugin<ProviderConfigurati
 
     @Override
     public void update(PaaSTopologyDeploymentContext deploymentContext, IPaaSCallback<?> callback) {
+        setLogRateLimit(deploymentContext);
+
         Message<FsmEvents> message = stateMachineService.createMessage(FsmEvents.UPDATE_STARTED, deploymentContext, callback);
         busService.publish(message);
     }
 
+    private void setLogRateLimit(PaaSTopologyDeploymentContext deploymentContext) {
+        Map<String, String> properties = deploymentContext.getDeploymentTopology().getProviderDeploymentProperties();
+        String value = properties == null ? null : properties.get(YorcPluginFactory.LOG_RATE_LIMIT);
+
+        Integer limit = null;
+        if (value != null && !value.trim().isEmpty()) {
+            try {
+                limit = Integer.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid {} deployment property <{}>, using the orchestrator limit", YorcPluginFactory.LOG_RATE_LIMIT, value);
+            }
+        }
+        logRateLimiter.setLimit(deploymentContext.getDeploymentPaaSId(), limit);
+    }
+
     @Override
     public void undeploy(PaaSDeploymentContext deploymentContext, IPaaSCallback<?> callback,boolean force) {
         Map<String,Object> params = Maps.newHashMap();
@@ -355,6 +447,8 @@ public class YorcOrchestrator implements IOrchestratorPlugin<ProviderConfigurati
      * @param event
      */
     public void postAlienEvent(AbstractMonitorEvent event) {
+        busMetrics.onAlienEvent();
+
         event.setDate((new Date()).getTime());
         event.setOrchestratorId(configuration.getOrchestratorId());
 
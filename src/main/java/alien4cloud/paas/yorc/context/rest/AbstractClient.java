@@ -3,11 +3,16 @@ package alien4cloud.paas.yorc.context.rest;
 import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.springframework.http.*;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.web.client.ResponseExtractor;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
@@ -20,6 +25,9 @@ public abstract class AbstractClient {
     @Inject
     TemplateManager manager;
 
+    @Inject
+    private Scheduler scheduler;
+
     @Resource
     private ProviderConfiguration configuration;
 
@@ -76,6 +84,26 @@ public abstract class AbstractClient {
     }
 
 
+    /**
+     * Send a request and decode the response body while it is received, instead of binding it to a response type.
+     *
+     * The request goes through the http client of the template, but not through the template itself: the template buffers
+     * the whole body before the extractor runs. The extractor runs on the scheduler, see StreamingResponseConsumer.
+     */
+    public <T> Single<T> streamRequest(String url, HttpMethod method, ResponseExtractor<T> extractor, HttpEntity<?> entity) {
+        if (log.isDebugEnabled()) {
+            log.debug("Yorc Request({},{}",method,url);
+        }
+
+        return Single.create(emitter -> {
+            HttpUriRequest request = RequestBuilder.create(method.name()).setUri(url).build();
+            entity.getHeaders().forEach((name, values) -> values.forEach(value -> request.addHeader(name, value)));
+
+            StreamingResponseConsumer<T> consumer = new StreamingResponseConsumer<>(extractor, scheduler, emitter);
+            manager.getHttpClient().execute(HttpAsyncMethods.create(request), consumer, null);
+        });
+    }
+
     protected final <T> Single<T> fromFuture(ListenableFuture<T> future) {
         return Single.defer(() ->
                 Single.create(source -> {
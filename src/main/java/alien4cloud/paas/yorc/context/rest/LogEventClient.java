@@ -1,5 +1,6 @@
 package alien4cloud.paas.yorc.context.rest;
 
+import alien4cloud.paas.yorc.context.rest.response.LogEvent;
 import alien4cloud.paas.yorc.context.rest.response.LogEventDTO;
 import alien4cloud.paas.yorc.util.RestUtil;
 import io.reactivex.Single;
@@ -8,6 +9,9 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
 @Slf4j
 @Component
 public class LogEventClient extends AbstractClient {
@@ -17,6 +21,36 @@ public class LogEventClient extends AbstractClient {
         return sendRequest(url, HttpMethod.GET, LogEventDTO.class, buildHttpEntityWithDefaultHeader());
     }
 
+    /**
+     * Long polling query, the logs are handed to the consumer while the response is decoded.
+     *
+     * @param index the index to start from
+     * @param wait in seconds, how long Yorc can hold the request when there is nothing new. 0 to use the Yorc default.
+     * @param consumer called on the http thread for each LogEvent, in order
+     * @param deploymentFilter logs of the deployments not accepted by the filter are skipped before being decoded
+     * @param guard skips the logs already handed over by a failed query from the same index
+     */
+    public Single<PageStreamExtractor.Page> stream(long index, long wait, Consumer<LogEvent> consumer, Predicate<String> deploymentFilter, PageReplayGuard guard) {
+        String url = getYorcUrl() + "/logs?index=" + index;
+        if (wait > 0) {
+            url += "&wait=" + wait + "s";
+        }
+        return streamRequest(url, HttpMethod.GET, new PageStreamExtractor<>("logs", LogEvent.class, consumer, deploymentFilter, guard), buildHttpEntityWithDefaultHeader());
+    }
+
+    /**
+     * Long polling query on the logs of a single deployment
+     *
+     * @see #stream(long, long, Consumer, Predicate, PageReplayGuard)
+     */
+    public Single<PageStreamExtractor.Page> stream(String deploymentId, long index, long wait, Consumer<LogEvent> consumer, PageReplayGuard guard) {
+        String url = getYorcUrl() + "/deployments/" + deploymentId + "/logs?index=" + index;
+        if (wait > 0) {
+            url += "&wait=" + wait + "s";
+        }
+        return streamRequest(url, HttpMethod.GET, new PageStreamExtractor<>("logs", LogEvent.class, consumer, null, guard), buildHttpEntityWithDefaultHeader());
+    }
+
     public Single<Long> getLastIndex() {
         String url = getYorcUrl() + "/logs";
 
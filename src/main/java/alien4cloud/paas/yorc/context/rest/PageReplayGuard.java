@@ -0,0 +1,50 @@
+package alien4cloud.paas.yorc.context.rest;
+
+/**
+ * Remembers how far the attempts on a page went.
+ *
+ * Yorc items have no index of their own, but a page queried again from the same index starts with the same items. When
+ * a page fails while being decoded, its first items have already been handed over: the next attempt on the same index
+ * skips them instead of dispatching them twice.
+ *
+ * A poller has one guard, and calls start before each query.
+ */
+public class PageReplayGuard {
+
+    // Index the current page has been queried from
+    private long index = Long.MIN_VALUE;
+
+    // Items of the page gone through by all the attempts
+    private int done;
+
+    // Items of the page gone through by the current attempt
+    private int position;
+
+    /**
+     * A page is queried from this index
+     */
+    public synchronized void start(long index) {
+        if (index != this.index) {
+            this.index = index;
+            done = 0;
+        }
+        position = 0;
+    }
+
+    /**
+     * @return true if the next item has been gone through by a previous attempt
+     */
+    public synchronized boolean isReplayed() {
+        return position < done;
+    }
+
+    /**
+     * The next item has been handed over, discarded or skipped
+     */
+    public synchronized void next() {
+        position++;
+        if (position > done) {
+            done = position;
+        }
+    }
+
@@ -0,0 +1,233 @@
+package alien4cloud.paas.yorc.context.rest;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.collect.Lists;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Decodes a Yorc events / logs page while reading the HTTP body.
+ *
+ * The page looks like { "<items>": [ {...}, {...} ], "last_index": 42 }. Each item is bound and handed to the
+ * consumer as soon as it is parsed, so the page is never materialized as a list.
+ *
+ * When a deployment filter is given, the deploymentId of each item is checked before the item is bound. Items of
+ * other deployments are skipped without being bound, and the fields after the deploymentId are not even decoded.
+ *
+ * Items are handed over before the page is fully read: when a page fails half way and is queried again, the
+ * PageReplayGuard skips the items the previous attempts already went through.
+ *
+ * @param <T> item type
+ */
+public class PageStreamExtractor<T> implements ResponseExtractor<PageStreamExtractor.Page> {
+
+    private static final String LAST_INDEX = "last_index";
+
+    private static final String DEPLOYMENT_ID = "deploymentId";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Page {
+        private final long lastIndex;
+        private final int count;
+        private final int discarded;
+    }
+
+    private final String itemsField;
+
+    private final ObjectReader reader;
+
+    private final Consumer<T> consumer;
+
+    private final Predicate<String> deploymentFilter;
+
+    private final PageReplayGuard guard;
+
+    // Fields read before the deploymentId, buffers are reused from one item to the other
+    private final List<String> names = Lists.newArrayList();
+    private final List<StringBuilder> values = Lists.newArrayList();
+    private final BitSet nulls = new BitSet();
+    private final List<TokenBuffer> structures = Lists.newArrayList();
+    private int captured;
+
+    public PageStreamExtractor(String itemsField, Class<T> itemType, Consumer<T> consumer) {
+        this(itemsField, itemType, consumer, null, null);
+    }
+
+    public PageStreamExtractor(String itemsField, Class<T> itemType, Consumer<T> consumer, Predicate<String> deploymentFilter) {
+        this(itemsField, itemType, consumer, deploymentFilter, null);
+    }
+
+    /**
+     * @param deploymentFilter items whose deploymentId is not accepted by this filter are discarded, may be null
+     * @param guard skips the items already handed over by a failed attempt of the same page, may be null
+     */
+    public PageStreamExtractor(String itemsField, Class<T> itemType, Consumer<T> consumer, Predicate<String> deploymentFilter, PageReplayGuard guard) {
+        this.itemsField = itemsField;
+        this.reader = MAPPER.readerFor(itemType);
+        this.consumer = consumer;
+        this.deploymentFilter = deploymentFilter;
+        this.guard = guard;
+    }
+
+    @Override
+    public Page extractData(ClientHttpResponse response) throws IOException {
+        Long lastIndex = null;
+        int count = 0;
+        int discarded = 0;
+
+        try (InputStream in = response.getBody(); JsonParser parser = MAPPER.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected Yorc response: JSON object expected");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if (itemsField.equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        count++;
+                        if (guard != null && guard.isReplayed()) {
+                            // Already handed over by a previous attempt
+                            parser.skipChildren();
+                            guard.next();
+                            continue;
+                        }
+
+                        T item = readItem(parser);
+                        if (item == null) {
+                            discarded++;
+                        } else {
+                            consumer.accept(item);
+                        }
+                        if (guard != null) {
+                            guard.next();
+                        }
+                    }
+                } else if (LAST_INDEX.equals(field)) {
+                    lastIndex = parser.getLongValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        if (lastIndex == null) {
+            throw new IOException("Unexpected Yorc response: no " + LAST_INDEX);
+        }
+
+        return new Page(lastIndex, count, discarded);
+    }
+
+    /**
+     * Read an item, the parser is on its START_OBJECT token and is left on its END_OBJECT token.
+     *
+     * @return the item or null if it has been discarded
+     */
+    private T readItem(JsonParser parser) throws IOException {
+        if (deploymentFilter == null) {
+            return reader.readValue(parser);
+        }
+
+        captured = 0;
+        String deploymentId = null;
+        boolean found = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if (DEPLOYMENT_ID.equals(field)) {
+                deploymentId = token == JsonToken.VALUE_NULL ? null : parser.getText();
+                found = true;
+                break;
+            }
+
+            capture(field, token, parser);
+        }
+
+        if (deploymentId == null || !deploymentFilter.test(deploymentId)) {
+            if (found) {
+                // Skip the remaining fields, values are not decoded
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            }
+            return null;
+        }
+
+        // Accepted: rebuild the item from the captured fields and the remaining ones
+        TokenBuffer buffer = new TokenBuffer(parser);
+        buffer.writeStartObject();
+        for (int i = 0; i < captured; i++) {
+            buffer.writeFieldName(names.get(i));
+            if (structures.get(i) != null) {
+                structures.get(i).serialize(buffer);
+            } else if (nulls.get(i)) {
+                buffer.writeNull();
+            } else {
+                buffer.writeString(values.get(i).toString());
+            }
+        }
+        buffer.writeStringField(DEPLOYMENT_ID, deploymentId);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            buffer.copyCurrentStructure(parser);
+        }
+        buffer.writeEndObject();
+
+        try (JsonParser itemParser = buffer.asParser()) {
+            return reader.readValue(itemParser);
+        }
+    }
+
+    /**
+     * Keep a field read before the deploymentId into a reused buffer
+     */
+    private void capture(String field, JsonToken token, JsonParser parser) throws IOException {
+        if (captured == names.size()) {
+            names.add(null);
+            values.add(new StringBuilder());
+            structures.add(null);
+        }
+
+        names.set(captured, field);
+        StringBuilder value = values.get(captured);
+        value.setLength(0);
+        structures.set(captured, null);
+
+        if (token.isStructStart()) {
+            // Structured values are copied as they are
+            TokenBuffer structure = new TokenBuffer(parser);
+            structure.copyCurrentStructure(parser);
+            structures.set(captured, structure);
+            nulls.clear(captured);
+        } else if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+            value.append(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            nulls.clear(captured);
+        } else {
+            nulls.set(captured);
+        }
+
+        captured++;
+    }
+}
@@ -0,0 +1,224 @@
+package alien4cloud.paas.yorc.context.rest;
+
+import io.reactivex.Scheduler;
+import io.reactivex.SingleEmitter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands the body of a response to a ResponseExtractor while it is received, instead of buffering the whole body.
+ *
+ * The IO thread fills a buffer of BUFFER_SIZE bytes, the extractor reads it on a scheduler thread. When the buffer is
+ * full the input of the connection is suspended until the extractor catches up, so a page holds at most BUFFER_SIZE
+ * bytes of its body in memory, whatever its size.
+ *
+ * Error statuses fail like with the rest template, with an HttpClientErrorException or an HttpServerErrorException. When
+ * the connection fails while the body is read, the extractor fails and the connection error is reported.
+ */
+@Slf4j
+class StreamingResponseConsumer<T> extends AbstractAsyncResponseConsumer<Void> {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ResponseExtractor<T> extractor;
+
+    private final Scheduler scheduler;
+
+    private final SingleEmitter<T> emitter;
+
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    // Null until the response is received, or when the body is discarded
+    private volatile SharedInputBuffer buffer;
+
+    // Connection error, reported instead of the error of the extractor
+    private volatile Exception failure;
+
+    // The extractor is over, the rest of the body is discarded
+    private volatile boolean closed = false;
+
+    // The whole response is received
+    private volatile boolean received = false;
+
+    StreamingResponseConsumer(ResponseExtractor<T> extractor, Scheduler scheduler, SingleEmitter<T> emitter) {
+        this.extractor = extractor;
+        this.scheduler = scheduler;
+        this.emitter = emitter;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        int code = response.getStatusLine().getStatusCode();
+        String reason = response.getStatusLine().getReasonPhrase();
+        if (code >= 400) {
+            HttpStatus status = HttpStatus.valueOf(code);
+            fail(code < 500 ? new HttpClientErrorException(status, reason) : new HttpServerErrorException(status, reason));
+            closed = true;
+            return;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        for (Header header : response.getAllHeaders()) {
+            headers.add(header.getName(), header.getValue());
+        }
+
+        SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE);
+        this.buffer = buffer;
+        ClientHttpResponse body = new Body(code, reason, headers, new ContentInputStream(buffer));
+        scheduler.scheduleDirect(() -> extract(buffer, body));
+    }
+
+    private void extract(SharedInputBuffer buffer, ClientHttpResponse body) {
+        try {
+            T result = extractor.extractData(body);
+            if (failure != null) {
+                // A shut down buffer reads as the end of the body
+                fail(failure);
+            } else if (done.compareAndSet(false, true)) {
+                emitter.onSuccess(result);
+            }
+        } catch (Throwable t) {
+            fail(failure == null ? t : failure);
+        } finally {
+            closed = true;
+            buffer.shutdown();
+        }
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+        // The content is read as it comes
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        SharedInputBuffer buffer = this.buffer;
+        if (buffer == null || closed) {
+            discard(decoder);
+            return;
+        }
+        buffer.consumeContent(decoder, ioctrl);
+    }
+
+    private static void discard(ContentDecoder decoder) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(4096);
+        while (decoder.read(scratch) > 0) {
+            scratch.clear();
+        }
+    }
+
+    @Override
+    protected Void buildResult(HttpContext context) {
+        received = true;
+        SharedInputBuffer buffer = this.buffer;
+        if (buffer != null) {
+            // End of stream, the extractor reads what is left
+            buffer.close();
+        } else if (!closed) {
+            fail(new IOException("Response without body"));
+        }
+        return null;
+    }
+
+    @Override
+    protected void releaseResources() {
+        // Also called when the request fails or is cancelled
+        Exception ex = getException();
+        if (ex != null) {
+            onFailure(ex);
+        } else if (!received) {
+            onFailure(new CancellationException("Request cancelled"));
+        }
+    }
+
+    private void onFailure(Exception ex) {
+        failure = ex;
+        SharedInputBuffer buffer = this.buffer;
+        if (buffer == null) {
+            fail(ex);
+        } else {
+            // The extractor fails and reports the failure
+            buffer.shutdown();
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (done.compareAndSet(false, true)) {
+            emitter.onError(t);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Ignoring stream failure after completion: {}", t.getMessage());
+        }
+    }
+
+    /**
+     * The response as seen by the extractor
+     */
+    private static class Body implements ClientHttpResponse {
+
+        private final int code;
+
+        private final String reason;
+
+        private final HttpHeaders headers;
+
+        private final InputStream content;
+
+        private Body(int code, String reason, HttpHeaders headers, InputStream content) {
+            this.code = code;
+            this.reason = reason;
+            this.headers = headers;
+            this.content = content;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() {
+            return HttpStatus.valueOf(code);
+        }
+
+        @Override
+        public int getRawStatusCode() {
+            return code;
+        }
+
+        @Override
+        public String getStatusText() {
+            return reason;
+        }
+
+        @Override
+        public void close() {
+            // The buffer is released by the consumer
+        }
+
+        @Override
+        public InputStream getBody() {
+            return content;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -82,6 +82,9 @@ public class TemplateManager implements SelfNaming {
     // Template
     private AsyncRestTemplate template;
 
+    // Client of the template, for the requests streaming their response
+    private CloseableHttpAsyncClient httpClient;
+
 
     private AtomicBoolean running = new AtomicBoolean(true);
 
@@ -150,7 +153,7 @@ public class TemplateManager implements SelfNaming {
                 .setThreadFactory(threadFactory)
                 .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()));
 
-        CloseableHttpAsyncClient httpClient = builder.build();
+        httpClient = builder.build();
 
         factory = new HttpComponentsAsyncClientHttpRequestFactory(httpClient);
 
@@ -253,6 +256,10 @@ public class TemplateManager implements SelfNaming {
         return template;
     }
 
+    public CloseableHttpAsyncClient getHttpClient() {
+        return httpClient;
+    }
+
     public void term() {
         running.set(false);
 
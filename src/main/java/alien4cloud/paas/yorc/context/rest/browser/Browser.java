@@ -1,53 +1,206 @@
 package alien4cloud.paas.yorc.context.rest.browser;
 
 import alien4cloud.paas.yorc.context.rest.response.Link;
+import com.google.common.collect.Lists;
 import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Scheduler;
 import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
 import lombok.ToString;
 
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Crawls a HATEOAS api: starting from a resource, follows its links by relation, level after level.
+ *
+ * A Browser is one crawl. Each level is a single flatMap over the links of all the resources of the previous level, so
+ * the concurrency of a relation bounds its requests for the whole crawl. A resource is fetched once per crawl, the links
+ * to an url already visited are skipped. Failed requests are retried up to maxRetries times, the delay doubling from
+ * retryDelay, unless the error is not retryable (a 404 will not get better).
+ */
 public class Browser {
 
-    @ToString
+    private static final int DEFAULT_CONCURRENCY = 1;
+
+    private final Scheduler scheduler;
+
+    private final Map<String,Integer> concurrencies;
+
+    private final int maxRetries;
+
+    private final long retryDelay;
+
+    private final Predicate<Throwable> retryable;
+
+    private final Set<String> visited = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+
+    private final AtomicLong retryCount = new AtomicLong(0);
+
+    private final AtomicLong duplicateCount = new AtomicLong(0);
+
+    /**
+     * A resource and the resources it has been reached from
+     */
+    @ToString(exclude = "parent")
     public static class Context {
 
-        public final Object[] context;
+        private final Context parent;
 
-        Context(Object t) {
-            this.context = new Object[] { t };
-        }
+        private final Object value;
+
+        // Index of the value, 0 for the root resource
+        private final int depth;
 
-        Context(Context parent, Object t) {
-            this.context = Arrays.copyOf(parent.context,parent.context.length + 1);
-            this.context[this.context.length - 1] = t;
+        Context(Context parent, Object value) {
+            this.parent = parent;
+            this.value = value;
+            this.depth = parent == null ? 0 : parent.depth + 1;
         }
 
         public Object last() {
-            return this.context[this.context.length - 1];
+            return value;
         }
 
+        /**
+         * @return the resource at this index on the path from the root resource
+         */
         public Object get(int index) {
-            return context[index];
+            if (index < 0 || index > depth) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+
+            Context context = this;
+            while (context.depth > index) {
+                context = context.parent;
+            }
+            return context.value;
         }
 
-        public <T> Observable<Context> follow(String rel, Function<String,Observable<T>> func, int concurrency) {
-            return Observable.just(last())
-                .cast(BrowseableDTO.class)
-                .flatMapIterable(BrowseableDTO::getLinks)
-                .filter(link -> link.getRel().equals(rel))
-                .map(Link::getHref)
-                .flatMap(x -> Observable.defer(() ->func.apply(x)), true, concurrency)
-                .map(object -> new Context(this, object));
+        public int size() {
+            return depth + 1;
         }
     }
 
-    static public <T> Observable<Context> browserFor(Observable<String> links, Function<String,Observable<T>> func, int concurrency) {
-        return links.flatMap(x -> Observable.defer(() -> func.apply(x)), true, concurrency).map( object -> new Context(object));
+    /**
+     * @param concurrencies maximum requests in flight for each relation, 1 for the others
+     * @param maxRetries retries of a failed request
+     * @param retryDelay in milliseconds, before the first retry
+     * @param retryable the errors worth retrying
+     */
+    public Browser(Scheduler scheduler, Map<String,Integer> concurrencies, int maxRetries, long retryDelay, Predicate<Throwable> retryable) {
+        this.scheduler = scheduler;
+        this.concurrencies = concurrencies;
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+        this.retryable = retryable;
+    }
+
+    /**
+     * @return the root resource
+     */
+    public <T> Observable<Context> browse(String href, Function<String,Observable<T>> func) {
+        return Observable.defer(() -> {
+            if (!visited.add(href)) {
+                duplicateCount.incrementAndGet();
+                return Observable.empty();
+            }
+            return get(href, func).map(object -> new Context(null, object));
+        });
+    }
+
+    /**
+     * @return the resources linked by the relation from the upstream ones
+     */
+    public <T> ObservableTransformer<Context,Context> follow(String rel, Function<String,Observable<T>> func) {
+        return parents -> parents
+                .concatMapIterable(parent -> linksOf(parent, rel))
+                .flatMap(hop -> get(hop.href, func).map(object -> new Context(hop.parent, object)), true, concurrencyOf(rel));
+    }
+
+    private static class Hop {
+
+        private final Context parent;
+
+        private final String href;
+
+        private Hop(Context parent, String href) {
+            this.parent = parent;
+            this.href = href;
+        }
+    }
+
+    private List<Hop> linksOf(Context parent, String rel) {
+        if (!(parent.value instanceof BrowseableDTO)) {
+            return Collections.emptyList();
+        }
+
+        List<Link> links = ((BrowseableDTO) parent.value).getLinks();
+        if (links == null) {
+            return Collections.emptyList();
+        }
+
+        List<Hop> hops = Lists.newArrayList();
+        for (Link link : links) {
+            if (rel.equals(link.getRel()) && link.getHref() != null) {
+                if (visited.add(link.getHref())) {
+                    hops.add(new Hop(parent, link.getHref()));
+                } else {
+                    duplicateCount.incrementAndGet();
+                }
+            }
+        }
+        return hops;
+    }
+
+    private <T> Observable<T> get(String href, Function<String,Observable<T>> func) {
+        return Observable.defer(() -> {
+                    requestCount.incrementAndGet();
+                    return func.apply(href);
+                })
+                .retryWhen(errors -> {
+                    AtomicInteger attempts = new AtomicInteger(0);
+                    return errors.flatMap(error -> {
+                        int attempt = attempts.incrementAndGet();
+                        if (attempt > maxRetries || !retryable.test(error)) {
+                            return Observable.error(error);
+                        }
+
+                        retryCount.incrementAndGet();
+                        return Observable.timer(retryDelay << Math.min(attempt - 1, 16), TimeUnit.MILLISECONDS, scheduler);
+                    });
+                });
+    }
+
+    private int concurrencyOf(String rel) {
+        Integer concurrency = concurrencies.get(rel);
+        return concurrency == null || concurrency <= 0 ? DEFAULT_CONCURRENCY : concurrency;
+    }
+
+    /**
+     * @return the requests sent, retries included
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
     }
 
-    static public <T> Observable<Context> browserFor(Observable<String> links, Function<String,Observable<T>> func, int concurrency,Object initial) {
-        Context ctx = new Context(initial);
-        return links.flatMap(x -> Observable.defer(() -> func.apply(x)), true, concurrency).map( object -> new Context(ctx,object));
+    /**
+     * @return the links skipped because their url was already visited
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
     }
 }
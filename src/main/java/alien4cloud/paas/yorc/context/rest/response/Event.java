@@ -1,5 +1,6 @@
 package alien4cloud.paas.yorc.context.rest.response;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -37,4 +38,10 @@ public class Event {
     private String stepId;
     private String attribute;
     private String value;
+
+    /**
+     * System.nanoTime() when the event was received from Yorc, not part of the Yorc API
+     */
+    @JsonIgnore
+    private long receivedAt;
 }
@@ -1,12 +1,10 @@
 package alien4cloud.paas.yorc.context.rest.response;
 
+import alien4cloud.paas.yorc.util.YorcTimestamps;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.Date;
 
 @Getter
@@ -28,7 +26,6 @@ public class LogEvent {
     private String alienTaskId;
 
     public Date getDate() {
-        return Date.from(LocalDateTime.parse(this.getTimestamp(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).atZone(
-                ZoneId.systemDefault()).toInstant());
+        return new Date(YorcTimestamps.toEpochMillis(this.getTimestamp()));
     }
 }
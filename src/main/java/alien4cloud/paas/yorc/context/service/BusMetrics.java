@@ -0,0 +1,205 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.service.polling.Histogram;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Hashtable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How far behind the buses are.
+ *
+ * Events are stamped when the pollers receive them. The time until the state machine gets the mapped message and the
+ * time until an A4C event is posted (status propagation) are recorded in milliseconds. An A4C event is attributed to the
+ * Yorc event being dispatched on the same thread, the others (UI actions, http responses) are not recorded.
+ *
+ * When status propagation takes longer than statusPropagationAlertThreshold, a warning is logged (at most once per
+ * minute) and StatusPropagationSlow is true until the metrics are reset, so that a JMX monitor can alert on it.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class BusMetrics implements SelfNaming {
+
+    private static final long WARNING_PERIOD = TimeUnit.MINUTES.toNanos(1);
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    @Inject
+    private EventDispatcher dispatcher;
+
+    @Inject
+    private ExecutorService executorService;
+
+    /**
+     * Reception time of the event being dispatched on the current thread, 0 if none
+     */
+    private final ThreadLocal<long[]> current = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final Histogram fsmLatency = new Histogram();
+
+    private final Histogram alienLatency = new Histogram();
+
+    private final AtomicLong slowCount = new AtomicLong(0);
+
+    private volatile long lastWarning = System.nanoTime() - WARNING_PERIOD;
+
+    /**
+     * The current thread starts dispatching an event received at receivedAt (System.nanoTime())
+     */
+    public void enter(long receivedAt) {
+        current.get()[0] = receivedAt;
+    }
+
+    public void exit() {
+        current.get()[0] = 0;
+    }
+
+    /**
+     * The message mapped from the current event is sent to the state machine
+     */
+    public void onFsmDispatch() {
+        long receivedAt = current.get()[0];
+        if (receivedAt != 0) {
+            fsmLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - receivedAt));
+        }
+    }
+
+    /**
+     * An A4C event is posted
+     */
+    public void onAlienEvent() {
+        long receivedAt = current.get()[0];
+        if (receivedAt == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long latency = TimeUnit.NANOSECONDS.toMillis(now - receivedAt);
+        alienLatency.record(latency);
+
+        long threshold = getThreshold();
+        if (threshold > 0 && latency > threshold) {
+            slowCount.incrementAndGet();
+            if (now - lastWarning >= WARNING_PERIOD) {
+                lastWarning = now;
+                log.warn("Status propagation took {} ms (threshold {} ms), {} messages queued on the lanes, {} tasks queued on the executor", latency, threshold, getTotalQueuedMessageCount(), getExecutorQueueLength());
+            }
+        }
+    }
+
+    private long getThreshold() {
+        Integer threshold = configuration.getStatusPropagationAlertThreshold();
+        return threshold == null ? 0 : threshold;
+    }
+
+    @ManagedAttribute
+    public int[] getLaneQueuedMessageCounts() {
+        return dispatcher.getLaneDepths();
+    }
+
+    @ManagedAttribute
+    public int getTotalQueuedMessageCount() {
+        int total = 0;
+        for (int depth : dispatcher.getLaneDepths()) {
+            total += depth;
+        }
+        return total;
+    }
+
+    @ManagedAttribute
+    public int getMaxLaneQueuedMessageCount() {
+        int max = 0;
+        for (int depth : dispatcher.getLaneDepths()) {
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+
+    @ManagedAttribute
+    public int getExecutorQueueLength() {
+        if (executorService instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executorService).getQueue().size();
+        }
+        return -1;
+    }
+
+    @ManagedAttribute
+    public int getExecutorActiveCount() {
+        if (executorService instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executorService).getActiveCount();
+        }
+        return -1;
+    }
+
+    @ManagedAttribute
+    public long getEventToFsmMean() {
+        return fsmLatency.getMean();
+    }
+
+    @ManagedAttribute
+    public long getEventToFsmP99() {
+        return fsmLatency.getPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getEventToFsmMax() {
+        return fsmLatency.getMax();
+    }
+
+    @ManagedAttribute
+    public long getStatusPropagationMean() {
+        return alienLatency.getMean();
+    }
+
+    @ManagedAttribute
+    public long getStatusPropagationP99() {
+        return alienLatency.getPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getStatusPropagationMax() {
+        return alienLatency.getMax();
+    }
+
+    @ManagedAttribute
+    public long getSlowStatusPropagationCount() {
+        return slowCount.get();
+    }
+
+    @ManagedAttribute
+    public boolean isStatusPropagationSlow() {
+        long threshold = getThreshold();
+        return threshold > 0 && alienLatency.getMax() > threshold;
+    }
+
+    @ManagedOperation
+    public void resetMetrics() {
+        fsmLatency.reset();
+        alienLatency.reset();
+        slowCount.set(0);
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","BusMetrics");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
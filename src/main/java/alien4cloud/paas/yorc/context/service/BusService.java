@@ -1,116 +1,232 @@
 package alien4cloud.paas.yorc.context.service;
 
 import alien4cloud.paas.model.PaaSDeploymentLog;
-import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
 import alien4cloud.paas.yorc.context.rest.response.Event;
 import alien4cloud.paas.yorc.context.service.fsm.FsmEvents;
 import alien4cloud.paas.yorc.context.service.fsm.FsmMapper;
 import alien4cloud.paas.yorc.context.service.fsm.StateMachineService;
+import alien4cloud.paas.yorc.context.service.log.AdaptiveLogBatcher;
+import alien4cloud.paas.yorc.context.service.log.LogContentPolicy;
+import alien4cloud.paas.yorc.context.service.log.LogIngestionBudget;
+import alien4cloud.paas.yorc.context.service.log.LogRateLimiter;
+import alien4cloud.paas.yorc.context.service.log.LogWriterLanes;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import io.reactivex.Scheduler;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
-import io.reactivex.subjects.PublishSubject;
-import io.reactivex.subjects.Subject;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.Resource;
 import javax.inject.Inject;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 public class BusService {
 
-    @Resource
-    private ProviderConfiguration configuration;
+    @Inject
+    private LogIngestionBudget budget;
+
+    @Inject
+    private LogRateLimiter rateLimiter;
+
+    @Inject
+    private LogContentPolicy contentPolicy;
 
     @Inject
-    private Scheduler scheduler;
+    private AdaptiveLogBatcher batcher;
+
+    @Inject
+    private LogWriterLanes writerLanes;
+
+    @Inject
+    private EventDispatcher dispatcher;
+
+    @Inject
+    private BusMetrics metrics;
 
     /**
-     *      Per deployment we have:
-     *      - One event bus
-     *      - One log bus
-     *      - One FSM Messages bus
+     *      Per deployment we have a Channel holding:
+     *      - The event callbacks (InstanceInformationService, WorkflowInformationService)
+     *      - The FSM Message callback
      *
-     *      The event bus and log bus are connected to the FSM Message bus.
+     *      Events, FSM Messages, and the logs mapped to FSM Messages are handed over to the EventDispatcher lane of the
+     *      deployment: the callbacks of a deployment run in order, on one scheduler thread at a time.
      *
-     *      There is a global log bus that is used for logs serialization in ES
+     *      There is a global log bus that is used for logs serialization in ES. Its logs count in the LogIngestionBudget
+     *      until they are saved. Logs go through the LogRateLimiter and the LogContentPolicy before being published.
      */
-    private static class Buses {
-        // Event Bus
-        private Subject<Event> evts = PublishSubject.create();
+    private static class Channel {
+        // Event callbacks, cleared when the events are no longer listened
+        private volatile List<Consumer<Event>> eventCallbacks = Collections.emptyList();
+
+        private volatile boolean listening = true;
+
+        // FSM Message callback
+        private volatile Consumer<Message<FsmEvents>> messageCallback;
+
+        // Set once deleted, the tasks still queued on the dispatcher do nothing
+        private volatile boolean closed = false;
+
+        private void onEvent(Event event, BusMetrics metrics) throws Exception {
+            if (closed) {
+                return;
+            }
+            for (Consumer<Event> callback : eventCallbacks) {
+                callback.accept(event);
+            }
+            if (FsmMapper.shouldMap(event)) {
+                Message<FsmEvents> message = FsmMapper.map(event);
+                metrics.onFsmDispatch();
+                onMessage(message);
+            }
+        }
 
-        // Log Bus
-        private Subject<PaaSDeploymentLog> logs = PublishSubject.create();
+        private void onMessage(Message<FsmEvents> message) throws Exception {
+            Consumer<Message<FsmEvents>> callback = messageCallback;
+            if (callback != null && !closed) {
+                callback.accept(message);
+            }
+        }
 
-        // Synchronize this one because onNext can be called by multiple threads
-        private Subject<Message<FsmEvents>> messages = PublishSubject.<Message<FsmEvents>>create().toSerialized();
+        /**
+         * Drops the callbacks so that nothing of the deployment is retained by the tasks still queued
+         */
+        private void dispose() {
+            closed = true;
+            listening = false;
+            eventCallbacks = Collections.emptyList();
+            messageCallback = null;
+        }
     }
 
-    private Subject<PaaSDeploymentLog> logs = PublishSubject.create();
+    // Synchronized, logs are published by several pollers
+    private FlowableProcessor<PaaSDeploymentLog> logs = PublishProcessor.<PaaSDeploymentLog>create().toSerialized();
 
-    private Map<String, Buses> eventBuses = Maps.newConcurrentMap();
+    private Map<String, Channel> channels = Maps.newConcurrentMap();
 
     public void createEventBuses(String... ids) {
         for (String id : ids) {
-            Buses b = new Buses();
-            eventBuses.put(id, b);
-
-            // Connect buses to the FSM Message Bus
-            b.evts.filter(FsmMapper::shouldMap).map(FsmMapper::map).observeOn(scheduler).subscribe(b.messages);
-            b.logs.filter(FsmMapper::shouldMap).map(FsmMapper::map).observeOn(scheduler).subscribe(b.messages);
+            channels.put(id, new Channel());
         }
     }
 
+    /**
+     * Releases everything held for the deployment: its callbacks and its log rate limit
+     */
     public void deleteEventBuses(String deploymentId) {
-        eventBuses.remove(deploymentId);
+        Channel c = channels.remove(deploymentId);
+        if (c != null) {
+            c.dispose();
+        }
+        rateLimiter.remove(deploymentId);
+    }
+
+    /**
+     * @return the number of deployments having buses
+     */
+    public int getChannelCount() {
+        return channels.size();
     }
 
     public void subscribe(String deploymentId, Consumer<Message<FsmEvents>> callback) {
-        eventBuses.get(deploymentId).messages.observeOn(scheduler).subscribe(callback);
+        channels.get(deploymentId).messageCallback = callback;
     }
 
-    public void subscribeEvents(String deploymentId, Consumer<Event> callback) {
-        eventBuses.get(deploymentId).evts.subscribe(callback);
+    public synchronized void subscribeEvents(String deploymentId, Consumer<Event> callback) {
+        Channel c = channels.get(deploymentId);
+        List<Consumer<Event>> callbacks = Lists.newArrayList(c.eventCallbacks);
+        callbacks.add(callback);
+        c.eventCallbacks = callbacks;
     }
 
+    /**
+     * The callback receives the batches of each writer lane one at a time, on the scheduler. The lanes run in parallel
+     * and a deployment always uses the same lane. It must release the budget of each batch.
+     */
     public void subscribeLogs(Consumer<List<PaaSDeploymentLog>> callback) {
-        logs.buffer(configuration.getLogBufferDelay(), TimeUnit.MILLISECONDS,scheduler,configuration.getLogBufferCount()).subscribe(callback);
+        logs.subscribe(batcher::add);
+        writerLanes.subscribe(batcher.batches(), callback);
     }
 
     public void unsubscribeEvents(String deploymentId) {
-        Buses b = eventBuses.get(deploymentId);
-        if (b != null) {
-            b.evts = null;
+        Channel c = channels.get(deploymentId);
+        if (c != null) {
+            c.listening = false;
+            c.eventCallbacks = Collections.emptyList();
         }
     }
 
+    /**
+     * @return true if events of this deployment can be published
+     */
+    public boolean isListening(String deploymentId) {
+        Channel c = channels.get(deploymentId);
+        return c != null && c.listening;
+    }
+
     public void publish(Event event) {
-        Buses b = eventBuses.get(event.getDeploymentId());
-        if (b != null && b.evts != null) {
-            b.evts.onNext(event);
+        if (event.getReceivedAt() == 0) {
+            event.setReceivedAt(System.nanoTime());
+        }
+
+        Channel c = channels.get(event.getDeploymentId());
+        if (c != null && c.listening) {
+            dispatcher.execute(event.getDeploymentId(), () -> {
+                // A4C events posted by the callbacks are attributed to this event
+                metrics.enter(event.getReceivedAt());
+                try {
+                    dispatch(event.getDeploymentId(), () -> c.onEvent(event, metrics));
+                } finally {
+                    metrics.exit();
+                }
+            });
         }
     }
 
     public void publish(PaaSDeploymentLog logEvent) {
-        Buses b = eventBuses.get(logEvent.getDeploymentPaaSId());
-        if (b != null && b.logs != null) {
-            b.logs.onNext(logEvent);
+        PaaSDeploymentLog limited = rateLimiter.limit(logEvent);
+        if (limited != null) {
+            // Oversized contents are chunked or compressed
+            for (PaaSDeploymentLog part : contentPolicy.apply(limited)) {
+                publishUnlimited(part);
+            }
         }
+    }
+
+    /**
+     * Publishes a log without going through the rate limiter
+     */
+    public void publishUnlimited(PaaSDeploymentLog logEvent) {
+        if (FsmMapper.shouldMap(logEvent)) {
+            Channel c = channels.get(logEvent.getDeploymentPaaSId());
+            if (c != null) {
+                dispatcher.execute(logEvent.getDeploymentPaaSId(), () -> dispatch(logEvent.getDeploymentPaaSId(), () -> c.onMessage(FsmMapper.map(logEvent))));
+            }
+        }
+        budget.acquire(1);
         logs.onNext(logEvent);
     }
 
     public void publish(Message<FsmEvents> message) {
         String deploymentId = (String) message.getHeaders().get(StateMachineService.YORC_DEPLOYMENT_ID);
 
-        Buses b = eventBuses.get(deploymentId);
-        if (b != null && b.messages != null) {
-            b.messages.onNext(message);
+        Channel c = channels.get(deploymentId);
+        if (c != null) {
+            dispatcher.execute(deploymentId, () -> dispatch(deploymentId, () -> c.onMessage(message)));
+        }
+    }
+
+    private void dispatch(String deploymentId, Action action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            log.error("Dispatch failure for deployment " + deploymentId, e);
         }
     }
 }
@@ -0,0 +1,447 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.dao.YorcESDao;
+import alien4cloud.paas.yorc.model.EventIndex;
+import alien4cloud.paas.yorc.model.LogEventIndex;
+import com.google.common.collect.Maps;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind store for the event and log indexes.
+ *
+ * Index updates are merged in memory (only the latest index of a stream is kept) and written to ES when
+ * checkpointFlushCount updates have been merged or every checkpointFlushPeriod seconds, and always on term().
+ * After a crash, the pollers restart from the last written index: at most checkpointFlushPeriod seconds or
+ * checkpointFlushCount polls of events and logs are replayed.
+ *
+ * When an ES write fails or is slower than checkpointSlowThreshold, checkpoints are written to a small local
+ * journal instead, and ES is retried after ES_RETRY_DELAY. On load, the highest index of ES and journal wins.
+ *
+ * An index never moves backwards: a checkpoint below the last one of its stream is ignored. In lease mode, checkpoints
+ * are only accepted while this node holds the lease (suspend / resume), so that the pages still in flight on a node
+ * that lost it cannot overwrite the checkpoints of the next holder.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class CheckpointService implements SelfNaming {
+
+    /**
+     * Delay in milliseconds before writing to ES again once it has been detected as slow or unavailable
+     */
+    private static final long ES_RETRY_DELAY = 30000;
+
+    private static final String JOURNAL_FILE_SUFFIX = ".checkpoints";
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Inject
+    private YorcESDao dao;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    /**
+     * Pending updates: key -> index
+     */
+    private final Map<String,Long> dirty = Maps.newConcurrentMap();
+
+    /**
+     * Last flushed values, written to the journal as a whole
+     */
+    private final Map<String,Long> flushed = Maps.newConcurrentMap();
+
+    /**
+     * Updates merged since the last flush
+     */
+    private final AtomicInteger updates = new AtomicInteger(0);
+
+    // Flush Task is running
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Flush Task Disposable
+    private Disposable disposable;
+
+    /**
+     * Date until which ES is bypassed in favor of the journal
+     */
+    private volatile long esDisabledUntil = 0;
+
+    private final AtomicLong esWriteCount = new AtomicLong(0);
+
+    private final AtomicLong journalWriteCount = new AtomicLong(0);
+
+    private final AtomicLong mergedCount = new AtomicLong(0);
+
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    /**
+     * False while another node holds the lease
+     */
+    private volatile boolean accepting = true;
+
+    public void init() {
+        running.set(true);
+
+        // Schedule flush task
+        disposable = Completable.timer(configuration.getCheckpointFlushPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::flushTask);
+    }
+
+    public void term() {
+        running.set(false);
+
+        if (disposable != null) {
+            disposable.dispose();
+        }
+
+        // Last chance to save the indexes
+        flush();
+    }
+
+    /**
+     * Load the last known index of a stream.
+     *
+     * @return the index or null if the stream has never been checkpointed
+     */
+    public Long load(Class<?> type, String id) {
+        String key = keyFor(type, id);
+
+        Long pending = dirty.get(key);
+        if (pending != null) {
+            return pending;
+        }
+
+        Long fromEs = loadFromEs(type, id);
+        Long fromJournal = readJournal().get(key);
+
+        Long result;
+        if (fromEs == null) {
+            result = fromJournal;
+        } else if (fromJournal == null) {
+            result = fromEs;
+        } else {
+            result = Math.max(fromEs, fromJournal);
+        }
+
+        if (result != null) {
+            flushed.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Record a new index for a stream. Does not perform any IO on the calling thread.
+     */
+    public void checkpoint(Class<?> type, String id, long index) {
+        if (!merge(keyFor(type, id), index)) {
+            return;
+        }
+        mergedCount.incrementAndGet();
+
+        if (updates.incrementAndGet() >= configuration.getCheckpointFlushCount()) {
+            updates.set(0);
+            if (running.get()) {
+                scheduler.scheduleDirect(this::flush);
+            } else {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Write the pending checkpoints immediately, bypassing the write-behind.
+     */
+    public void checkpointNow(Class<?> type, String id, long index) {
+        if (merge(keyFor(type, id), index)) {
+            flush();
+        }
+    }
+
+    /**
+     * @return false if the checkpoint has been rejected
+     */
+    private boolean merge(String key, long index) {
+        if (!accepting) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        Long last = flushed.get(key);
+        if (last != null && index < last) {
+            log.debug("Ignoring checkpoint {} of {}, behind the last one {}", index, key, last);
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        dirty.merge(key, index, Math::max);
+        return true;
+    }
+
+    /**
+     * Stop accepting checkpoints once the lease is lost: the pending ones are written, the late ones are dropped
+     */
+    public synchronized void suspend() {
+        accepting = false;
+        doFlush();
+        dirty.clear();
+        updates.set(0);
+    }
+
+    /**
+     * Accept checkpoints again once the lease is acquired. What this node flushed may be behind the previous holder, the
+     * indexes are loaded again.
+     */
+    public synchronized void resume() {
+        dirty.clear();
+        flushed.clear();
+        accepting = true;
+    }
+
+    /**
+     * Forget a stream that will not be checkpointed anymore, and delete its checkpoint
+     */
+    public synchronized void remove(Class<?> type, String id) {
+        String key = keyFor(type, id);
+        dirty.remove(key);
+        flushed.remove(key);
+
+        try {
+            dao.delete(type, id);
+        } catch(RuntimeException e) {
+            log.warn("Cannot delete checkpoint {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void flushTask() {
+        if (running.get() == false) {
+            return;
+        }
+
+        flush();
+
+        // Reschedule flush task
+        if (running.get() == true) {
+            disposable = Completable.timer(configuration.getCheckpointFlushPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::flushTask);
+        }
+    }
+
+    /**
+     * Write the pending checkpoints now
+     */
+    public synchronized void flush() {
+        if (accepting) {
+            doFlush();
+        }
+    }
+
+    private void doFlush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        updates.set(0);
+
+        Map<String,Long> batch = Maps.newHashMap(dirty);
+
+        boolean useJournal = System.currentTimeMillis() < esDisabledUntil;
+        if (!useJournal) {
+            useJournal = !writeToEs(batch);
+        }
+
+        if (useJournal) {
+            Map<String,Long> journal = Maps.newHashMap(flushed);
+            journal.putAll(batch);
+            if (!writeJournal(journal)) {
+                // Keep the updates for the next flush
+                return;
+            }
+        }
+
+        for (Map.Entry<String,Long> e : batch.entrySet()) {
+            flushed.put(e.getKey(), e.getValue());
+            // Only remove if no newer value has been merged meanwhile
+            dirty.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * @return true if all the checkpoints have been written
+     */
+    private boolean writeToEs(Map<String,Long> batch) {
+        long start = System.currentTimeMillis();
+        try {
+            for (Map.Entry<String,Long> e : batch.entrySet()) {
+                dao.save(toEntity(e.getKey(), e.getValue()));
+                esWriteCount.incrementAndGet();
+            }
+        } catch(RuntimeException e) {
+            log.warn("Cannot write checkpoints to ES, using local journal: {}", e.getMessage());
+            esDisabledUntil = System.currentTimeMillis() + ES_RETRY_DELAY;
+            return false;
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        if (duration > configuration.getCheckpointSlowThreshold()) {
+            log.warn("Checkpoint write to ES took {} ms, using local journal for the next {} ms", duration, ES_RETRY_DELAY);
+            esDisabledUntil = System.currentTimeMillis() + ES_RETRY_DELAY;
+        }
+        return true;
+    }
+
+    private Long loadFromEs(Class<?> type, String id) {
+        if (type == EventIndex.class) {
+            EventIndex data = dao.findById(EventIndex.class, id);
+            return data == null ? null : data.getIndex();
+        } else if (type == LogEventIndex.class) {
+            LogEventIndex data = dao.findById(LogEventIndex.class, id);
+            return data == null ? null : data.getIndex();
+        }
+        throw new IllegalArgumentException("Unsupported checkpoint type: " + type.getName());
+    }
+
+    private Object toEntity(String key, Long index) {
+        int sep = key.indexOf('/');
+        String type = key.substring(0, sep);
+        String id = key.substring(sep + 1);
+
+        if (type.equals(EventIndex.class.getSimpleName())) {
+            return new EventIndex(id, index, configuration.getOrchestratorId());
+        } else {
+            return new LogEventIndex(id, index, configuration.getOrchestratorId());
+        }
+    }
+
+    private static String keyFor(Class<?> type, String id) {
+        return type.getSimpleName() + "/" + id;
+    }
+
+    private Path getJournalPath() {
+        String dir = configuration.getCheckpointJournalPath();
+        if (StringUtils.isBlank(dir)) {
+            dir = Paths.get(System.getProperty("java.io.tmpdir"), "yorc-checkpoints").toString();
+        }
+        return Paths.get(dir, configuration.getOrchestratorId() + JOURNAL_FILE_SUFFIX);
+    }
+
+    private boolean writeJournal(Map<String,Long> values) {
+        Path path = getJournalPath();
+        Properties props = new Properties();
+        values.forEach((k,v) -> props.setProperty(k, Long.toString(v)));
+
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                props.store(out, "Yorc event / log indexes");
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalWriteCount.incrementAndGet();
+            return true;
+        } catch(IOException e) {
+            log.error("Cannot write checkpoint journal {}: {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    private Map<String,Long> readJournal() {
+        Map<String,Long> result = Maps.newHashMap();
+        Path path = getJournalPath();
+        if (!Files.exists(path)) {
+            return result;
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            props.load(in);
+        } catch(IOException e) {
+            log.error("Cannot read checkpoint journal {}: {}", path, e.getMessage());
+            return result;
+        }
+
+        for (String key : props.stringPropertyNames()) {
+            try {
+                result.put(key, Long.parseLong(props.getProperty(key)));
+            } catch(NumberFormatException e) {
+                log.warn("Ignoring invalid checkpoint {} in journal {}", key, path);
+            }
+        }
+        return result;
+    }
+
+    @ManagedAttribute
+    public int getPendingCheckpointCount() {
+        return dirty.size();
+    }
+
+    @ManagedAttribute
+    public long getMergedCheckpointCount() {
+        return mergedCount.get();
+    }
+
+    /**
+     * @return the checkpoints ignored, behind the last one of their stream or received without the lease
+     */
+    @ManagedAttribute
+    public long getRejectedCheckpointCount() {
+        return rejectedCount.get();
+    }
+
+    @ManagedAttribute
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    @ManagedAttribute
+    public long getEsWriteCount() {
+        return esWriteCount.get();
+    }
+
+    @ManagedAttribute
+    public long getJournalWriteCount() {
+        return journalWriteCount.get();
+    }
+
+    @ManagedAttribute
+    public boolean isUsingJournal() {
+        return System.currentTimeMillis() < esDisabledUntil;
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","CheckpointService");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
@@ -0,0 +1,272 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shares a budget of crawlBudget in flight http requests between the deployments being crawled.
+ *
+ * Each deployment has its own queue of requests. When a request ends, the next one is taken from the deployments in
+ * turn, so that a deployment with thousands of attributes does not hold back the others. The deployments A4C is waiting
+ * for (prioritize) are served first.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class CrawlScheduler implements SelfNaming {
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    // Requests waiting by deployment
+    private final Map<String,Queue<Request>> queues = Maps.newHashMap();
+
+    // Deployments with waiting requests, in turn
+    private final Deque<String> ready = new ArrayDeque<>();
+
+    private final Set<String> priorities = Sets.newHashSet();
+
+    private int inFlight = 0;
+
+    private int queued = 0;
+
+    private final AtomicLong completed = new AtomicLong(0);
+
+    // Number of drain requests, the drain loop runs on a single thread at a time
+    private final AtomicInteger wip = new AtomicInteger(0);
+
+    private static final int WAITING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private class Request<T> {
+
+        private final Callable<Observable<T>> request;
+
+        private final ObservableEmitter<T> emitter;
+
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private final AtomicReference<Disposable> disposable = new AtomicReference<>();
+
+        private Request(Callable<Observable<T>> request, ObservableEmitter<T> emitter) {
+            this.request = request;
+            this.emitter = emitter;
+        }
+
+        private void start() {
+            Observable<T> observable;
+            try {
+                observable = request.call();
+            } catch (Exception e) {
+                end();
+                emitter.tryOnError(e);
+                return;
+            }
+
+            disposable.set(observable.subscribe(
+                    emitter::onNext,
+                    e -> {
+                        end();
+                        emitter.tryOnError(e);
+                    },
+                    () -> {
+                        end();
+                        emitter.onComplete();
+                    }
+            ));
+        }
+
+        private void cancel() {
+            end();
+            Disposable d = disposable.get();
+            if (d != null) {
+                d.dispose();
+            }
+        }
+
+        /**
+         * Gives the slot back, or makes the request skipped if it has not started yet
+         */
+        private void end() {
+            if (state.getAndSet(DONE) == RUNNING) {
+                completed.incrementAndGet();
+                synchronized (CrawlScheduler.this) {
+                    inFlight--;
+                }
+                drain();
+            }
+        }
+    }
+
+    /**
+     * @return the request, subscribed to once a slot of the budget is granted to the deployment
+     */
+    public <T> Observable<T> schedule(String deploymentId, Callable<Observable<T>> request) {
+        return Observable.create(emitter -> {
+            Request<T> r = new Request<>(request, emitter);
+            emitter.setCancellable(r::cancel);
+            submit(deploymentId, r);
+        });
+    }
+
+    /**
+     * Serves the requests of the deployment before the others until done is called
+     */
+    public synchronized void prioritize(String deploymentId) {
+        if (priorities.add(deploymentId)) {
+            log.debug("Crawl of {} prioritized", deploymentId);
+        }
+    }
+
+    /**
+     * The crawl of the deployment is over
+     */
+    public synchronized void done(String deploymentId) {
+        priorities.remove(deploymentId);
+    }
+
+    private void submit(String deploymentId, Request request) {
+        synchronized (this) {
+            Queue<Request> queue = queues.get(deploymentId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(deploymentId, queue);
+                ready.addLast(deploymentId);
+            }
+            queue.offer(request);
+            queued++;
+        }
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        for (;;) {
+            List<Request> granted = Lists.newArrayList();
+
+            synchronized (this) {
+                while (inFlight < getBudget() && !ready.isEmpty()) {
+                    Request request = next();
+                    if (request.state.compareAndSet(WAITING, RUNNING)) {
+                        inFlight++;
+                        granted.add(request);
+                    }
+                }
+            }
+
+            // Start them out of the lock, a request ending synchronously makes the loop run again
+            for (Request request : granted) {
+                request.start();
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the first request of the next deployment in turn, a prioritized one if any
+     */
+    private Request next() {
+        String deploymentId = null;
+        if (!priorities.isEmpty()) {
+            for (String candidate : ready) {
+                if (priorities.contains(candidate)) {
+                    deploymentId = candidate;
+                    break;
+                }
+            }
+        }
+        if (deploymentId == null) {
+            deploymentId = ready.pollFirst();
+        } else {
+            ready.remove(deploymentId);
+        }
+
+        Queue<Request> queue = queues.get(deploymentId);
+        Request request = queue.poll();
+        queued--;
+        if (queue.isEmpty()) {
+            queues.remove(deploymentId);
+        } else {
+            ready.addLast(deploymentId);
+        }
+        return request;
+    }
+
+    private int getBudget() {
+        Integer budget = configuration.getCrawlBudget();
+        return budget == null || budget <= 0 ? Integer.MAX_VALUE : budget;
+    }
+
+    @ManagedAttribute
+    public int getBudgetSize() {
+        return getBudget();
+    }
+
+    @ManagedAttribute
+    public synchronized int getInFlightRequestCount() {
+        return inFlight;
+    }
+
+    @ManagedAttribute
+    public synchronized int getQueuedRequestCount() {
+        return queued;
+    }
+
+    @ManagedAttribute
+    public synchronized int getQueuedDeploymentCount() {
+        return queues.size();
+    }
+
+    @ManagedAttribute
+    public synchronized int getPrioritizedDeploymentCount() {
+        return priorities.size();
+    }
+
+    @ManagedAttribute
+    public long getCompletedRequestCount() {
+        return completed.get();
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","CrawlScheduler");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
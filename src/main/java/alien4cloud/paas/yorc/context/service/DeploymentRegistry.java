@@ -1,10 +1,8 @@
 package alien4cloud.paas.yorc.context.service;
 
 import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
-import alien4cloud.utils.jackson.MapEntry;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import io.reactivex.Completable;
 import io.reactivex.Scheduler;
 import io.reactivex.disposables.Disposable;
@@ -12,14 +10,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Maps the Yorc deployment ids to the A4C ones.
+ *
+ * Lookups are lock free: both maps hold immutable entries, an update replaces the entry. An unregistered deployment
+ * stays mapped for registryEntryTtl seconds (late events and logs still find it). Its tombstone is put in a timing wheel
+ * ticking every registryEvictionPerdiod seconds, in the slot of the tick it expires at, so that an eviction tick only
+ * visits the tombstones of its slot instead of scanning the whole registry.
+ */
 @Slf4j
 @Service
 public class DeploymentRegistry {
@@ -38,56 +43,89 @@ public class DeploymentRegistry {
 
     private static class DeploymentData {
 
-        static DeploymentData defVal = new DeploymentData();
+        private final String yorcId;
+        private final String alienId;
 
-        private DeploymentData() {
-        }
+        // System.nanoTime() of the unregistration, 0 while registered
+        private final long deleted;
 
-        private DeploymentData(String yorcId,String alienId) {
-            this.alienId = alienId;
+        private DeploymentData(String yorcId, String alienId, long deleted) {
             this.yorcId = yorcId;
+            this.alienId = alienId;
+            this.deleted = deleted;
         }
-
-        private String yorcId;
-        private String alienId;
-        private Instant deleted;
     }
 
     /**
      * Map AlienID -> DeploymentData
      */
-    private final Map<String,DeploymentData> aMap = Maps.newHashMap();
+    private final Map<String,DeploymentData> aMap = Maps.newConcurrentMap();
 
     /**
      * Map YorcID -> DeploymentData
      */
-    private final Map<String,DeploymentData> yMap = Maps.newHashMap();
+    private final Map<String,DeploymentData> yMap = Maps.newConcurrentMap();
+
+    /**
+     * Tombstones by expiration tick, the slot of tick t is t % wheel.length
+     */
+    private volatile Queue<DeploymentData>[] wheel;
+
+    /**
+     * Tombstones created before the wheel
+     */
+    private final Queue<DeploymentData> overflow = new ConcurrentLinkedQueue<>();
 
-    public synchronized void register(String yDeploymentId, String aDeploymentId) {
-            DeploymentData data = new DeploymentData(yDeploymentId,aDeploymentId);
+    // Number of eviction ticks, only updated by the eviction task
+    private volatile long tick = 0;
 
-            yMap.remove(yDeploymentId);
+    public void register(String yDeploymentId, String aDeploymentId) {
+        DeploymentData data = new DeploymentData(yDeploymentId, aDeploymentId, 0);
 
-            aMap.put(aDeploymentId,data);
-            yMap.put(yDeploymentId,data);
+        yMap.put(yDeploymentId, data);
+        aMap.put(aDeploymentId, data);
     }
 
-    public synchronized void unregister(String yDeploymentId) {
+    public void unregister(String yDeploymentId) {
         DeploymentData data = yMap.get(yDeploymentId);
-        if (data != null && data.deleted == null) {
-            data.deleted = Instant.now();
+        if (data == null || data.deleted != 0) {
+            return;
+        }
+
+        DeploymentData tombstone = new DeploymentData(data.yorcId, data.alienId, System.nanoTime());
+        if (yMap.replace(yDeploymentId, data, tombstone)) {
+            // The alien id may have been registered again meanwhile
+            aMap.replace(data.alienId, data, tombstone);
+            schedule(tombstone);
         }
     }
 
-    public synchronized String toYorcId(String aDeploymentId) {
-        return aMap.getOrDefault(aDeploymentId,DeploymentData.defVal).yorcId;
+    public String toYorcId(String aDeploymentId) {
+        DeploymentData data = aMap.get(aDeploymentId);
+        return data == null ? null : data.yorcId;
     }
 
-    public synchronized String toAlienId(String yDeploymentId) {
-        return yMap.getOrDefault(yDeploymentId,DeploymentData.defVal).alienId;
+    public String toAlienId(String yDeploymentId) {
+        DeploymentData data = yMap.get(yDeploymentId);
+        return data == null ? null : data.alienId;
+    }
+
+    /**
+     * @return the Yorc ids of the registered deployments, including the unregistered ones not evicted yet
+     */
+    public Set<String> getYorcIds() {
+        return Sets.newHashSet(yMap.keySet());
     }
 
     public void init() {
+        // One slot per tick of the ttl, plus the current one and the next one
+        int slots = (int) ceilDiv(configuration.getRegistryEntryTtl(), configuration.getRegistryEvictionPerdiod()) + 2;
+        Queue<DeploymentData>[] queues = new Queue[slots];
+        for (int i = 0; i < slots; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        wheel = queues;
+
         // Schedule eviction task
         disposable = Completable.timer(configuration.getRegistryEvictionPerdiod(), TimeUnit.SECONDS, scheduler).subscribe(this::evictionTask);
     }
@@ -113,16 +151,53 @@ public class DeploymentRegistry {
         }
     }
 
-    private synchronized void doEviction() {
-        int ttl = configuration.getRegistryEntryTtl();
-        Instant now = Instant.now();
+    /**
+     * Puts the tombstone in the slot of the first tick after its expiration
+     */
+    private void schedule(DeploymentData tombstone) {
+        Queue<DeploymentData>[] queues = wheel;
+        if (queues == null) {
+            overflow.offer(tombstone);
+            return;
+        }
+
+        long remaining = tombstone.deleted + TimeUnit.SECONDS.toNanos(configuration.getRegistryEntryTtl()) - System.nanoTime();
+        long ticks = Math.max(1, ceilDiv(remaining, TimeUnit.SECONDS.toNanos(configuration.getRegistryEvictionPerdiod())));
+
+        // A ttl change can make the wheel too short, the tombstone is then rescheduled when its slot comes
+        ticks = Math.min(ticks, queues.length - 1);
+        queues[(int) ((tick + ticks) % queues.length)].offer(tombstone);
+    }
 
-        for (Iterator<DeploymentData> it = yMap.values().iterator();it.hasNext();) {
-            DeploymentData data = it.next();
-            if (data.deleted != null && (Duration.between(data.deleted,now).getSeconds() > ttl)) {
-                aMap.remove(data.alienId);
-                it.remove();
+    void doEviction() {
+        Queue<DeploymentData>[] queues = wheel;
+        if (queues == null) {
+            return;
+        }
+
+        tick++;
+
+        DeploymentData tombstone;
+        while ((tombstone = overflow.poll()) != null) {
+            schedule(tombstone);
+        }
+
+        long ttl = TimeUnit.SECONDS.toNanos(configuration.getRegistryEntryTtl());
+        long now = System.nanoTime();
+        Queue<DeploymentData> slot = queues[(int) (tick % queues.length)];
+        int count = slot.size();
+        for (int i = 0; i < count && (tombstone = slot.poll()) != null; i++) {
+            if (now - tombstone.deleted >= ttl) {
+                // Only if it has not been registered again
+                yMap.remove(tombstone.yorcId, tombstone);
+                aMap.remove(tombstone.alienId, tombstone);
+            } else {
+                schedule(tombstone);
             }
         }
     }
+
+    private static long ceilDiv(long a, long b) {
+        return b <= 0 ? 1 : (a + b - 1) / b;
+    }
 }
@@ -0,0 +1,128 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import io.reactivex.Scheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the per deployment tasks of the BusService on a fixed number of lanes.
+ *
+ * A deployment is hashed to a lane. A lane is a queue drained by one scheduler thread at a time, so the tasks of a
+ * deployment run in order and never concurrently, while the lanes run in parallel. A lane gives its thread back after
+ * MAX_BATCH tasks so that a busy lane does not starve the other scheduler tasks.
+ */
+@Slf4j
+@Service
+public class EventDispatcher {
+
+    private static final int MAX_BATCH = 256;
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    private volatile Lane[] lanes;
+
+    private class Lane implements Runnable {
+
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Number of tasks submitted and not yet accounted by the drain loop
+         */
+        private final AtomicInteger wip = new AtomicInteger(0);
+
+        private final AtomicInteger depth = new AtomicInteger(0);
+
+        private void submit(Runnable task) {
+            depth.incrementAndGet();
+            queue.offer(task);
+            if (wip.getAndIncrement() == 0) {
+                scheduler.scheduleDirect(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = wip.get();
+            int done = 0;
+            for (;;) {
+                Runnable task;
+                while (done < MAX_BATCH && (task = queue.poll()) != null) {
+                    depth.decrementAndGet();
+                    done++;
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("Event dispatch failure", e);
+                    }
+                }
+
+                if (done >= MAX_BATCH) {
+                    // Yield, the remaining tasks are still counted in wip
+                    scheduler.scheduleDirect(this);
+                    return;
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the task on the lane of the deployment, after the tasks already submitted for it
+     */
+    public void execute(String deploymentId, Runnable task) {
+        Lane[] current = getLanes();
+        current[laneOf(deploymentId, current.length)].submit(task);
+    }
+
+    /**
+     * @return the number of tasks waiting on each lane
+     */
+    public int[] getLaneDepths() {
+        Lane[] current = getLanes();
+        int[] result = new int[current.length];
+        for (int i = 0; i < current.length; i++) {
+            result[i] = current[i].depth.get();
+        }
+        return result;
+    }
+
+    private Lane[] getLanes() {
+        Lane[] current = lanes;
+        if (current == null) {
+            synchronized (this) {
+                current = lanes;
+                if (current == null) {
+                    Integer count = configuration.getEventDispatcherLanes();
+                    if (count == null || count <= 0) {
+                        count = configuration.getExecutorThreadPoolSize();
+                    }
+                    current = new Lane[Math.max(1, count)];
+                    for (int i = 0; i < current.length; i++) {
+                        current[i] = new Lane();
+                    }
+                    lanes = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    static int laneOf(String deploymentId, int count) {
+        return deploymentId == null ? 0 : Math.floorMod(deploymentId.hashCode(), count);
+    }
+}
@@ -3,14 +3,16 @@ package alien4cloud.paas.yorc.context.service;
 import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
 import alien4cloud.paas.yorc.context.YorcOrchestrator;
 import alien4cloud.paas.yorc.context.rest.EventClient;
+import alien4cloud.paas.yorc.context.rest.PageReplayGuard;
+import alien4cloud.paas.yorc.context.rest.PageStreamExtractor;
 import alien4cloud.paas.yorc.context.rest.response.Event;
-import alien4cloud.paas.yorc.context.rest.response.EventDTO;
-import alien4cloud.paas.yorc.dao.YorcESDao;
+import alien4cloud.paas.yorc.context.service.polling.PollMetrics;
+import alien4cloud.paas.yorc.context.service.polling.PollScheduler;
 import alien4cloud.paas.yorc.model.EventIndex;
+import alien4cloud.paas.yorc.util.YorcTimestamps;
 import io.reactivex.Scheduler;
-import io.reactivex.Single;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.ResponseEntity;
+import org.springframework.jmx.export.MBeanExportOperations;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.export.naming.SelfNaming;
@@ -20,8 +22,12 @@ import javax.annotation.Resource;
 import javax.inject.Inject;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import java.time.format.DateTimeParseException;
 import java.util.Hashtable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
@@ -39,7 +45,7 @@ public class EventPollingService implements SelfNaming {
     private BusService bus;
 
     @Inject
-    private YorcESDao dao;
+    private CheckpointService checkpoints;
 
     @Inject
     private YorcOrchestrator orchestrator;
@@ -47,15 +53,82 @@ public class EventPollingService implements SelfNaming {
     @Resource
     private ProviderConfiguration configuration;
 
+    // By name, the parent context has its own exporter
+    @Resource(name = "mbeanExporter")
+    private MBeanExportOperations exporter;
+
     /**
-     * Index
+     * Index of the last dispatched batch
      */
-    private long index = 1;
+    private volatile long index = 1;
+
+    /**
+     * Index used for the next query. When prefetching, it is ahead of the dispatched index.
+     */
+    private volatile long fetchIndex = 1;
 
     /**
      * Stopped flag
      */
-    private boolean stopped = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * Incremented on each init, callbacks of the queries sent before a restart are ignored
+     */
+    private volatile int epoch = 0;
+
+    /**
+     * Skips the items of a page already dispatched when the page is queried again after a failure, renewed on each init
+     */
+    private volatile PageReplayGuard guard;
+
+    /**
+     * True while a query is in flight or scheduled
+     */
+    private boolean fetching = false;
+
+    /**
+     * Marks the end of a page in the pending queue
+     */
+    private static final class PageEnd {
+        private final long lastIndex;
+
+        private PageEnd(long lastIndex) {
+            this.lastIndex = lastIndex;
+        }
+    }
+
+    /**
+     * Events received from Yorc and waiting to be dispatched, followed by the end of their page.
+     * Events of a page are queued while the page is decoded. If the decoding fails, the page is queried again and
+     * the events already dispatched are replayed.
+     */
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of pages received and not yet fully dispatched
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+
+    /**
+     * Drain work in progress counter, ensures only one thread dispatches at a time
+     */
+    private final AtomicInteger wip = new AtomicInteger(0);
+
+    /**
+     * Long polling wait, retries and circuit breaker
+     */
+    private PollScheduler pollScheduler;
+
+    /**
+     * Latency, batch size, dispatch time and lag
+     */
+    private PollMetrics metrics;
+
+    /**
+     * Start of the request in flight, in nanoseconds
+     */
+    private volatile long requestStart;
 
     /**
      * Total event count
@@ -63,15 +136,55 @@ public class EventPollingService implements SelfNaming {
     private AtomicLong totalCount = new AtomicLong(0);
 
     /**
-     * Initialize the polling
+     * Events of deployments nobody listens to, skipped before being decoded
+     */
+    private AtomicLong discardedCount = new AtomicLong(0);
+
+    /**
+     * Duration of the last batch dispatch in milliseconds
+     */
+    private volatile long lastDispatchDuration = 0;
+
+    /**
+     * Time spent dispatching the events of the current page, only accessed by the draining thread
+     */
+    private long pageDispatchNanos = 0;
+
+    /**
+     * Last event dispatched in the current page, only accessed by the draining thread
+     */
+    private Event lastDispatchedEvent;
+
+    /**
+     * Lag in milliseconds between the Yorc timestamp of the last dispatched event and its dispatch
+     */
+    private volatile long lastEventLag = 0;
+
+    /**
+     * Initialize the polling, can be called again after term()
      */
     public void init() {
+        epoch++;
+        stopped = false;
+        pending.clear();
+        pendingCount.set(0);
+
+        guard = new PageReplayGuard();
+        pollScheduler = new PollScheduler("Event", configuration, scheduler);
+        metrics = new PollMetrics("Event", configuration, scheduler, client::getLastIndex, this::getDispatchedIndex, exporter);
 
         // Ensure ES Index exists
         initIndex();
 
+        fetchIndex = index;
+
         // Bootstrap the polling
+        synchronized (this) {
+            fetching = true;
+        }
         doQuery();
+
+        metrics.start();
     }
 
     /**
@@ -80,82 +193,240 @@ public class EventPollingService implements SelfNaming {
      */
     private void doQuery() {
         if (log.isDebugEnabled()) {
-            log.debug("Querying events for orch <{} from index <{}>", configuration.getOrchestratorId(), index);
+            log.debug("Querying events for orch <{} from index <{}>", configuration.getOrchestratorId(), fetchIndex);
         }
-        client.get(index).subscribe(this::processEvents,this::processErrors);
+        final int current = epoch;
+        final PageReplayGuard guard = this.guard;
+        guard.start(fetchIndex);
+        requestStart = System.nanoTime();
+        client.stream(fetchIndex,pollScheduler.getWait(),event -> {
+            if (current == epoch) {
+                onEvent(event);
+            }
+        },bus::isListening,guard).subscribe(page -> {
+            if (current == epoch) {
+                onResponse(page);
+            }
+        },t -> {
+            if (current == epoch) {
+                processErrors(t);
+            }
+        });
     }
 
     /*
-     * Process the event
+     * Called on the http thread for each event, while the page is decoded
      */
-    private void processEvents(ResponseEntity<EventDTO> entity) {
-        EventDTO response = entity.getBody();
+    private void onEvent(Event event) {
+        if (accept(event)) {
+            pending.offer(event);
+            signal();
+        }
+    }
 
-        for (Event event : response.getEvents()) {
+    /**
+     * Publishes an event received by a deployment stream, filtered and counted like the ones of the global stream
+     */
+    void publishScoped(Event event) {
+        if (accept(event)) {
+            bus.publish(event);
+        }
+    }
 
-            if (log.isTraceEnabled()) {
-                log.trace("Event received : {}", event);
+    /**
+     * @return true if the event is of a known type, counted
+     */
+    private boolean accept(Event event) {
+        event.setReceivedAt(System.nanoTime());
+
+        if (log.isTraceEnabled()) {
+            log.trace("Event received : {}", event);
+        }
+
+        switch(event.getType()) {
+            case Event.EVT_INSTANCE:
+            case Event.EVT_DEPLOYMENT:
+            case Event.EVT_CUSTOMCMD:
+            case Event.EVT_SCALING:
+            case Event.EVT_WORKFLOW:
+            case Event.EVT_WORKFLOWSTEP:
+            case Event.EVT_ALIENTASK:
+            case Event.EVT_ATTRIBUTE:
+                totalCount.getAndIncrement();
+                return true;
+            default:
+                if (log.isWarnEnabled())
+                    log.warn("Unknown Yorc Event of type <{}> for deployment <{}> : {}", event.getType(), event.getDeploymentId(), event);
+                return false;
+        }
+    }
+
+    /*
+     * The whole page has been decoded: queue the checkpoint and, when prefetching is enabled, query the next page right away
+     */
+    private void onResponse(PageStreamExtractor.Page page) {
+        pollScheduler.onSuccess(page.getCount());
+        metrics.onPoll(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStart), page.getCount(), page.getLastIndex());
+        discardedCount.addAndGet(page.getDiscarded());
+
+        pendingCount.incrementAndGet();
+        pending.offer(new PageEnd(page.getLastIndex()));
+
+        // The next index is known as soon as the page is decoded
+        fetchIndex = page.getLastIndex();
+
+        boolean fetchNext;
+        synchronized (this) {
+            fetchNext = !stopped && pendingCount.get() <= getPrefetchDepth();
+            fetching = fetchNext;
+        }
+
+        if (fetchNext) {
+            doQuery();
+        }
+
+        signal();
+    }
+
+    /**
+     * Ensure the pending items are being dispatched
+     */
+    private void signal() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        if (getPrefetchDepth() == 0) {
+            // No prefetch: dispatch on the current thread like a sequential poller
+            drain();
+        } else {
+            scheduler.scheduleDirect(this::drain);
+        }
+    }
+
+    /**
+     * Dispatch the pending items in order, only one thread at a time
+     */
+    private void drain() {
+        int missed = 1;
+
+        do {
+            Object item;
+            while ((item = pending.poll()) != null) {
+                if (item instanceof PageEnd) {
+                    onPageDispatched((PageEnd) item);
+                    pendingCount.decrementAndGet();
+
+                    // A slot is available, resume the fetch if it was paused
+                    resumeFetch();
+                } else {
+                    long start = System.nanoTime();
+                    bus.publish((Event) item);
+                    pageDispatchNanos += System.nanoTime() - start;
+                    lastDispatchedEvent = (Event) item;
+                }
             }
 
-            switch(event.getType()) {
-                case Event.EVT_INSTANCE:
-                case Event.EVT_DEPLOYMENT:
-                case Event.EVT_CUSTOMCMD:
-                case Event.EVT_SCALING:
-                case Event.EVT_WORKFLOW:
-                case Event.EVT_WORKFLOWSTEP:
-                case Event.EVT_ALIENTASK:
-                case Event.EVT_ATTRIBUTE:
-                    totalCount.getAndIncrement();
-                    bus.publish(event);
-                    break;
-                default:
-                    if (log.isWarnEnabled())
-                        log.warn("Unknown Yorc Event of type <{}> for deployment <{}> : {}", event.getType(), event.getDeploymentId(), event);
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void resumeFetch() {
+        synchronized (this) {
+            if (fetching || stopped) {
+                return;
             }
+            if (pendingCount.get() > getPrefetchDepth()) {
+                return;
+            }
+            fetching = true;
         }
+        doQuery();
+    }
 
-        index = response.getLast_index();
+    /*
+     * All the events of a page have been dispatched
+     */
+    private void onPageDispatched(PageEnd end) {
+        lastDispatchDuration = TimeUnit.NANOSECONDS.toMillis(pageDispatchNanos);
+        pageDispatchNanos = 0;
+        metrics.onDispatch(lastDispatchDuration);
 
-        // store it in ES
+        if (lastDispatchedEvent != null) {
+            updateEventLag(lastDispatchedEvent, System.currentTimeMillis());
+            lastDispatchedEvent = null;
+        }
+
+        index = end.lastIndex;
+
+        // checkpoint it
         saveIndex();
+    }
 
-        if (!stopped) {
-            doQuery();
+    private void updateEventLag(Event event, long now) {
+        try {
+            lastEventLag = now - YorcTimestamps.toEpochMillis(event.getTimestamp());
+        } catch(DateTimeParseException | NullPointerException e) {
+            if (log.isTraceEnabled()) {
+                log.trace("Cannot compute lag from event timestamp <{}>", event.getTimestamp());
+            }
         }
     }
 
     private void processErrors(Throwable t) {
         if (!stopped) {
+            long delay = pollScheduler.onFailure(t);
             if (log.isErrorEnabled())
-                log.error("Event polling Exception: {}", t.getMessage());
-            Single.timer(configuration.getPollingRetryDelay(),TimeUnit.SECONDS,scheduler)
-                .flatMap(x -> client.get(index))
-                .subscribe(this::processEvents,this::processErrors);
+                log.error("Event polling Exception: {}, retrying in {} ms", t.getMessage(), delay);
+            final int current = epoch;
+            pollScheduler.delay(delay).subscribe(() -> {
+                if (current == epoch) {
+                    retry();
+                }
+            });
+        } else {
+            synchronized (this) {
+                fetching = false;
+            }
+        }
+    }
+
+    private void retry() {
+        if (stopped) {
+            synchronized (this) {
+                fetching = false;
+            }
+        } else {
+            doQuery();
         }
     }
 
     public void term() {
         stopped = true;
+
+        if (metrics != null) {
+            metrics.stop();
+        }
+    }
+
+    private int getPrefetchDepth() {
+        Integer depth = configuration.getEventPrefetchDepth();
+        return depth == null || depth < 0 ? 0 : depth;
     }
 
     private void initIndex() {
-        EventIndex data = dao.findById(EventIndex.class,configuration.getOrchestratorId());
+        Long data = checkpoints.load(EventIndex.class,configuration.getOrchestratorId());
         if (data == null) {
             // This is our first run, initialize the index from Yorc
-            Long lastIndex = client.getLastIndex().blockingGet();
-
-            data = new EventIndex();
-            data.setId(configuration.getOrchestratorId());
-            data.setIndex(lastIndex);
-            dao.save(data);
+            data = client.getLastIndex().blockingGet();
+            checkpoints.checkpointNow(EventIndex.class,configuration.getOrchestratorId(),data);
         }
 
-        index = data.getIndex();
+        index = data;
     }
 
     private void saveIndex() {
-        dao.save(new EventIndex(configuration.getOrchestratorId(),index));
+        checkpoints.checkpoint(EventIndex.class,configuration.getOrchestratorId(),index);
     }
 
     @ManagedAttribute
@@ -163,6 +434,51 @@ public class EventPollingService implements SelfNaming {
         return totalCount.get();
     }
 
+    @ManagedAttribute
+    public long getDiscardedEventCount() {
+        return discardedCount.get();
+    }
+
+    @ManagedAttribute
+    public long getDispatchedIndex() {
+        return index;
+    }
+
+    @ManagedAttribute
+    public long getFetchedIndex() {
+        return fetchIndex;
+    }
+
+    @ManagedAttribute
+    public int getPendingBatchCount() {
+        return pendingCount.get();
+    }
+
+    @ManagedAttribute
+    public long getLastDispatchDuration() {
+        return lastDispatchDuration;
+    }
+
+    @ManagedAttribute
+    public long getLastEventLag() {
+        return lastEventLag;
+    }
+
+    @ManagedAttribute
+    public String getCircuitState() {
+        return pollScheduler == null ? null : pollScheduler.getState().name();
+    }
+
+    @ManagedAttribute
+    public int getConsecutiveFailures() {
+        return pollScheduler == null ? 0 : pollScheduler.getFailures();
+    }
+
+    @ManagedAttribute
+    public long getLongPollWait() {
+        return pollScheduler == null ? 0 : pollScheduler.getWait();
+    }
+
     @Override
     public ObjectName getObjectName() throws MalformedObjectNameException {
         Hashtable<String,String> kv = new Hashtable();
@@ -0,0 +1,38 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.model.InstanceInformation;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The instance information of a deployment that changed since a version.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class InstanceInformationDelta {
+
+    /**
+     * Version of the information, to ask for the next changes
+     */
+    private final long version;
+
+    /**
+     * True when the requested version has been compacted away, changed then holds all the instances
+     */
+    private final boolean full;
+
+    /**
+     * Changed instances by node, with their state and only the attributes that changed
+     */
+    private final Map<String,Map<String,InstanceInformation>> changed;
+
+    /**
+     * Removed instance ids by node
+     */
+    private final Map<String,Set<String>> removed;
+}
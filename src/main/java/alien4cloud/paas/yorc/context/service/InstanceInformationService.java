@@ -5,28 +5,74 @@ import alien4cloud.paas.model.InstanceInformation;
 import alien4cloud.paas.model.InstanceStatus;
 import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
 import alien4cloud.paas.plan.ToscaNodeLifecycleConstants;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
 import alien4cloud.paas.yorc.context.YorcOrchestrator;
 import alien4cloud.paas.yorc.context.rest.DeploymentClient;
 import alien4cloud.paas.yorc.context.rest.browser.Browser;
 import alien4cloud.paas.yorc.context.rest.response.*;
+import alien4cloud.paas.yorc.context.service.polling.Histogram;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import io.reactivex.Observable;
 import io.reactivex.Scheduler;
+import io.reactivex.functions.Function;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 
+import javax.annotation.Resource;
 import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Supplier;
-
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps the instances and attributes of the deployments.
+ *
+ * The information of a deployment is an immutable versioned snapshot: a writer builds the next snapshot from the current
+ * one, sharing the nodes and instances it does not change, and publishes it with a compare and set. Readers just take
+ * the current snapshot, they never wait for the event stream and A4C gets maps that are never modified afterwards.
+ *
+ * Each snapshot also links the changes that led to it, the last instanceInformationChangeLogSize ones at least, so that
+ * getChangesSince only visits and copies what changed since the version a client already has. Nothing calls it yet, the
+ * A4C interface only asks for the whole information.
+ *
+ * The initial crawl applies its attributes by batches of up to CRAWL_BATCH_SIZE, or what came in CRAWL_BATCH_DELAY ms:
+ * a batch publishes one snapshot and copies each node it touches once, so the cost of a write does not grow with the
+ * size of the node.
+ *
+ * forceRefresh is single flight: a refresh starts instanceInformationRefreshDebounce ms after it is asked, the requests
+ * coming meanwhile or while it runs join it. The fetched instances are merged as a diff, keeping what the events changed
+ * during the crawl, and the instances Yorc no longer knows are removed. What the events change is recorded while the
+ * refresh runs, the change log may be truncated meanwhile.
+ */
 @Slf4j
 @Service
-public class InstanceInformationService {
+@ManagedResource
+public class InstanceInformationService implements SelfNaming {
+
+    /**
+     * Runtime property set on the instances returned before the end of the initial crawl
+     */
+    public static final String STALE_PROPERTY = "yorc_information_stale";
+
+    private static final int CRAWL_BATCH_SIZE = 1000;
+
+    private static final long CRAWL_BATCH_DELAY = 100;
+
+    @Resource
+    private ProviderConfiguration configuration;
 
     @Inject
     private DeploymentClient client;
@@ -40,34 +86,101 @@ public class InstanceInformationService {
     @Inject
     private Scheduler scheduler;
 
+    @Inject
+    private CrawlScheduler crawls;
+
     private static class DeploymentInformation {
 
         // Atomic Reference to our stream
         private final AtomicReference<Observable<Browser.Context>> stream;
 
-        private final CountDownLatch completed;
-
-        // Lock for the database
-        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Completed at the end of the initial crawl, once all its attributes have been applied
+        private final CompletableFuture<Void> completed;
 
         // Our InstanceInformations
-        private final Map<String,Map<String,InstanceInformation>> informations = Maps.newHashMap();
+        private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+        // Refresh waiting or running, null if none
+        private final AtomicReference<CompletableFuture<Void>> refresh = new AtomicReference<>();
+
+        private final AtomicLong refreshCount = new AtomicLong(0);
+
+        private final AtomicLong joinedRefreshCount = new AtomicLong(0);
+
+        private final Histogram refreshDuration = new Histogram();
+
+        // What the writes changed while the refresh crawls, null when no refresh runs. Guarded by itself.
+        private volatile Map<String,Map<String,Set<String>>> touched;
 
         private DeploymentInformation() {
             this.stream = null;
-            this.completed = new CountDownLatch(0);
+            this.completed = CompletableFuture.completedFuture(null);
         }
 
         private DeploymentInformation(Observable<Browser.Context> stream) {
-            this.completed = new CountDownLatch(1);
+            this.completed = new CompletableFuture<>();
             this.stream = new AtomicReference<>(
                     stream
-                        .doOnComplete(() -> this.completed.countDown())
-                        .doOnError( x -> this.completed.countDown())
+                        .doOnComplete(() -> this.completed.complete(null))
+                        .doOnError( x -> this.completed.complete(null))
             );
         }
     }
 
+    /**
+     * Instances by node, never modified once published
+     */
+    private static class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(0, Collections.emptyMap(), null, 0);
+
+        private final long version;
+
+        private final Map<String,Map<String,InstanceInformation>> informations;
+
+        // Last change, null if none
+        private final Change changes;
+
+        // Oldest version the changes can be computed from
+        private final long compacted;
+
+        private Snapshot(long version, Map<String,Map<String,InstanceInformation>> informations, Change changes, long compacted) {
+            this.version = version;
+            this.informations = informations;
+            this.changes = changes;
+            this.compacted = compacted;
+        }
+    }
+
+    /**
+     * Change log entry, linked to the previous change
+     */
+    private static class Change {
+
+        private final long version;
+
+        private final String nodeId;
+
+        private final String instanceId;
+
+        // Changed attribute, null for a change of the instance state or a deletion
+        private final String attribute;
+
+        private final Change previous;
+
+        // Number of changes in the log
+        private final int length;
+
+        private Change(long version, String nodeId, String instanceId, String attribute, Change previous) {
+            this.version = version;
+            this.nodeId = nodeId;
+            this.instanceId = instanceId;
+            this.attribute = attribute;
+            this.previous = previous;
+            this.length = previous == null ? 1 : previous.length + 1;
+        }
+    }
+
     private final Map<String,DeploymentInformation> map = Maps.newConcurrentMap();
 
     /**
@@ -82,27 +195,54 @@ public class InstanceInformationService {
 
             // Prepare the query
             // - Note that the query is deferred until subscription time
-            Observable<String> links = Observable.just("/deployments/" + deploymentId);
-
-            DeploymentInformation di = new DeploymentInformation(
-                Browser.browserFor(links, url -> client.queryUrl(url,DeploymentDTO.class),1)
-                    .flatMap( agg -> agg.follow("node", url -> client.queryUrl(url,NodeDTO.class),5))
-                    .flatMap( agg -> agg.follow("instance", url -> client.queryUrl(url,InstanceDTO.class), 5))
-                    .flatMap( agg -> agg.follow("attribute", url -> client.queryUrl(url,AttributeDTO.class),10),true)
+            // - The attributes are applied by the stream itself, by batches, before its completion is signaled
+            DeploymentInformation di = new DeploymentInformation(Observable.defer(() -> {
+                Browser browser = newBrowser();
+                return instancesOf(browser,deploymentId)
+                    .compose(browser.follow("attribute", query(deploymentId,AttributeDTO.class)))
                     .doOnSubscribe( x -> log.info("INST/ATTR Queries started for {}",deploymentId))
                     .doOnError( x -> log.error("INST/ATTR Queries KO for {} : {}",deploymentId,x.getMessage()))
-                    .doOnComplete( () -> log.info("INST/ATTR Queries OK for {}",deploymentId))
-                );
+                    .doOnComplete( () -> log.info("INST/ATTR Queries OK for {} ({} requests, {} retries)",deploymentId,browser.getRequestCount(),browser.getRetryCount()))
+                    .doFinally( () -> crawls.done(deploymentId));
+            }).buffer(CRAWL_BATCH_DELAY,TimeUnit.MILLISECONDS,scheduler,CRAWL_BATCH_SIZE)
+                .doOnNext(batch -> onAttributes(deploymentId,batch))
+                .concatMapIterable(batch -> batch));
 
             map.put(deploymentId,di);
         }
 
-        // Lazy initialization
-        Observable.fromIterable(deploymentIds).concatMapDelayError(this::initializeStreamFor).subscribe(this::onAttribute,this::onError);
+        // All the deployments are crawled together, the CrawlScheduler shares the http requests between them
+        Observable.fromIterable(deploymentIds).flatMap(this::initializeStreamFor,true).subscribe(context -> {},this::onError);
+    }
+
+    /**
+     * @return the instances of the deployment, their http requests going through the CrawlScheduler
+     */
+    private Observable<Browser.Context> instancesOf(Browser browser, String deploymentId) {
+        return browser.browse("/deployments/" + deploymentId, query(deploymentId,DeploymentDTO.class))
+                .compose(browser.follow("node", query(deploymentId,NodeDTO.class)))
+                .compose(browser.follow("instance", query(deploymentId,InstanceDTO.class)));
+    }
+
+    /**
+     * @return a browser for one crawl, client errors (404) are not retried
+     */
+    private Browser newBrowser() {
+        Map<String,Integer> concurrencies = Maps.newHashMap();
+        concurrencies.put("node", configuration.getCrawlNodeConcurrency());
+        concurrencies.put("instance", configuration.getCrawlInstanceConcurrency());
+        concurrencies.put("attribute", configuration.getCrawlAttributeConcurrency());
+
+        return new Browser(scheduler, concurrencies, configuration.getCrawlMaxRetries(), configuration.getCrawlRetryDelay(), x -> !(x instanceof HttpClientErrorException));
+    }
+
+    private <T> Function<String,Observable<T>> query(String deploymentId, Class<T> clazz) {
+        return url -> crawls.schedule(deploymentId, () -> client.queryUrl(url,clazz));
     }
 
     public void remove(String deploymentPaaSId) {
         map.remove(deploymentPaaSId);
+        crawls.done(deploymentPaaSId);
     }
 
     public void getInformation(String deploymentPaaSId, IPaaSCallback<Map<String,Map<String,InstanceInformation>>> callback) {
@@ -117,22 +257,112 @@ public class InstanceInformationService {
         Observable<Browser.Context> stream = initializeStreamFor(di);
         if (stream != null) {
             // We got a init stream, we must run it
-            stream.observeOn(scheduler).subscribe(this::onAttribute,this::onError);
+            stream.subscribeOn(scheduler).subscribe(context -> {},this::onError);
         }
 
-        // Wait for latch
-        try {
-            di.completed.await();
-        } catch(InterruptedException e) {
-            callback.onFailure(e);
+        if (di.completed.isDone()) {
+            reply(di, callback, false);
+            return;
         }
 
-        try {
-            di.lock.readLock().lock();
-            callback.onSuccess(di.informations);
-        } finally {
-            di.lock.readLock().unlock();
+        // A4C is waiting for this one
+        crawls.prioritize(deploymentPaaSId);
+
+        // Never block the caller: reply at the end of the crawl, or with what we have at the deadline
+        AtomicBoolean replied = new AtomicBoolean(false);
+
+        Integer deadline = configuration.getInstanceInformationDeadline();
+        if (deadline != null && deadline > 0) {
+            scheduler.scheduleDirect(() -> {
+                if (replied.compareAndSet(false, true)) {
+                    log.warn("INST/ATTR Queries not finished for {} after {}s, replying with partial information", deploymentPaaSId, deadline);
+                    reply(di, callback, true);
+                }
+            }, deadline, TimeUnit.SECONDS);
+        }
+
+        di.completed.thenRun(() -> scheduler.scheduleDirect(() -> {
+            if (replied.compareAndSet(false, true)) {
+                reply(di, callback, false);
+            }
+        }));
+    }
+
+    private void reply(DeploymentInformation di, IPaaSCallback<Map<String,Map<String,InstanceInformation>>> callback, boolean stale) {
+        Snapshot snapshot = di.snapshot.get();
+        callback.onSuccess(stale ? staleCopy(snapshot.informations) : snapshot.informations);
+    }
+
+    /**
+     * @return a copy of the informations with each instance marked as stale
+     */
+    private static Map<String,Map<String,InstanceInformation>> staleCopy(Map<String,Map<String,InstanceInformation>> informations) {
+        Map<String,Map<String,InstanceInformation>> result = Maps.newHashMap();
+        informations.forEach((nodeId, instances) -> {
+            Map<String,InstanceInformation> copies = Maps.newHashMap();
+            instances.forEach((instanceId, ii) -> {
+                InstanceInformation copy = copyOf(ii);
+                copy.getRuntimeProperties().put(STALE_PROPERTY, "true");
+                copies.put(instanceId, copy);
+            });
+            result.put(nodeId, copies);
+        });
+        return result;
+    }
+
+    /**
+     * @return the instances and attributes that changed after the version, or all of them when that version is no longer
+     * in the change log
+     */
+    public InstanceInformationDelta getChangesSince(String deploymentPaaSId, long version) {
+        DeploymentInformation di = map.get(deploymentPaaSId);
+        if (di == null) {
+            return new InstanceInformationDelta(0, true, Collections.emptyMap(), Collections.emptyMap());
         }
+
+        Snapshot snapshot = di.snapshot.get();
+        if (version < snapshot.compacted || version > snapshot.version) {
+            return new InstanceInformationDelta(snapshot.version, true, snapshot.informations, Collections.emptyMap());
+        }
+
+        Map<String,Map<String,Set<String>>> touched = touchedSince(snapshot, version);
+
+        Map<String,Map<String,InstanceInformation>> changed = Maps.newHashMap();
+        Map<String,Set<String>> removed = Maps.newHashMap();
+        touched.forEach((nodeId, instances) -> instances.forEach((instanceId, attributes) -> {
+            InstanceInformation ii = getInformation(snapshot.informations, nodeId, instanceId);
+            if (ii == null) {
+                removed.computeIfAbsent(nodeId, (k) -> Sets.newHashSet()).add(instanceId);
+            } else {
+                Map<String,String> values = Maps.newHashMap();
+                for (String attribute : attributes) {
+                    if (attribute != null && ii.getAttributes().containsKey(attribute)) {
+                        values.put(attribute, ii.getAttributes().get(attribute));
+                    }
+                }
+                changed.computeIfAbsent(nodeId, (k) -> Maps.newHashMap()).put(instanceId, new InstanceInformation(
+                        ii.getState(),
+                        ii.getInstanceStatus(),
+                        values,
+                        ii.getRuntimeProperties(),
+                        ii.getOperationsOutputs()
+                ));
+            }
+        }));
+
+        return new InstanceInformationDelta(snapshot.version, false, changed, removed);
+    }
+
+    /**
+     * @return the attributes changed after the version by instance by node, a null attribute for a change of the instance
+     * itself
+     */
+    private static Map<String,Map<String,Set<String>>> touchedSince(Snapshot snapshot, long version) {
+        Map<String,Map<String,Set<String>>> touched = Maps.newHashMap();
+        for (Change change = snapshot.changes; change != null && change.version > version; change = change.previous) {
+            touched.computeIfAbsent(change.nodeId, (k) -> Maps.newHashMap()).computeIfAbsent(change.instanceId, (k) -> Sets.newHashSet()).add(change.attribute);
+        }
+        return touched;
     }
 
     private Observable<Browser.Context> initializeStreamFor(DeploymentInformation di) {
@@ -155,93 +385,263 @@ public class InstanceInformationService {
         }
     }
 
-    private void onAttribute(Browser.Context context) {
-        DeploymentDTO deploymentDTO = (DeploymentDTO) context.get(0);
-        NodeDTO nodeDTO = (NodeDTO) context.get(1);
-        InstanceDTO instanceDTO = (InstanceDTO) context.get(2);
-        AttributeDTO attributeDTO = (AttributeDTO) context.get(3);
+    private void onAttributes(String deploymentId, List<Browser.Context> batch) {
+        if (!batch.isEmpty()) {
+            update(deploymentId, (current, changes) -> createAttributes(current, batch, changes));
+        }
+    }
 
-        createOrUpdateAttribute(deploymentDTO.getId(),nodeDTO.getName(),instanceDTO,attributeDTO);
+    /**
+     * Publishes the snapshot built by the update from the current one, the update may be applied several times
+     *
+     * @param attribute the attribute changed by the update, null if it changes the instance state or deletes it
+     * @return the previous informations
+     */
+    private Map<String,Map<String,InstanceInformation>> update(String deploymentId, String nodeId, String instanceId, String attribute, UnaryOperator<Map<String,Map<String,InstanceInformation>>> update) {
+        String[] change = new String[] { nodeId, instanceId, attribute };
+        return update(deploymentId, (current, changes) -> {
+            Map<String,Map<String,InstanceInformation>> informations = update.apply(current.informations);
+            changes.add(change);
+            return informations;
+        }).informations;
     }
 
-    private void updateAttribute(String deploymentId, String nodeId, String instanceId, String attribute,String value) {
+    /**
+     * Builds the next informations from a snapshot
+     */
+    private interface SnapshotUpdate {
+
+        /**
+         * @param changes to fill with the node, instance and attribute (or null) of each change
+         * @return the next informations, the current ones if nothing changes
+         */
+        Map<String,Map<String,InstanceInformation>> apply(Snapshot current, List<String[]> changes);
+    }
+
+    /**
+     * Publishes the snapshot built by the update from the current one, the update may be applied several times
+     *
+     * @return the previous snapshot
+     */
+    private Snapshot update(String deploymentId, SnapshotUpdate update) {
+        return update(deploymentId, update, true);
+    }
+
+    /**
+     * @param touch record the changes for the refresh running, if any
+     */
+    private Snapshot update(String deploymentId, SnapshotUpdate update, boolean touch) {
         DeploymentInformation di = map.computeIfAbsent(deploymentId,(k) -> new DeploymentInformation());
 
-        di.lock.writeLock().lock();
-        try {
-            // Update the instance
-            InstanceInformation ii = getInformation(di,nodeId,instanceId);
+        for (;;) {
+            Snapshot current = di.snapshot.get();
+            List<String[]> changes = Lists.newArrayList();
+            Map<String,Map<String,InstanceInformation>> informations = update.apply(current, changes);
+            if (informations == current.informations) {
+                return current;
+            }
+            if (touch) {
+                touch(di, changes);
+            }
+            if (di.snapshot.compareAndSet(current, next(current, informations, changes))) {
+                return current;
+            }
+        }
+    }
 
-            if (ii != null) {
-                ii.getAttributes().put(attribute, value);
+    /**
+     * Records the changes for the refresh running before they are published, so that a merge in between keeps them
+     */
+    private static void touch(DeploymentInformation di, List<String[]> changes) {
+        Map<String,Map<String,Set<String>>> touched = di.touched;
+        if (touched == null) {
+            return;
+        }
+
+        synchronized (touched) {
+            for (String[] change : changes) {
+                touched.computeIfAbsent(change[0], (k) -> Maps.newHashMap()).computeIfAbsent(change[1], (k) -> Sets.newHashSet()).add(change[2]);
             }
-        } finally {
-            di.lock.writeLock().unlock();
         }
+    }
 
-        log.debug("YORC ATTR {}/{}/{} {}={}",deploymentId,nodeId,instanceId,attribute,value);
+    private static Map<String,Map<String,Set<String>>> copyOf(Map<String,Map<String,Set<String>>> touched) {
+        Map<String,Map<String,Set<String>>> copy = Maps.newHashMap();
+        synchronized (touched) {
+            touched.forEach((nodeId, instances) -> instances.forEach((instanceId, attributes) ->
+                    copy.computeIfAbsent(nodeId, (k) -> Maps.newHashMap()).put(instanceId, Sets.newHashSet(attributes))));
+        }
+        return copy;
     }
 
-    private void createOrUpdateAttribute(String deploymentId, String nodeId, InstanceDTO instanceDTO, AttributeDTO attributeDTO) {
-        DeploymentInformation di = map.computeIfAbsent(deploymentId,(k) -> new DeploymentInformation());
+    private Snapshot next(Snapshot current, Map<String,Map<String,InstanceInformation>> informations, List<String[]> changes) {
+        long version = current.version + 1;
+        int size = getChangeLogSize();
+        if (size <= 0) {
+            return new Snapshot(version, informations, null, version);
+        }
 
-        di.lock.writeLock().lock();
-        try {
+        Change last = current.changes;
+        for (String[] change : changes) {
+            last = new Change(version, change[0], change[1], change[2], last);
+        }
 
-            // Update the instance
-            InstanceInformation ii = createOrGetInformation(di,nodeId,instanceDTO.getId(), instanceBuilder(instanceDTO.getStatus()));
+        long compacted = current.compacted;
+        if (last != null && last.length > 2 * size) {
+            // Keep the last size changes, once every size changes
+            last = truncate(last, size);
 
-            ii.getAttributes().putIfAbsent(attributeDTO.getName(), attributeDTO.getValue());
-        } finally {
-            di.lock.writeLock().unlock();
+            // The oldest version kept may have lost some of its changes
+            Change oldest = last;
+            while (oldest.previous != null) {
+                oldest = oldest.previous;
+            }
+            compacted = Math.max(compacted, oldest.version);
         }
+        return new Snapshot(version, informations, last, compacted);
+    }
 
-        //log.debug("YORC ATTR {}/{}/{} {}={}",deploymentId,nodeId,instanceDTO.getId(),attributeDTO.getName(),attributeDTO.getValue());
+    private static Change truncate(Change changes, int size) {
+        Change[] kept = new Change[size];
+        Change change = changes;
+        for (int i = 0; i < size; i++) {
+            kept[i] = change;
+            change = change.previous;
+        }
+
+        Change result = null;
+        for (int i = size - 1; i >= 0; i--) {
+            result = new Change(kept[i].version, kept[i].nodeId, kept[i].instanceId, kept[i].attribute, result);
+        }
+        return result;
     }
 
-    private InstanceInformation getInformation(DeploymentInformation di, String nodeId, String instanceId) {
-        Map<String,InstanceInformation> ni = di.informations.computeIfAbsent(nodeId,(key) -> Maps.newHashMap());
-        return ni.get(instanceId);
+    private int getChangeLogSize() {
+        Integer size = configuration.getInstanceInformationChangeLogSize();
+        return size == null ? 0 : size;
     }
 
-    private InstanceInformation createOrGetInformation(DeploymentInformation di, String nodeId, String instanceId,Supplier<InstanceInformation> supplier) {
-        Map<String,InstanceInformation> ni = di.informations.computeIfAbsent(nodeId,(key) -> Maps.newHashMap());
-        return ni.computeIfAbsent(instanceId, (key) -> supplier.get());
+    private void updateAttribute(String deploymentId, String nodeId, String instanceId, String attribute,String value) {
+        update(deploymentId, nodeId, instanceId, attribute, informations -> {
+            InstanceInformation ii = getInformation(informations,nodeId,instanceId);
+            if (ii == null || (ii.getAttributes().containsKey(attribute) && Objects.equals(ii.getAttributes().get(attribute), value))) {
+                return informations;
+            }
+
+            InstanceInformation copy = copyOf(ii);
+            copy.getAttributes().put(attribute, value);
+            return withInstance(informations,nodeId,instanceId,copy);
+        });
+
+        log.debug("YORC ATTR {}/{}/{} {}={}",deploymentId,nodeId,instanceId,attribute,value);
     }
 
+    /**
+     * Adds the crawled attributes the instances do not have yet, an event may have set them meanwhile
+     *
+     * Each node and instance is copied once for the whole batch.
+     */
+    private Map<String,Map<String,InstanceInformation>> createAttributes(Snapshot current, List<Browser.Context> batch, List<String[]> changes) {
+        Map<String,Map<String,InstanceInformation>> result = Maps.newHashMap(current.informations);
+        Map<String,Map<String,InstanceInformation>> copies = Maps.newHashMap();
 
-    private InstanceInformation createOrGetInformation(DeploymentInformation di,String nodeId,String instanceId) {
-        return createOrGetInformation(di,nodeId,instanceId,instanceBuilder(ToscaNodeLifecycleConstants.INITIAL));
+        // The instances created or copied by this batch, they can be changed in place
+        Set<InstanceInformation> owned = Sets.newIdentityHashSet();
+
+        for (Browser.Context context : batch) {
+            String nodeId = ((NodeDTO) context.get(1)).getName();
+            InstanceDTO instanceDTO = (InstanceDTO) context.get(2);
+            AttributeDTO attributeDTO = (AttributeDTO) context.get(3);
+
+            InstanceInformation ii = getInformation(copies.containsKey(nodeId) ? copies : current.informations, nodeId, instanceDTO.getId());
+            if (ii != null && ii.getAttributes().containsKey(attributeDTO.getName())) {
+                continue;
+            }
+
+            if (ii == null || !owned.contains(ii)) {
+                ii = ii == null ? instanceBuilder(instanceDTO.getStatus()).get() : copyOf(ii);
+                owned.add(ii);
+                copyOf(result, copies, nodeId).put(instanceDTO.getId(), ii);
+            }
+            ii.getAttributes().put(attributeDTO.getName(), attributeDTO.getValue());
+            changes.add(new String[] { nodeId, instanceDTO.getId(), attributeDTO.getName() });
+        }
+
+        if (changes.isEmpty()) {
+            return current.informations;
+        }
+
+        copies.forEach((nodeId, instances) -> result.put(nodeId, Collections.unmodifiableMap(instances)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static InstanceInformation getInformation(Map<String,Map<String,InstanceInformation>> informations, String nodeId, String instanceId) {
+        Map<String,InstanceInformation> ni = informations.get(nodeId);
+        return ni == null ? null : ni.get(instanceId);
     }
 
-    private void deleteInstance(DeploymentInformation di,String nodeId,String instanceId) {
-        Map<String,InstanceInformation> ni = di.informations.computeIfAbsent(nodeId,(key) -> Maps.newHashMap());
+    /**
+     * @return the informations with the instance replaced, the other nodes and instances are shared
+     */
+    private static Map<String,Map<String,InstanceInformation>> withInstance(Map<String,Map<String,InstanceInformation>> informations, String nodeId, String instanceId, InstanceInformation ii) {
+        Map<String,InstanceInformation> ni = informations.get(nodeId);
+        ni = ni == null ? Maps.newHashMap() : Maps.newHashMap(ni);
+        ni.put(instanceId, ii);
+
+        Map<String,Map<String,InstanceInformation>> result = Maps.newHashMap(informations);
+        result.put(nodeId, Collections.unmodifiableMap(ni));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Map<String,Map<String,InstanceInformation>> withoutInstance(Map<String,Map<String,InstanceInformation>> informations, String nodeId, String instanceId) {
+        Map<String,InstanceInformation> ni = informations.get(nodeId);
+        if (ni == null || !ni.containsKey(instanceId)) {
+            return informations;
+        }
+
+        ni = Maps.newHashMap(ni);
         ni.remove(instanceId);
+
+        Map<String,Map<String,InstanceInformation>> result = Maps.newHashMap(informations);
+        result.put(nodeId, Collections.unmodifiableMap(ni));
+        return Collections.unmodifiableMap(result);
     }
 
-    private void updateInstance(DeploymentInformation di,String nodeId,String instanceId,String status) {
-        InstanceInformation ii = createOrGetInformation(di,nodeId,instanceId);
+    private static InstanceInformation copyOf(InstanceInformation ii) {
+        return new InstanceInformation(
+                ii.getState(),
+                ii.getInstanceStatus(),
+                ii.getAttributes() == null ? Maps.newHashMap() : Maps.newHashMap(ii.getAttributes()),
+                ii.getRuntimeProperties() == null ? Maps.newHashMap() : Maps.newHashMap(ii.getRuntimeProperties()),
+                ii.getOperationsOutputs() == null ? Maps.newHashMap() : Maps.newHashMap(ii.getOperationsOutputs())
+        );
+    }
 
-        log.debug("Instance Status changed:  {}/{} {}->{}",nodeId,instanceId,ii.getState(),status);
+    private void deleteInstance(String deploymentId,String nodeId,String instanceId) {
+        update(deploymentId, nodeId, instanceId, null, informations -> withoutInstance(informations,nodeId,instanceId));
+    }
 
-        ii.setState(status);
-        ii.setInstanceStatus(getInstanceStatusFromState(status));
+    private void updateInstance(String deploymentId,String nodeId,String instanceId,String status) {
+        Map<String,Map<String,InstanceInformation>> previous = update(deploymentId, nodeId, instanceId, null, informations -> {
+            InstanceInformation ii = getInformation(informations,nodeId,instanceId);
+
+            InstanceInformation copy = ii == null ? instanceBuilder(ToscaNodeLifecycleConstants.INITIAL).get() : copyOf(ii);
+            copy.setState(status);
+            copy.setInstanceStatus(getInstanceStatusFromState(status));
+            return withInstance(informations,nodeId,instanceId,copy);
+        });
+
+        InstanceInformation ii = getInformation(previous,nodeId,instanceId);
+        log.debug("Instance Status changed:  {}/{} {}->{}",nodeId,instanceId,ii == null ? ToscaNodeLifecycleConstants.INITIAL : ii.getState(),status);
     }
 
     public void onEvent(Event event) {
         if (event.getType().equals(Event.EVT_INSTANCE)) {
-            DeploymentInformation di = map.computeIfAbsent(event.getDeploymentId(),(k) -> new DeploymentInformation());
-
-            di.lock.writeLock().lock();
-            try {
-                if (event.getStatus().equals("deleted")) {
-                    deleteInstance(di, event.getNodeId(), event.getInstanceId());
-                } else {
-                    updateInstance(di,event.getNodeId(),event.getInstanceId(),event.getStatus());
-                    postInstanceEvent(event);
-                }
-            } finally {
-                di.lock.writeLock().unlock();
+            if (event.getStatus().equals("deleted")) {
+                deleteInstance(event.getDeploymentId(), event.getNodeId(), event.getInstanceId());
+            } else {
+                updateInstance(event.getDeploymentId(),event.getNodeId(),event.getInstanceId(),event.getStatus());
+                postInstanceEvent(event);
             }
         } else if (event.getType().equals(Event.EVT_ATTRIBUTE)) {
             if (event.getStatus().equals("updated")) {
@@ -303,16 +703,195 @@ public class InstanceInformationService {
         );
     }
 
-    public void forceRefresh(String deploymentId) {
-        Observable<String> links = Observable.just("/deployments/" + deploymentId);
+    /**
+     * Fetches again the instances and attributes of the deployment
+     *
+     * @return completed once the information is merged, shared by the requests joining the same refresh
+     */
+    public CompletableFuture<Void> forceRefresh(String deploymentId) {
+        DeploymentInformation di = map.computeIfAbsent(deploymentId,(k) -> new DeploymentInformation());
+
+        CompletableFuture<Void> refresh = new CompletableFuture<>();
+        for (;;) {
+            CompletableFuture<Void> running = di.refresh.get();
+            if (running != null) {
+                di.joinedRefreshCount.incrementAndGet();
+                return running;
+            }
+            if (di.refresh.compareAndSet(null, refresh)) {
+                break;
+            }
+        }
+
+        scheduler.scheduleDirect(() -> refresh(deploymentId, di, refresh), getRefreshDebounce(), TimeUnit.MILLISECONDS);
+        return refresh;
+    }
+
+    private void refresh(String deploymentId, DeploymentInformation di, CompletableFuture<Void> refresh) {
+        long start = System.nanoTime();
+
+        // The change log may be truncated before the end of the crawl, record what the events change meanwhile
+        di.touched = Maps.newHashMap();
+
+        // Instances by node, written by the serialized crawl callbacks
+        Map<String,Map<String,InstanceInformation>> fetched = Maps.newHashMap();
+
+        Browser browser = newBrowser();
+        instancesOf(browser,deploymentId)
+                // Emit the instances too, an instance without attributes still exists
+                .publish( instances -> Observable.merge(instances, instances.compose(browser.follow("attribute", query(deploymentId,AttributeDTO.class)))))
+                .doOnSubscribe( x -> log.info("INST/ATTR Refresh started for {}",deploymentId))
+                .subscribe(
+                        context -> onRefreshed(fetched, context),
+                        x -> {
+                            log.error("INST/ATTR Refresh KO for {} : {}",deploymentId,x.getMessage());
+                            endRefresh(deploymentId, di, refresh, fetched, false, start);
+                        },
+                        () -> endRefresh(deploymentId, di, refresh, fetched, true, start)
+                );
+    }
+
+    private void onRefreshed(Map<String,Map<String,InstanceInformation>> fetched, Browser.Context context) {
+        NodeDTO nodeDTO = (NodeDTO) context.get(1);
+        InstanceDTO instanceDTO = (InstanceDTO) context.get(2);
+
+        InstanceInformation ii = fetched.computeIfAbsent(nodeDTO.getName(), (k) -> Maps.newHashMap())
+                .computeIfAbsent(instanceDTO.getId(), (k) -> instanceBuilder(instanceDTO.getStatus()).get());
+
+        if (context.size() > 3) {
+            AttributeDTO attributeDTO = (AttributeDTO) context.get(3);
+            ii.getAttributes().put(attributeDTO.getName(), attributeDTO.getValue());
+        }
+    }
+
+    private void endRefresh(String deploymentId, DeploymentInformation di, CompletableFuture<Void> refresh, Map<String,Map<String,InstanceInformation>> fetched, boolean complete, long start) {
+        Map<String,Map<String,Set<String>>> touched = di.touched;
+        try {
+            update(deploymentId, (current, changes) -> merge(current, fetched, copyOf(touched), complete, changes), false);
+        } finally {
+            di.touched = null;
+
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            di.refreshCount.incrementAndGet();
+            di.refreshDuration.record(duration);
+            log.info("INST/ATTR Refresh {} for {} in {} ms",complete ? "OK" : "partial",deploymentId,duration);
+
+            // The next request starts a new refresh
+            di.refresh.compareAndSet(refresh, null);
+            refresh.complete(null);
+        }
+    }
+
+    /**
+     * @param touched what changed during the crawl, from events: kept
+     * @param complete the crawl fetched all the instances, the others can be removed
+     */
+    private static Map<String,Map<String,InstanceInformation>> merge(Snapshot current, Map<String,Map<String,InstanceInformation>> fetched, Map<String,Map<String,Set<String>>> touched, boolean complete, List<String[]> changes) {
+
+        // Copied lazily, once per node
+        Map<String,Map<String,InstanceInformation>> result = Maps.newHashMap(current.informations);
+        Map<String,Map<String,InstanceInformation>> copies = Maps.newHashMap();
+
+        fetched.forEach((nodeId, instances) -> instances.forEach((instanceId, ii) -> {
+            Set<String> attributes = touched.getOrDefault(nodeId, Collections.emptyMap()).getOrDefault(instanceId, Collections.emptySet());
+            InstanceInformation existing = getInformation(current.informations, nodeId, instanceId);
+
+            if (existing == null) {
+                if (!attributes.contains(null)) {
+                    // Not deleted meanwhile
+                    copyOf(result, copies, nodeId).put(instanceId, ii);
+                    changes.add(new String[] { nodeId, instanceId, null });
+                    ii.getAttributes().keySet().forEach(attribute -> changes.add(new String[] { nodeId, instanceId, attribute }));
+                }
+                return;
+            }
+
+            InstanceInformation copy = null;
+            if (!attributes.contains(null) && !Objects.equals(existing.getState(), ii.getState())) {
+                copy = copyOf(existing);
+                copy.setState(ii.getState());
+                copy.setInstanceStatus(ii.getInstanceStatus());
+                changes.add(new String[] { nodeId, instanceId, null });
+            }
+            for (Map.Entry<String,String> attribute : ii.getAttributes().entrySet()) {
+                if (attributes.contains(attribute.getKey())) {
+                    continue;
+                }
+                if (existing.getAttributes().containsKey(attribute.getKey()) && Objects.equals(existing.getAttributes().get(attribute.getKey()), attribute.getValue())) {
+                    continue;
+                }
+                if (copy == null) {
+                    copy = copyOf(existing);
+                }
+                copy.getAttributes().put(attribute.getKey(), attribute.getValue());
+                changes.add(new String[] { nodeId, instanceId, attribute.getKey() });
+            }
+            if (copy != null) {
+                copyOf(result, copies, nodeId).put(instanceId, copy);
+            }
+        }));
+
+        if (complete) {
+            current.informations.forEach((nodeId, instances) -> instances.keySet().forEach(instanceId -> {
+                boolean vanished = !fetched.getOrDefault(nodeId, Collections.emptyMap()).containsKey(instanceId);
+                // Created by an event during the crawl otherwise
+                if (vanished && !touched.getOrDefault(nodeId, Collections.emptyMap()).containsKey(instanceId)) {
+                    copyOf(result, copies, nodeId).remove(instanceId);
+                    changes.add(new String[] { nodeId, instanceId, null });
+                }
+            }));
+        }
+
+        if (changes.isEmpty()) {
+            return current.informations;
+        }
+
+        copies.forEach((nodeId, instances) -> result.put(nodeId, Collections.unmodifiableMap(instances)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Map<String,InstanceInformation> copyOf(Map<String,Map<String,InstanceInformation>> result, Map<String,Map<String,InstanceInformation>> copies, String nodeId) {
+        return copies.computeIfAbsent(nodeId, (k) -> {
+            Map<String,InstanceInformation> instances = result.get(nodeId);
+            return instances == null ? Maps.newHashMap() : Maps.newHashMap(instances);
+        });
+    }
+
+    private long getRefreshDebounce() {
+        Integer debounce = configuration.getInstanceInformationRefreshDebounce();
+        return debounce == null ? 0 : Math.max(0, debounce);
+    }
+
+    @ManagedAttribute
+    public long getRefreshCount() {
+        return map.values().stream().mapToLong(di -> di.refreshCount.get()).sum();
+    }
+
+    @ManagedAttribute
+    public long getJoinedRefreshCount() {
+        return map.values().stream().mapToLong(di -> di.joinedRefreshCount.get()).sum();
+    }
+
+    /**
+     * @return the refresh count and durations of each deployment refreshed at least once
+     */
+    @ManagedAttribute
+    public String[] getRefreshStatistics() {
+        return map.entrySet().stream()
+                .filter(e -> e.getValue().refreshCount.get() > 0)
+                .map(e -> String.format("%s: %d refreshes, %d joined, mean %d ms, max %d ms", e.getKey(),
+                        e.getValue().refreshCount.get(), e.getValue().joinedRefreshCount.get(),
+                        e.getValue().refreshDuration.getMean(), e.getValue().refreshDuration.getMax()))
+                .sorted()
+                .toArray(String[]::new);
+    }
 
-        Browser.browserFor(links, url -> client.queryUrl(url,DeploymentDTO.class),1)
-                .flatMap( agg -> agg.follow("node", url -> client.queryUrl(url,NodeDTO.class),5))
-                .flatMap( agg -> agg.follow("instance", url -> client.queryUrl(url,InstanceDTO.class), 5))
-                .flatMap( agg -> agg.follow("attribute", url -> client.queryUrl(url,AttributeDTO.class),10),true)
-                .doOnSubscribe( x -> log.info("INST/ATTR Queries started for {}",deploymentId))
-                .doOnError( x -> log.error("INST/ATTR Queries KO for {} : {}",deploymentId,x.getMessage()))
-                .doOnComplete( () -> log.info("INST/ATTR Queries OK for {}",deploymentId))
-                .subscribe(this::onAttribute,this::onError);
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","InstanceInformationService");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
     }
 }
@@ -5,14 +5,17 @@ import alien4cloud.paas.model.PaaSDeploymentLogLevel;
 import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
 import alien4cloud.paas.yorc.context.YorcOrchestrator;
 import alien4cloud.paas.yorc.context.rest.LogEventClient;
+import alien4cloud.paas.yorc.context.rest.PageReplayGuard;
+import alien4cloud.paas.yorc.context.rest.PageStreamExtractor;
 import alien4cloud.paas.yorc.context.rest.response.LogEvent;
-import alien4cloud.paas.yorc.context.rest.response.LogEventDTO;
-import alien4cloud.paas.yorc.dao.YorcESDao;
+import alien4cloud.paas.yorc.context.service.log.LogIngestionBudget;
+import alien4cloud.paas.yorc.context.service.polling.PollMetrics;
+import alien4cloud.paas.yorc.context.service.polling.PollScheduler;
 import alien4cloud.paas.yorc.model.LogEventIndex;
+import alien4cloud.paas.yorc.util.YorcTimestamps;
 import io.reactivex.Scheduler;
-import io.reactivex.Single;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.ResponseEntity;
+import org.springframework.jmx.export.MBeanExportOperations;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.export.naming.SelfNaming;
@@ -22,6 +25,7 @@ import javax.annotation.Resource;
 import javax.inject.Inject;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import java.util.Date;
 import java.util.Hashtable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -35,7 +39,7 @@ public class LogEventPollingService implements SelfNaming {
     private Scheduler scheduler;
 
     @Inject
-    private YorcESDao dao;
+    private CheckpointService checkpoints;
 
     @Inject
     private YorcOrchestrator orchestrator;
@@ -49,18 +53,55 @@ public class LogEventPollingService implements SelfNaming {
     @Inject
     private BusService bus;
 
+    @Inject
+    private LogIngestionBudget budget;
+
     @Resource
     private ProviderConfiguration configuration;
 
+    // By name, the parent context has its own exporter
+    @Resource(name = "mbeanExporter")
+    private MBeanExportOperations exporter;
+
     /**
      * Index
      */
-    private long index = 1;
+    private volatile long index = 1;
 
     /**
      * Stopped flag
      */
-    private boolean stopped = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * Incremented on each init, callbacks of the queries sent before a restart are ignored
+     */
+    private volatile int epoch = 0;
+
+    /**
+     * Skips the items of a page already dispatched when the page is queried again after a failure, renewed on each init
+     */
+    private volatile PageReplayGuard guard;
+
+    /**
+     * Long polling wait, retries and circuit breaker
+     */
+    private PollScheduler pollScheduler;
+
+    /**
+     * Latency, batch size, dispatch time and lag
+     */
+    private PollMetrics metrics;
+
+    /**
+     * Start of the request in flight, in nanoseconds
+     */
+    private volatile long requestStart;
+
+    /**
+     * Time spent publishing the logs of the current page, only accessed by the http thread decoding the page
+     */
+    private long pageDispatchNanos = 0;
 
     /**
      * Total event count
@@ -68,15 +109,28 @@ public class LogEventPollingService implements SelfNaming {
     private AtomicLong totalCount = new AtomicLong(0);
 
     /**
-     * Initialize the polling
+     * Logs of unknown deployments, skipped before being decoded
+     */
+    private AtomicLong discardedCount = new AtomicLong(0);
+
+    /**
+     * Initialize the polling, can be called again after term()
      */
     public void init() {
+        epoch++;
+        stopped = false;
+
+        guard = new PageReplayGuard();
+        pollScheduler = new PollScheduler("Log", configuration, scheduler);
+        metrics = new PollMetrics("Log", configuration, scheduler, client::getLastIndex, this::getConsumedIndex, exporter);
 
         // Ensure ES Index exists
         initIndex();
 
         // Bootstrap the polling
         doQuery();
+
+        metrics.start();
     }
 
     /**
@@ -87,76 +141,138 @@ public class LogEventPollingService implements SelfNaming {
         if (log.isDebugEnabled()) {
             log.debug("Querying log events for orch <{}> from index <{}>", configuration.getOrchestratorId(), index);
         }
-        client.get(index).subscribe(this::processEvents,this::processErrors);
+        requestStart = System.nanoTime();
+        pageDispatchNanos = 0;
+        final int current = epoch;
+        final PageReplayGuard guard = this.guard;
+        guard.start(index);
+        client.stream(index,pollScheduler.getWait(),logEvent -> {
+            if (current == epoch) {
+                processEvent(logEvent);
+            }
+        },this::isKnown,guard).subscribe(page -> {
+            if (current == epoch) {
+                processPage(page);
+            }
+        },t -> {
+            if (current == epoch) {
+                processErrors(t);
+            }
+        });
     }
 
     /*
-     * Process the Log event
+     * Process the Log event, called on the http thread while the page is decoded
      */
-    private void processEvents(ResponseEntity<LogEventDTO> entity) {
-        LogEventDTO response = entity.getBody();
-        if (log.isDebugEnabled()) {
-            log.debug("A batch of <{}> logs have been received for orch <{}> (from {})", response.getLogs().size(), configuration.getOrchestratorId(), response.getLast_index());
+    private void processEvent(LogEvent logEvent) {
+        if (log.isTraceEnabled()) {
+            log.trace("Log received : {}", logEvent);
         }
 
-        for (LogEvent logEvent : response.getLogs()) {
+        PaaSDeploymentLog paasLog = toPaasDeploymentLog(logEvent);
+        if (paasLog != null) {
+            totalCount.getAndIncrement();
+            long start = System.nanoTime();
+            bus.publish(paasLog);
+            pageDispatchNanos += System.nanoTime() - start;
+        }
+    }
 
-            if (log.isTraceEnabled()) {
-                log.trace("Log received : {}", logEvent);
-            }
+    /**
+     * Publishes a log received by a deployment stream, filtered and counted like the ones of the global stream
+     */
+    void publishScoped(LogEvent logEvent) {
+        PaaSDeploymentLog paasLog = toPaasDeploymentLog(logEvent);
+        if (paasLog != null) {
+            totalCount.getAndIncrement();
+            bus.publish(paasLog);
+        }
+    }
 
-            PaaSDeploymentLog paasLog = toPaasDeploymentLog(logEvent);
-            if (paasLog != null) {
-                totalCount.getAndIncrement();
-                bus.publish(paasLog);
-            }
+    /*
+     * The whole page has been processed
+     */
+    private void processPage(PageStreamExtractor.Page page) {
+        pollScheduler.onSuccess(page.getCount());
+        metrics.onPoll(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStart), page.getCount(), page.getLastIndex());
+        metrics.onDispatch(TimeUnit.NANOSECONDS.toMillis(pageDispatchNanos));
+        discardedCount.addAndGet(page.getDiscarded());
+
+        if (log.isDebugEnabled()) {
+            log.debug("A batch of <{}> logs have been received for orch <{}> (from {}), <{}> discarded", page.getCount(), configuration.getOrchestratorId(), page.getLastIndex(), page.getDiscarded());
         }
 
-        index = response.getLast_index();
+        index = page.getLastIndex();
 
-        // store it in ES
+        // checkpoint it
         saveIndex();
 
         if (!stopped) {
-            doQuery();
+            if (budget.isOpen()) {
+                doQuery();
+            } else {
+                // Too many logs waiting to be saved, resume when they are
+                final int current = epoch;
+                budget.whenOpen(() -> {
+                    if (current == epoch) {
+                        retry();
+                    }
+                });
+            }
         }
-
     }
 
     private void processErrors(Throwable t) {
         if (!stopped) {
-            log.error("Event polling Exception: {}", t.getMessage());
-            Single.timer(configuration.getPollingRetryDelay(),TimeUnit.SECONDS,scheduler)
-                    .flatMap(x -> client.get(index))
-                    .subscribe(this::processEvents,this::processErrors);
+            long delay = pollScheduler.onFailure(t);
+            log.error("Log polling Exception: {}, retrying in {} ms", t.getMessage(), delay);
+            final int current = epoch;
+            pollScheduler.delay(delay).subscribe(() -> {
+                if (current == epoch) {
+                    retry();
+                }
+            });
+        }
+    }
+
+    private void retry() {
+        if (!stopped) {
+            doQuery();
         }
     }
 
     public void term() {
         stopped = true;
+
+        if (metrics != null) {
+            metrics.stop();
+        }
     }
 
     private void initIndex() {
-        LogEventIndex data = dao.findById(LogEventIndex.class,configuration.getOrchestratorId());
+        Long data = checkpoints.load(LogEventIndex.class,configuration.getOrchestratorId());
         if (data == null) {
             // This is our first run, initialize the index from Yorc
-            Long lastIndex = client.getLastIndex().blockingGet();
-
-            data = new LogEventIndex();
-            data.setId(configuration.getOrchestratorId());
-            data.setIndex(lastIndex);
-            dao.save(data);
+            data = client.getLastIndex().blockingGet();
+            checkpoints.checkpointNow(LogEventIndex.class,configuration.getOrchestratorId(),data);
         }
 
-        index = data.getIndex();
+        index = data;
     }
 
     private void saveIndex() {
-        dao.save(new LogEventIndex(configuration.getOrchestratorId(),index));
+        checkpoints.checkpoint(LogEventIndex.class,configuration.getOrchestratorId(),index);
     }
 
 
-    private PaaSDeploymentLog toPaasDeploymentLog(final LogEvent logEvent) {
+    /*
+     * Pre-filter, only logs of the deployments known by the registry are decoded
+     */
+    private boolean isKnown(String deploymentId) {
+        return registry.toAlienId(deploymentId) != null;
+    }
+
+    PaaSDeploymentLog toPaasDeploymentLog(final LogEvent logEvent) {
         String alienId = registry.toAlienId(logEvent.getDeploymentId());
         if (alienId == null) {
             return null;
@@ -172,7 +288,7 @@ public class LogEventPollingService implements SelfNaming {
         deploymentLog.setLevel(PaaSDeploymentLogLevel.fromLevel(logEvent.getLevel().toLowerCase()));
         deploymentLog.setType(logEvent.getType());
         deploymentLog.setNodeId(logEvent.getNodeId());
-        deploymentLog.setTimestamp(logEvent.getDate());
+        deploymentLog.setTimestamp(new Date(YorcTimestamps.toEpochMillis(logEvent.getTimestamp())));
         deploymentLog.setRawtimestamp(logEvent.getTimestamp());
         deploymentLog.setWorkflowId(logEvent.getWorkflowId());
         deploymentLog.setOperationName(logEvent.getOperationName());
@@ -186,6 +302,31 @@ public class LogEventPollingService implements SelfNaming {
         return totalCount.get();
     }
 
+    @ManagedAttribute
+    public long getConsumedIndex() {
+        return index;
+    }
+
+    @ManagedAttribute
+    public long getDiscardedLogEventCount() {
+        return discardedCount.get();
+    }
+
+    @ManagedAttribute
+    public String getCircuitState() {
+        return pollScheduler == null ? null : pollScheduler.getState().name();
+    }
+
+    @ManagedAttribute
+    public int getConsecutiveFailures() {
+        return pollScheduler == null ? 0 : pollScheduler.getFailures();
+    }
+
+    @ManagedAttribute
+    public long getLongPollWait() {
+        return pollScheduler == null ? 0 : pollScheduler.getWait();
+    }
+
     @Override
     public ObjectName getObjectName() throws MalformedObjectNameException {
         Hashtable<String,String> kv = new Hashtable();
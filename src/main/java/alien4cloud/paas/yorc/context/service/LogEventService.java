@@ -3,6 +3,9 @@ package alien4cloud.paas.yorc.context.service;
 import alien4cloud.dao.IGenericSearchDAO;
 import alien4cloud.deployment.DeploymentLoggingService;
 import alien4cloud.paas.model.*;
+import alien4cloud.paas.yorc.context.service.log.AdaptiveLogBatcher;
+import alien4cloud.paas.yorc.context.service.log.LogIngestionBudget;
+import alien4cloud.paas.yorc.context.service.log.LogJournal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -24,12 +27,48 @@ public class LogEventService {
     @Inject
     private DeploymentLoggingService loggingService;
 
+    @Inject
+    private LogIngestionBudget budget;
+
+    @Inject
+    private LogJournal journal;
+
+    @Inject
+    private AdaptiveLogBatcher batcher;
+
     public void onEvent(List<PaaSDeploymentLog> events) {
         if (events.size()>0) {
             if (log.isDebugEnabled()) {
                 log.debug("Flushing {} log events",events.size());
             }
-            save(events.toArray(new PaaSDeploymentLog[0]));
+            PaaSDeploymentLog[] array = events.toArray(new PaaSDeploymentLog[0]);
+            try {
+                if (journal.isActive() || (journal.isEnabled() && !budget.isOpen())) {
+                    // ES is failing, older logs are waiting in the journal, or too many logs are waiting in memory
+                    spill(array);
+                } else {
+                    long start = System.nanoTime();
+                    save(array);
+                    batcher.onSaved(System.nanoTime() - start);
+                }
+            } catch(RuntimeException e) {
+                if (journal.isEnabled()) {
+                    log.warn("Cannot save {} log events, writing them to the journal: {}", events.size(), e.getMessage());
+                    journal.onSinkFailure();
+                    spill(array);
+                } else {
+                    // Keep the subscription alive, the next batches may succeed
+                    log.error("Cannot save {} log events: {}", events.size(), e.getMessage());
+                }
+            } finally {
+                budget.release(events.size());
+            }
+        }
+    }
+
+    private void spill(PaaSDeploymentLog[] events) {
+        if (!journal.append(events)) {
+            log.error("{} log events lost", events.length);
         }
     }
 
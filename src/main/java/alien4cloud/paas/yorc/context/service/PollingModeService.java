@@ -0,0 +1,431 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.rest.EventClient;
+import alien4cloud.paas.yorc.context.rest.LogEventClient;
+import alien4cloud.paas.yorc.context.service.log.LogIngestionBudget;
+import alien4cloud.paas.yorc.context.service.polling.DeploymentStream;
+import alien4cloud.paas.yorc.model.EventIndex;
+import alien4cloud.paas.yorc.model.LogEventIndex;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses how Yorc events and logs are polled.
+ *
+ * - GLOBAL: the EventPollingService and LogEventPollingService poll /events and /logs, with everyone's traffic.
+ * - SCOPED: one DeploymentStream per registered deployment polls /deployments/{id}/events and /deployments/{id}/logs.
+ *
+ * The SCOPED mode is used while less than scopedPollingThreshold deployments are registered, the GLOBAL mode once
+ * there are more. The count is checked every scopedPollingCheckPeriod seconds and on each new deployment.
+ *
+ * Yorc indexes are global, so they can be compared across streams. Each deployment stream has its own checkpoint, deleted
+ * with the stream when the deployment goes away. While in SCOPED mode the global checkpoints start from the index the
+ * global pollers had reached and follow the pages consumed, but never go past the index a stream query started from:
+ * that query may still return older items, the global pollers must not skip them when they restart after a crash. An
+ * idle stream holds them back for a long polling wait at most, Yorc answers with its last index when the wait is over.
+ *
+ * Switching back to GLOBAL goes through SWITCHING: the streams end their pages in flight first, then the global pollers
+ * start from the lowest index the streams stopped at. The items of the other deployments between that index and theirs
+ * are delivered again.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class PollingModeService implements SelfNaming {
+
+    public enum Mode {
+        GLOBAL,
+        SCOPED,
+        SWITCHING
+    }
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Inject
+    private DeploymentRegistry registry;
+
+    @Inject
+    private EventPollingService eventPollingService;
+
+    @Inject
+    private LogEventPollingService logEventPollingService;
+
+    @Inject
+    private CheckpointService checkpoints;
+
+    @Inject
+    private EventClient eventClient;
+
+    @Inject
+    private LogEventClient logClient;
+
+    @Inject
+    private LogIngestionBudget budget;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    /**
+     * Current mode, null when stopped
+     */
+    private Mode mode;
+
+    /**
+     * Streams of the SCOPED mode: Yorc deployment id -> stream
+     */
+    private final Map<String,DeploymentStream> eventStreams = Maps.newHashMap();
+    private final Map<String,DeploymentStream> logStreams = Maps.newHashMap();
+
+    /**
+     * Global indexes while in SCOPED mode: all the events / logs before them have been consumed
+     */
+    private long eventIndex;
+    private long logIndex;
+
+    /**
+     * Highest index of the pages consumed while in SCOPED mode
+     */
+    private long eventLatest;
+    private long logLatest;
+
+    // Check Task is running
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Check Task Disposable
+    private Disposable disposable;
+
+    private final AtomicLong switchCount = new AtomicLong(0);
+
+    /**
+     * Incremented on each switch to GLOBAL, the end of a switch that has been stopped is ignored
+     */
+    private int switchGeneration = 0;
+
+    /**
+     * Start polling
+     */
+    public synchronized void start() {
+        running.set(true);
+
+        Integer threshold = configuration.getScopedPollingThreshold();
+        if (threshold != null && threshold > getThreshold()) {
+            log.warn("scopedPollingThreshold {} would use too many of the {} pooled connections, capped to {}", threshold, configuration.getConnectionMaxPoolSize(), getThreshold());
+        }
+
+        // The global pollers initialize the indexes, switch right away if needed
+        startGlobal();
+        refresh();
+
+        if (getThreshold() > 0) {
+            // Schedule check task
+            disposable = Completable.timer(configuration.getScopedPollingCheckPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::checkTask);
+        }
+    }
+
+    /**
+     * Stop polling
+     */
+    public synchronized void stop() {
+        running.set(false);
+
+        if (disposable != null) {
+            disposable.dispose();
+        }
+
+        if (mode == Mode.GLOBAL) {
+            stopGlobal();
+        } else if (mode == Mode.SCOPED || mode == Mode.SWITCHING) {
+            // The streams restart from their checkpoints
+            for (String id : Sets.newHashSet(eventStreams.keySet())) {
+                closeStreams(id);
+            }
+            checkpointGlobalIndexes();
+        }
+        mode = null;
+    }
+
+    /**
+     * A deployment has been registered, start its streams right away in SCOPED mode. Does not block the caller.
+     */
+    public void onDeploymentRegistered() {
+        if (getThreshold() > 0) {
+            scheduler.scheduleDirect(this::refresh);
+        }
+    }
+
+    private void checkTask() {
+        if (running.get() == false) {
+            return;
+        }
+
+        refresh();
+
+        // Reschedule check task
+        if (running.get() == true) {
+            disposable = Completable.timer(configuration.getScopedPollingCheckPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::checkTask);
+        }
+    }
+
+    private synchronized void refresh() {
+        if (!running.get() || mode == null || mode == Mode.SWITCHING) {
+            return;
+        }
+
+        Set<String> ids = registry.getYorcIds();
+        int threshold = getThreshold();
+
+        if (mode == Mode.GLOBAL && ids.size() < threshold) {
+            log.info("{} deployments on orchestrator <{}>, switching to per deployment polling", ids.size(), configuration.getOrchestratorId());
+            eventIndex = eventPollingService.getDispatchedIndex();
+            logIndex = logEventPollingService.getConsumedIndex();
+            eventLatest = eventIndex;
+            logLatest = logIndex;
+            stopGlobal();
+            mode = Mode.SCOPED;
+            switchCount.incrementAndGet();
+        } else if (mode == Mode.SCOPED && (threshold <= 0 || ids.size() > threshold)) {
+            log.info("{} deployments on orchestrator <{}>, switching to global polling", ids.size(), configuration.getOrchestratorId());
+            stopScoped();
+            return;
+        }
+
+        if (mode == Mode.SCOPED) {
+            // Follow the registered deployments
+            for (String id : Sets.difference(eventStreams.keySet(), ids).immutableCopy()) {
+                removeStreams(id);
+            }
+            // Removed deployments do not hold the global indexes back anymore
+            updateGlobalIndexes();
+            for (String id : ids) {
+                if (!eventStreams.containsKey(id)) {
+                    addStreams(id);
+                }
+            }
+        }
+    }
+
+    private void startGlobal() {
+        eventPollingService.init();
+        logEventPollingService.init();
+        mode = Mode.GLOBAL;
+    }
+
+    private void stopGlobal() {
+        eventPollingService.term();
+        logEventPollingService.term();
+    }
+
+    /**
+     * Drain the streams, the global pollers start once all of them are done
+     */
+    private void stopScoped() {
+        mode = Mode.SWITCHING;
+        int generation = ++switchGeneration;
+
+        List<DeploymentStream> streams = Lists.newArrayList(eventStreams.values());
+        streams.addAll(logStreams.values());
+        AtomicInteger remaining = new AtomicInteger(streams.size());
+        if (streams.isEmpty()) {
+            scheduler.scheduleDirect(() -> endSwitch(generation));
+        }
+        for (DeploymentStream stream : streams) {
+            stream.drain(() -> {
+                if (remaining.decrementAndGet() == 0) {
+                    scheduler.scheduleDirect(() -> endSwitch(generation));
+                }
+            });
+        }
+    }
+
+    private synchronized void endSwitch(int generation) {
+        if (mode != Mode.SWITCHING || generation != switchGeneration) {
+            return;
+        }
+
+        // All the items before the indexes the streams stopped at have been published
+        eventIndex = Math.max(eventIndex, Math.min(eventLatest, lowestIndex(eventStreams)));
+        logIndex = Math.max(logIndex, Math.min(logLatest, lowestIndex(logStreams)));
+        for (String id : Sets.newHashSet(eventStreams.keySet())) {
+            removeStreams(id);
+        }
+
+        // The global pollers start from here
+        checkpointGlobalIndexes();
+        startGlobal();
+        switchCount.incrementAndGet();
+    }
+
+    private void checkpointGlobalIndexes() {
+        checkpoints.checkpointNow(EventIndex.class, configuration.getOrchestratorId(), eventIndex);
+        checkpoints.checkpointNow(LogEventIndex.class, configuration.getOrchestratorId(), logIndex);
+    }
+
+    private void addStreams(String id) {
+        String streamId = streamId(id);
+
+        long start = Math.max(eventIndex, loadIndex(EventIndex.class, streamId));
+        DeploymentStream events = new DeploymentStream("Event[" + id + "]", start, configuration, scheduler,
+                (index, wait, guard) -> eventClient.stream(id, index, wait, eventPollingService::publishScoped, guard),
+                index -> onEventPage(streamId, index));
+        eventStreams.put(id, events);
+
+        start = Math.max(logIndex, loadIndex(LogEventIndex.class, streamId));
+        DeploymentStream logs = new DeploymentStream("Log[" + id + "]", start, configuration, scheduler,
+                (index, wait, guard) -> logClient.stream(id, index, wait, logEventPollingService::publishScoped, guard),
+                index -> onLogPage(streamId, index), budget);
+        logStreams.put(id, logs);
+
+        events.start();
+        logs.start();
+    }
+
+    /**
+     * Stop the streams of a deployment and delete their checkpoints
+     */
+    private void removeStreams(String id) {
+        String streamId = streamId(id);
+
+        if (closeStreams(id)) {
+            checkpoints.remove(EventIndex.class, streamId);
+            checkpoints.remove(LogEventIndex.class, streamId);
+        }
+    }
+
+    /**
+     * Stop the streams of a deployment, their checkpoints are kept
+     *
+     * @return false if the deployment had no streams
+     */
+    private boolean closeStreams(String id) {
+        DeploymentStream events = eventStreams.remove(id);
+        if (events != null) {
+            events.stop();
+        }
+
+        DeploymentStream logs = logStreams.remove(id);
+        if (logs != null) {
+            logs.stop();
+        }
+
+        return events != null || logs != null;
+    }
+
+    private synchronized void onEventPage(String streamId, long index) {
+        checkpoints.checkpoint(EventIndex.class, streamId, index);
+        eventLatest = Math.max(eventLatest, index);
+        updateGlobalIndexes();
+    }
+
+    private synchronized void onLogPage(String streamId, long index) {
+        checkpoints.checkpoint(LogEventIndex.class, streamId, index);
+        logLatest = Math.max(logLatest, index);
+        updateGlobalIndexes();
+    }
+
+    /**
+     * Move the global indexes up to the latest page consumed, but not past the start of a stream query
+     */
+    private void updateGlobalIndexes() {
+        if (mode != Mode.SCOPED) {
+            return;
+        }
+
+        long index = Math.min(eventLatest, lowestIndex(eventStreams));
+        if (index > eventIndex) {
+            eventIndex = index;
+            checkpoints.checkpoint(EventIndex.class, configuration.getOrchestratorId(), eventIndex);
+        }
+
+        index = Math.min(logLatest, lowestIndex(logStreams));
+        if (index > logIndex) {
+            logIndex = index;
+            checkpoints.checkpoint(LogEventIndex.class, configuration.getOrchestratorId(), logIndex);
+        }
+    }
+
+    /**
+     * @return the lowest index of the streams, Long.MAX_VALUE if none
+     */
+    private static long lowestIndex(Map<String,DeploymentStream> streams) {
+        long min = Long.MAX_VALUE;
+        for (DeploymentStream stream : streams.values()) {
+            min = Math.min(min, stream.getIndex());
+        }
+        return min;
+    }
+
+    private long loadIndex(Class<?> type, String streamId) {
+        Long index = checkpoints.load(type, streamId);
+        return index == null ? Long.MIN_VALUE : index;
+    }
+
+    private String streamId(String deploymentId) {
+        return configuration.getOrchestratorId() + "_" + deploymentId;
+    }
+
+    /**
+     * @return the threshold, capped so that the streams and the crawls leave a connection to the other Yorc requests
+     */
+    private int getThreshold() {
+        Integer threshold = configuration.getScopedPollingThreshold();
+        return threshold == null || threshold <= 0 ? 0 : Math.min(threshold, getMaxThreshold());
+    }
+
+    /**
+     * Each stream holds two long polling connections of the pool, the crawls up to crawlBudget
+     */
+    private int getMaxThreshold() {
+        Integer pool = configuration.getConnectionMaxPoolSize();
+        Integer crawls = configuration.getCrawlBudget();
+        int free = (pool == null ? 0 : pool) - (crawls == null || crawls <= 0 ? 0 : crawls) - 1;
+        return Math.max(0, free / 2);
+    }
+
+    @ManagedAttribute
+    public synchronized String getMode() {
+        return mode == null ? null : mode.name();
+    }
+
+    @ManagedAttribute
+    public synchronized int getDeploymentStreamCount() {
+        return eventStreams.size();
+    }
+
+    @ManagedAttribute
+    public long getSwitchCount() {
+        return switchCount.get();
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","PollingModeService");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
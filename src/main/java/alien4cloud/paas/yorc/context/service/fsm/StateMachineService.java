@@ -79,6 +79,9 @@ public class StateMachineService implements SelfNaming {
 	@Inject
 	private BusService busService;
 
+	@Inject
+	private EventDispatcher dispatcher;
+
 	@Inject
 	private InstanceInformationService instanceInformationService;
 
@@ -117,7 +120,11 @@ public class StateMachineService implements SelfNaming {
 	}
 
 	public void deleteStateMachine(String id) {
-		cache.remove(id);
+		StateMachine<FsmStates, FsmEvents> fsm = cache.remove(id);
+		if (fsm != null) {
+			// We may be in an action of this fsm, stop it once the current message has been handled
+			dispatcher.execute(id, fsm::stop);
+		}
 	}
 
 	private void doSubscriptions(String id) {
@@ -0,0 +1,27 @@
+package alien4cloud.paas.yorc.context.service.lease;
+
+import alien4cloud.paas.yorc.dao.YorcESDao;
+import alien4cloud.paas.yorc.model.PollerLease;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+
+/**
+ * Leases are stored in the yorc ES index
+ */
+@Component
+public class ESLeaseStore implements LeaseStore {
+
+    @Inject
+    private YorcESDao dao;
+
+    @Override
+    public PollerLease get(String id) {
+        return dao.findById(PollerLease.class, id);
+    }
+
+    @Override
+    public void save(PollerLease lease) {
+        dao.save(lease);
+    }
+}
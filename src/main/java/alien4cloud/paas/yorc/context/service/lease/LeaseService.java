@@ -0,0 +1,228 @@
+package alien4cloud.paas.yorc.context.service.lease;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.model.PollerLease;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Clock;
+import java.util.Hashtable;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Elects the A4C node running the Yorc pollers of an orchestrator.
+ *
+ * The holder writes a lease document (owner, expiry) every pollingLeaseRenewPeriod seconds. Other nodes check it at the
+ * same period and take it over once it has expired. The store has no compare-and-set: a node writes the lease then reads
+ * it back, and only holds it if its write is the one that stuck. Two nodes may briefly poll together during a takeover,
+ * which is harmless since events and logs are delivered at least once.
+ *
+ * When the store is unavailable, the holder keeps the lease until the expiry it last wrote, so that it stops before
+ * another node can take over.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class LeaseService implements SelfNaming {
+
+    /**
+     * Notified on the lease transitions
+     */
+    public interface Listener {
+        void onAcquired();
+
+        void onLost();
+    }
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Inject
+    private LeaseStore store;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    Clock clock = Clock.systemUTC();
+
+    private final String nodeId = buildNodeId();
+
+    private Listener listener;
+
+    /**
+     * True while this node holds the lease
+     */
+    private volatile boolean holder = false;
+
+    /**
+     * Expiry of the last lease written by this node
+     */
+    private long expiry = 0;
+
+    // Renew Task is running
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Renew Task Disposable
+    private Disposable disposable;
+
+    private final AtomicLong acquiredCount = new AtomicLong(0);
+
+    private final AtomicLong lostCount = new AtomicLong(0);
+
+    public void init(Listener listener) {
+        this.listener = listener;
+        running.set(true);
+
+        renewTask();
+    }
+
+    public void term() {
+        running.set(false);
+
+        if (disposable != null) {
+            disposable.dispose();
+        }
+
+        synchronized (this) {
+            if (holder) {
+                // Stop polling before letting another node start
+                lost();
+                release();
+            }
+        }
+    }
+
+    private void renewTask() {
+        if (running.get() == false) {
+            return;
+        }
+
+        update();
+
+        // Reschedule renew task
+        if (running.get() == true) {
+            disposable = Completable.timer(configuration.getPollingLeaseRenewPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::renewTask);
+        }
+    }
+
+    /**
+     * Acquire or renew the lease, and notify the listener of the transitions
+     */
+    synchronized void update() {
+        boolean held;
+        try {
+            held = tryAcquire();
+        } catch(RuntimeException e) {
+            log.warn("Cannot update the polling lease of orchestrator <{}>: {}", configuration.getOrchestratorId(), e.getMessage());
+            held = holder && clock.millis() < expiry;
+        }
+
+        if (held && !holder) {
+            log.info("Node <{}> acquired the polling lease of orchestrator <{}>", nodeId, configuration.getOrchestratorId());
+            holder = true;
+            acquiredCount.incrementAndGet();
+            listener.onAcquired();
+        } else if (!held && holder) {
+            lost();
+        }
+    }
+
+    private void lost() {
+        log.info("Node <{}> lost the polling lease of orchestrator <{}>", nodeId, configuration.getOrchestratorId());
+        holder = false;
+        lostCount.incrementAndGet();
+        listener.onLost();
+    }
+
+    private boolean tryAcquire() {
+        String id = configuration.getOrchestratorId();
+        long now = clock.millis();
+
+        PollerLease lease = store.get(id);
+        if (lease != null && !nodeId.equals(lease.getOwner()) && lease.getExpiry() != null && lease.getExpiry() > now) {
+            // Held by another node
+            return false;
+        }
+
+        long newExpiry = now + TimeUnit.SECONDS.toMillis(configuration.getPollingLeaseTtl());
+        store.save(new PollerLease(id, nodeId, newExpiry));
+
+        // Another node may have written at the same time, the last write wins
+        lease = store.get(id);
+        if (lease == null || !nodeId.equals(lease.getOwner())) {
+            return false;
+        }
+
+        expiry = newExpiry;
+        return true;
+    }
+
+    /**
+     * Let the other nodes take over without waiting for the expiry
+     */
+    private void release() {
+        try {
+            String id = configuration.getOrchestratorId();
+            PollerLease lease = store.get(id);
+            if (lease != null && nodeId.equals(lease.getOwner())) {
+                store.save(new PollerLease(id, nodeId, 0L));
+            }
+        } catch(RuntimeException e) {
+            log.warn("Cannot release the polling lease of orchestrator <{}>: {}", configuration.getOrchestratorId(), e.getMessage());
+        }
+    }
+
+    private static String buildNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch(UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @ManagedAttribute
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @ManagedAttribute
+    public boolean isHolder() {
+        return holder;
+    }
+
+    @ManagedAttribute
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    @ManagedAttribute
+    public long getLostCount() {
+        return lostCount.get();
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","LeaseService");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
@@ -0,0 +1,16 @@
+package alien4cloud.paas.yorc.context.service.lease;
+
+import alien4cloud.paas.yorc.model.PollerLease;
+
+/**
+ * Storage of the poller leases, shared by all the A4C nodes
+ */
+public interface LeaseStore {
+
+    /**
+     * @return the lease or null if none has been written yet
+     */
+    PollerLease get(String id);
+
+    void save(PollerLease lease);
+}
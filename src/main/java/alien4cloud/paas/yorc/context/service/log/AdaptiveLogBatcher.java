@@ -0,0 +1,214 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import com.google.common.collect.Lists;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups the logs of the global log bus into the batches saved in ES.
+ *
+ * With logBatchAdaptive, the batch size follows the number of logs received while one batch is saved:
+ * 2 x incoming rate x save latency, bounded by logBatchMinSize and logBatchMaxSize. Under load, batches grow until the
+ * saves keep up with Yorc. A batch that does not fill up is flushed after one save latency (at most logBufferDelay), so
+ * a quiet deployment does not wait the full delay. Without logBatchAdaptive, batches are logBufferCount logs or
+ * logBufferDelay ms, whichever comes first.
+ *
+ * Both rates are exponential moving averages, the save latency is reported by the log writer with {@link #onSaved}.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class AdaptiveLogBatcher implements SelfNaming {
+
+    public enum FlushReason {
+        SIZE, DELAY
+    }
+
+    /**
+     * Weight of the last sample in the moving averages
+     */
+    private static final double ALPHA = 0.2;
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    private final FlowableProcessor<List<PaaSDeploymentLog>> batches = PublishProcessor.<List<PaaSDeploymentLog>>create().toSerialized();
+
+    private List<PaaSDeploymentLog> current = Lists.newArrayList();
+
+    /**
+     * Incremented at each flush, a delay timer of a previous batch does nothing
+     */
+    private long generation = 0;
+
+    private Disposable timer;
+
+    private long lastFlush = System.nanoTime();
+
+    // Moving averages, in logs per second and milliseconds
+    private volatile double incomingRate = 0;
+    private volatile double saveLatency = 0;
+
+    private volatile int targetSize;
+    private volatile int lastBatchSize;
+    private volatile FlushReason lastFlushReason;
+
+    private final AtomicLong sizeFlushCount = new AtomicLong(0);
+    private final AtomicLong delayFlushCount = new AtomicLong(0);
+
+    /**
+     * @return the batches, they are emitted on the thread adding the last log or on the scheduler
+     */
+    public Flowable<List<PaaSDeploymentLog>> batches() {
+        return batches;
+    }
+
+    public synchronized void add(PaaSDeploymentLog logEvent) {
+        current.add(logEvent);
+
+        if (current.size() == 1) {
+            targetSize = computeTargetSize();
+            long currentGeneration = generation;
+            timer = scheduler.scheduleDirect(() -> onDelay(currentGeneration), computeDelay(), TimeUnit.MILLISECONDS);
+        }
+
+        if (current.size() >= targetSize) {
+            flush(FlushReason.SIZE);
+        }
+    }
+
+    /**
+     * Called by the log writer once a batch has been saved
+     */
+    public void onSaved(long nanos) {
+        saveLatency = average(saveLatency, nanos / 1e6);
+    }
+
+    private synchronized void onDelay(long timerGeneration) {
+        if (timerGeneration == generation && !current.isEmpty()) {
+            flush(FlushReason.DELAY);
+        }
+    }
+
+    private void flush(FlushReason reason) {
+        List<PaaSDeploymentLog> batch = current;
+        current = Lists.newArrayList();
+        generation++;
+        if (timer != null) {
+            timer.dispose();
+            timer = null;
+        }
+
+        long now = System.nanoTime();
+        double elapsed = Math.max(now - lastFlush, 1) / 1e9;
+        incomingRate = average(incomingRate, batch.size() / elapsed);
+        lastFlush = now;
+
+        lastBatchSize = batch.size();
+        lastFlushReason = reason;
+        if (reason == FlushReason.SIZE) {
+            sizeFlushCount.incrementAndGet();
+        } else {
+            delayFlushCount.incrementAndGet();
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Flushing {} logs ({}), rate {}/s, save latency {} ms", batch.size(), reason, (long) incomingRate, (long) saveLatency);
+        }
+
+        batches.onNext(batch);
+    }
+
+    private int computeTargetSize() {
+        if (!isAdaptive()) {
+            return Math.max(1, configuration.getLogBufferCount());
+        }
+
+        int min = Math.max(1, configuration.getLogBatchMinSize());
+        int max = Math.max(min, configuration.getLogBatchMaxSize());
+        long size = (long) Math.ceil(2 * incomingRate * saveLatency / 1000);
+        return (int) Math.max(min, Math.min(max, size));
+    }
+
+    private long computeDelay() {
+        long max = configuration.getLogBufferDelay();
+        if (!isAdaptive()) {
+            return max;
+        }
+        return Math.max(1, Math.min(max, (long) Math.ceil(saveLatency)));
+    }
+
+    private boolean isAdaptive() {
+        return Boolean.TRUE.equals(configuration.getLogBatchAdaptive());
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0 ? sample : average + ALPHA * (sample - average);
+    }
+
+    @ManagedAttribute
+    public int getTargetBatchSize() {
+        return targetSize;
+    }
+
+    @ManagedAttribute
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    @ManagedAttribute
+    public String getLastFlushReason() {
+        return lastFlushReason == null ? null : lastFlushReason.name();
+    }
+
+    @ManagedAttribute
+    public long getSizeFlushCount() {
+        return sizeFlushCount.get();
+    }
+
+    @ManagedAttribute
+    public long getDelayFlushCount() {
+        return delayFlushCount.get();
+    }
+
+    @ManagedAttribute
+    public double getIncomingLogRate() {
+        return incomingRate;
+    }
+
+    @ManagedAttribute
+    public double getSaveLatencyMillis() {
+        return saveLatency;
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","AdaptiveLogBatcher");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
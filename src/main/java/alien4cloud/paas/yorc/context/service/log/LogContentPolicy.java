@@ -0,0 +1,197 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Handles the logs whose content is longer than logContentMaxSize characters (full Ansible or Terraform outputs). Off
+ * by default: logs are stored as received.
+ *
+ * With the chunk policy, the log is split into logs of at most logContentMaxSize characters prefixed by
+ * [part i/n of <id>], the id being a hash of the deployment, timestamp and content of the log: the parts of a log can be
+ * found by searching for it, and a log received twice gets the same id. The parts keep the other fields of the log, and
+ * part i is timestamped i ms after it so that the log view, sorted by timestamp, shows them together and in order. With
+ * the compress policy, the log keeps a preview of logContentPreviewSize characters followed by the whole content gzipped
+ * and base64 encoded.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class LogContentPolicy implements SelfNaming {
+
+    private enum Policy {
+        CHUNK, COMPRESS
+    }
+
+    private static final String COMPRESSED_MARK = "\n[content compressed, %d characters, gzip+base64]\n";
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    private final AtomicLong chunkedCount = new AtomicLong(0);
+
+    private final AtomicLong chunkCount = new AtomicLong(0);
+
+    private final AtomicLong compressedCount = new AtomicLong(0);
+
+    /**
+     * @return the logs to publish in place of this one
+     */
+    public List<PaaSDeploymentLog> apply(PaaSDeploymentLog logEvent) {
+        int max = getMaxSize();
+        String content = logEvent.getContent();
+        if (max <= 0 || content == null || content.length() <= max) {
+            return Collections.singletonList(logEvent);
+        }
+
+        if (getPolicy() == Policy.COMPRESS) {
+            String compressed = compress(content);
+            if (compressed != null) {
+                compressedCount.incrementAndGet();
+                logEvent.setContent(preview(content) + String.format(COMPRESSED_MARK, content.length()) + compressed);
+                return Collections.singletonList(logEvent);
+            }
+        }
+
+        return chunk(logEvent, content, max);
+    }
+
+    private List<PaaSDeploymentLog> chunk(PaaSDeploymentLog logEvent, String content, int max) {
+        List<String> parts = Lists.newArrayList();
+        int start = 0;
+        while (start < content.length()) {
+            int end = Math.min(content.length(), start + max);
+            // Do not split a surrogate pair
+            if (end < content.length() && end - start > 1 && Character.isHighSurrogate(content.charAt(end - 1))) {
+                end--;
+            }
+            parts.add(content.substring(start, end));
+            start = end;
+        }
+
+        String id = idOf(logEvent, content);
+        List<PaaSDeploymentLog> result = Lists.newArrayListWithCapacity(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            PaaSDeploymentLog part = copy(logEvent);
+            part.setContent("[part " + (i + 1) + "/" + parts.size() + " of " + id + "] " + parts.get(i));
+            if (logEvent.getTimestamp() != null) {
+                part.setTimestamp(new Date(logEvent.getTimestamp().getTime() + i));
+            }
+            result.add(part);
+        }
+
+        chunkedCount.incrementAndGet();
+        chunkCount.addAndGet(parts.size());
+        return result;
+    }
+
+    /**
+     * @return a short id of the log, the same for the same log
+     */
+    private static String idOf(PaaSDeploymentLog logEvent, String content) {
+        CRC32 crc = new CRC32();
+        crc.update(String.valueOf(logEvent.getDeploymentPaaSId()).getBytes(StandardCharsets.UTF_8));
+        crc.update(String.valueOf(logEvent.getRawtimestamp()).getBytes(StandardCharsets.UTF_8));
+        crc.update(content.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    private String preview(String content) {
+        int length = Math.max(0, Math.min(content.length(), configuration.getLogContentPreviewSize()));
+        if (length > 0 && length < content.length() && Character.isHighSurrogate(content.charAt(length - 1))) {
+            length--;
+        }
+        return content.substring(0, length);
+    }
+
+    private static String compress(String content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("Cannot compress log content, chunking it: {}", e.getMessage());
+            return null;
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    private static PaaSDeploymentLog copy(PaaSDeploymentLog logEvent) {
+        PaaSDeploymentLog copy = new PaaSDeploymentLog();
+        copy.setDeploymentId(logEvent.getDeploymentId());
+        copy.setDeploymentPaaSId(logEvent.getDeploymentPaaSId());
+        copy.setExecutionId(logEvent.getExecutionId());
+        copy.setInstanceId(logEvent.getInstanceId());
+        copy.setInterfaceName(logEvent.getInterfaceName());
+        copy.setLevel(logEvent.getLevel());
+        copy.setType(logEvent.getType());
+        copy.setNodeId(logEvent.getNodeId());
+        copy.setTimestamp(logEvent.getTimestamp());
+        copy.setRawtimestamp(logEvent.getRawtimestamp());
+        copy.setWorkflowId(logEvent.getWorkflowId());
+        copy.setOperationName(logEvent.getOperationName());
+        copy.setTaskId(logEvent.getTaskId());
+        return copy;
+    }
+
+    private int getMaxSize() {
+        Integer max = configuration.getLogContentMaxSize();
+        return max == null ? 0 : max;
+    }
+
+    private Policy getPolicy() {
+        String policy = configuration.getLogContentPolicy();
+        if (policy != null) {
+            try {
+                return Policy.valueOf(policy.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // Fallback to chunk
+            }
+        }
+        return Policy.CHUNK;
+    }
+
+    @ManagedAttribute
+    public long getChunkedLogCount() {
+        return chunkedCount.get();
+    }
+
+    @ManagedAttribute
+    public long getChunkCount() {
+        return chunkCount.get();
+    }
+
+    @ManagedAttribute
+    public long getCompressedLogCount() {
+        return compressedCount.get();
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","LogContentPolicy");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
@@ -0,0 +1,128 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.service.polling.PollGate;
+import io.reactivex.Scheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Hashtable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the number of logs received from Yorc and not yet saved in ES.
+ *
+ * A log is acquired when it is published on the log bus and released once its batch has been saved (or has failed).
+ * When logIngestionBudget logs are in flight the gate closes: the log pollers finish their current page then wait.
+ * They resume when the in-flight count is back to half the budget, so a slow ES slows down polling instead of
+ * filling the heap. The budget can be exceeded by at most one page per poller.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class LogIngestionBudget implements PollGate, SelfNaming {
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    private final AtomicInteger peak = new AtomicInteger(0);
+
+    private final AtomicLong pauseCount = new AtomicLong(0);
+
+    /**
+     * Pollers waiting for the gate to open
+     */
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+
+    public void acquire(int count) {
+        int value = inFlight.addAndGet(count);
+        peak.accumulateAndGet(value, Math::max);
+    }
+
+    public void release(int count) {
+        int value = inFlight.addAndGet(-count);
+        if (value <= getLowWatermark()) {
+            resumeWaiters();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return inFlight.get() < getCapacity();
+    }
+
+    @Override
+    public void whenOpen(Runnable task) {
+        if (log.isDebugEnabled()) {
+            log.debug("{} logs waiting to be saved, pausing log polling", inFlight.get());
+        }
+        pauseCount.incrementAndGet();
+        waiters.offer(task);
+
+        // The budget may have been released meanwhile
+        if (inFlight.get() <= getLowWatermark()) {
+            resumeWaiters();
+        }
+    }
+
+    private void resumeWaiters() {
+        Runnable task;
+        while ((task = waiters.poll()) != null) {
+            // Do not poll on the thread saving the logs
+            scheduler.scheduleDirect(task);
+        }
+    }
+
+    private int getCapacity() {
+        Integer capacity = configuration.getLogIngestionBudget();
+        return capacity == null || capacity <= 0 ? Integer.MAX_VALUE : capacity;
+    }
+
+    private int getLowWatermark() {
+        return getCapacity() / 2;
+    }
+
+    @ManagedAttribute
+    public int getInFlightLogCount() {
+        return inFlight.get();
+    }
+
+    @ManagedAttribute
+    public int getPeakInFlightLogCount() {
+        return peak.get();
+    }
+
+    @ManagedAttribute
+    public int getPausedPollerCount() {
+        return waiters.size();
+    }
+
+    @ManagedAttribute
+    public long getPauseCount() {
+        return pauseCount.get();
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","LogIngestionBudget");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
@@ -0,0 +1,552 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.deployment.DeploymentLoggingService;
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.Hashtable;
+import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only journal of the log batches that could not be saved in ES.
+ *
+ * The journal is a sequence of memory mapped segments of logJournalSegmentSize MB. A record is one batch:
+ * [int length][int crc][json]. A positive length is a pending batch, a negative one a replayed batch, 0 the end of the
+ * segment data. The length is written last so that a torn record is never read.
+ *
+ * Once a batch has been journaled, all the following ones are journaled too until the journal has been replayed, so
+ * that logs reach ES in order. The replayer saves the batches in order as soon as ES accepts them again, marks them in
+ * place and deletes the segments it is done with. Segments created more than logJournalRetention hours ago are dropped,
+ * even while ES refuses the batches. A segment is named after its sequence number and creation date: the modification
+ * date of a file is not reliably updated by writes to its mapping.
+ *
+ * Mapped pages are written back by the OS: a journal survives a crash of A4C, not of the host.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class LogJournal implements SelfNaming {
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    /**
+     * Delay in milliseconds between two replays when the journal is empty
+     */
+    private static final long IDLE_DELAY = 1000;
+
+    /**
+     * Delay in milliseconds before replaying again once ES has refused a batch
+     */
+    private static final long RETRY_DELAY = 5000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Inject
+    private DeploymentLoggingService loggingService;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    /**
+     * A memory mapped segment file
+     */
+    private static final class Segment {
+        private final long seq;
+        private final long created;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Pending records
+         */
+        private int pending = 0;
+
+        /**
+         * End of the written data
+         */
+        private int end = 0;
+
+        private Segment(long seq, long created, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.created = created;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(long seq, long created, Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(seq, created, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        private static Segment open(long seq, long created, Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(seq, created, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+
+            // Find the pending records and the end of the data
+            int pos = 0;
+            while (pos + HEADER_SIZE <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(pos);
+                if (length == 0) {
+                    break;
+                }
+                // A torn record ends the data, its length may be anything
+                long size = HEADER_SIZE + Math.abs((long) length);
+                if (size > segment.buffer.capacity() - pos) {
+                    log.warn("Log journal segment {} has a torn record at {}, ignoring the rest of the segment", path, pos);
+                    break;
+                }
+                if (length > 0) {
+                    segment.pending++;
+                }
+                pos += size;
+            }
+            segment.end = pos;
+            return segment;
+        }
+
+        private boolean fits(int length) {
+            return end + HEADER_SIZE + length <= buffer.capacity();
+        }
+
+        private void append(byte[] data, int crc) {
+            buffer.putInt(end + 4, crc);
+            ByteBuffer target = buffer.duplicate();
+            target.position(end + HEADER_SIZE);
+            target.put(data);
+            buffer.putInt(end, data.length);
+            end += HEADER_SIZE + data.length;
+            pending++;
+        }
+
+        private void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch(IOException e) {
+                log.warn("Cannot close log journal segment {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A pending batch
+     */
+    private static final class Record {
+        private final Segment segment;
+        private final int position;
+        private final PaaSDeploymentLog[] logs;
+
+        private Record(Segment segment, int position, PaaSDeploymentLog[] logs) {
+            this.segment = segment;
+            this.position = position;
+            this.logs = logs;
+        }
+    }
+
+    /**
+     * Open segments by sequence number
+     */
+    private final NavigableMap<Long,Segment> segments = Maps.newTreeMap();
+
+    private Segment writer;
+
+    /**
+     * Position of the next record to replay in the first segment
+     */
+    private int readPosition = 0;
+
+    /**
+     * Set when ES refused a batch, cleared once the journal has been replayed
+     */
+    private volatile boolean sinkFailed = false;
+
+    private volatile int pendingRecords = 0;
+
+    // Replay Task is running
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Replay Task Disposable
+    private Disposable disposable;
+
+    private final AtomicLong journaledCount = new AtomicLong(0);
+
+    private final AtomicLong replayedCount = new AtomicLong(0);
+
+    private final AtomicLong droppedSegmentCount = new AtomicLong(0);
+
+    private volatile long lastReplayRate = 0;
+
+    Clock clock = Clock.systemUTC();
+
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (this) {
+            openSegments();
+        }
+
+        running.set(true);
+
+        // Schedule replay task
+        disposable = Completable.timer(IDLE_DELAY, TimeUnit.MILLISECONDS, scheduler).subscribe(this::replayTask);
+    }
+
+    public void term() {
+        running.set(false);
+
+        if (disposable != null) {
+            disposable.dispose();
+        }
+
+        synchronized (this) {
+            segments.values().forEach(Segment::close);
+            segments.clear();
+            writer = null;
+            readPosition = 0;
+        }
+    }
+
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(configuration.getLogJournalEnabled());
+    }
+
+    /**
+     * @return true if the new batches must be journaled to keep the logs in order
+     */
+    public boolean isActive() {
+        return running.get() && (sinkFailed || pendingRecords > 0);
+    }
+
+    /**
+     * ES refused a batch, journal until it accepts them again
+     */
+    public void onSinkFailure() {
+        sinkFailed = true;
+    }
+
+    /**
+     * @return false if the batch could not be journaled
+     */
+    public synchronized boolean append(PaaSDeploymentLog[] logs) {
+        if (!running.get()) {
+            return false;
+        }
+
+        try {
+            byte[] data = MAPPER.writeValueAsBytes(logs);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+
+            if (writer == null || !writer.fits(data.length)) {
+                roll(data.length);
+            }
+
+            writer.append(data, (int) crc.getValue());
+            pendingRecords++;
+            journaledCount.addAndGet(logs.length);
+            return true;
+        } catch(IOException e) {
+            log.error("Cannot write {} logs to the journal: {}", logs.length, e.getMessage());
+            return false;
+        }
+    }
+
+    private void replayTask() {
+        if (running.get() == false) {
+            return;
+        }
+
+        long delay = replay();
+
+        // Reschedule replay task
+        if (running.get() == true) {
+            disposable = Completable.timer(delay, TimeUnit.MILLISECONDS, scheduler).subscribe(this::replayTask);
+        }
+    }
+
+    /**
+     * Save the pending batches in order
+     *
+     * @return the delay before the next replay
+     */
+    private long replay() {
+        long start = System.nanoTime();
+        long count = 0;
+
+        Record record;
+        while (running.get() && (record = next()) != null) {
+            try {
+                loggingService.save(record.logs);
+            } catch(RuntimeException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Cannot replay log journal: {}", e.getMessage());
+                }
+                sinkFailed = true;
+                synchronized (this) {
+                    applyRetention();
+                }
+                return RETRY_DELAY;
+            }
+
+            ack(record);
+            count += record.logs.length;
+            replayedCount.addAndGet(record.logs.length);
+        }
+
+        if (count > 0) {
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            lastReplayRate = count * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            log.info("Replayed {} logs from the journal at {} logs/s", count, lastReplayRate);
+        }
+
+        synchronized (this) {
+            if (pendingRecords == 0) {
+                sinkFailed = false;
+            }
+            applyRetention();
+        }
+
+        return IDLE_DELAY;
+    }
+
+    /**
+     * @return the next pending batch or null
+     */
+    private synchronized Record next() {
+        while (!segments.isEmpty()) {
+            Segment segment = segments.firstEntry().getValue();
+
+            while (readPosition < segment.end) {
+                int length = segment.buffer.getInt(readPosition);
+                if (length > 0) {
+                    Record record = read(segment, readPosition, length);
+                    if (record != null) {
+                        return record;
+                    }
+                    // Corrupted, skip it
+                    markReplayed(segment, readPosition, length);
+                }
+                readPosition += HEADER_SIZE + Math.abs(length);
+            }
+
+            if (segment == writer) {
+                // Caught up with the writer
+                return null;
+            }
+
+            // Done with this segment
+            delete(segment);
+        }
+        return null;
+    }
+
+    private synchronized void ack(Record record) {
+        if (segments.get(record.segment.seq) != record.segment) {
+            // Dropped by retention meanwhile
+            return;
+        }
+        int length = record.segment.buffer.getInt(record.position);
+        markReplayed(record.segment, record.position, length);
+        readPosition = record.position + HEADER_SIZE + length;
+    }
+
+    private void markReplayed(Segment segment, int position, int length) {
+        segment.buffer.putInt(position, -length);
+        segment.pending--;
+        pendingRecords--;
+    }
+
+    private Record read(Segment segment, int position, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer source = segment.buffer.duplicate();
+        source.position(position + HEADER_SIZE);
+        source.get(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != segment.buffer.getInt(position + 4)) {
+            log.error("Corrupted record in log journal segment {} at {}, skipping it", segment.path, position);
+            return null;
+        }
+
+        try {
+            return new Record(segment, position, MAPPER.readValue(data, PaaSDeploymentLog[].class));
+        } catch(IOException e) {
+            log.error("Cannot read record in log journal segment {} at {}: {}", segment.path, position, e.getMessage());
+            return null;
+        }
+    }
+
+    private void roll(int length) throws IOException {
+        long seq = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        int size = (int) Math.min(Integer.MAX_VALUE, Math.max(getSegmentSize(), (long) HEADER_SIZE + length));
+
+        Path dir = getJournalDirectory();
+        Files.createDirectories(dir);
+
+        if (writer != null) {
+            writer.buffer.force();
+        }
+
+        long created = clock.millis();
+        writer = Segment.create(seq, created, dir.resolve(String.format("%020d-%d%s", seq, created, SEGMENT_SUFFIX)), size);
+        segments.put(seq, writer);
+    }
+
+    private void delete(Segment segment) {
+        if (segments.firstKey() == segment.seq) {
+            // The read position belongs to the first segment
+            readPosition = 0;
+        }
+
+        segment.close();
+        segments.remove(segment.seq);
+        pendingRecords -= segment.pending;
+        if (segment == writer) {
+            writer = null;
+        }
+
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch(IOException e) {
+            log.warn("Cannot delete log journal segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private void applyRetention() {
+        long limit = clock.millis() - TimeUnit.HOURS.toMillis(configuration.getLogJournalRetention());
+
+        for (Segment segment : segments.values().toArray(new Segment[0])) {
+            if (segment == writer) {
+                continue;
+            }
+            if (segment.created < limit) {
+                log.warn("Dropping log journal segment {} with {} batches not replayed", segment.path, segment.pending);
+                delete(segment);
+                droppedSegmentCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void openSegments() {
+        Path dir = getJournalDirectory();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    // <seq>-<created>.segment
+                    String[] parts = name.substring(0, name.length() - SEGMENT_SUFFIX.length()).split("-");
+                    if (parts.length != 2) {
+                        throw new NumberFormatException("Unexpected segment name");
+                    }
+                    long seq = Long.parseLong(parts[0]);
+                    Segment segment = Segment.open(seq, Long.parseLong(parts[1]), path);
+                    segments.put(seq, segment);
+                    pendingRecords += segment.pending;
+                } catch(NumberFormatException | IOException e) {
+                    log.warn("Ignoring log journal segment {}: {}", path, e.getMessage());
+                }
+            }
+        } catch(IOException e) {
+            log.error("Cannot read log journal {}: {}", dir, e.getMessage());
+        }
+
+        if (pendingRecords > 0) {
+            log.info("{} log batches to replay from the journal", pendingRecords);
+        }
+    }
+
+    private Path getJournalDirectory() {
+        String dir = configuration.getLogJournalPath();
+        if (StringUtils.isBlank(dir)) {
+            dir = Paths.get(System.getProperty("java.io.tmpdir"), "yorc-log-journal").toString();
+        }
+        return Paths.get(dir, configuration.getOrchestratorId());
+    }
+
+    private long getSegmentSize() {
+        return configuration.getLogJournalSegmentSize() * 1024L * 1024L;
+    }
+
+    @ManagedAttribute
+    public int getPendingBatchCount() {
+        return pendingRecords;
+    }
+
+    @ManagedAttribute
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @ManagedAttribute
+    public long getJournaledLogCount() {
+        return journaledCount.get();
+    }
+
+    @ManagedAttribute
+    public long getReplayedLogCount() {
+        return replayedCount.get();
+    }
+
+    @ManagedAttribute
+    public long getLastReplayRate() {
+        return lastReplayRate;
+    }
+
+    @ManagedAttribute
+    public long getDroppedSegmentCount() {
+        return droppedSegmentCount.get();
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","LogJournal");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
@@ -0,0 +1,368 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.model.PaaSDeploymentLogLevel;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.service.fsm.FsmMapper;
+import alien4cloud.paas.yorc.dao.YorcESDao;
+import alien4cloud.paas.yorc.model.LogRateLimit;
+import com.google.common.collect.Maps;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Per deployment token bucket on the logs received from Yorc.
+ *
+ * A deployment can send logRateLimit logs per second plus a burst of logRateBurst logs, the limit can be overridden per
+ * deployment with the log_rate_limit deployment property. Logs above the limit are dropped, sampled or truncated
+ * depending on logRateExcessPolicy, and a WARN log telling how many logs were affected is saved for the deployment every
+ * logRateSummaryPeriod. The log that ends an undeployment is never limited, the state machine waits for it.
+ *
+ * The deployment limits are saved in ES, since Alien only gives them on deploy and update: they are restored when the
+ * orchestrator restarts.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class LogRateLimiter implements SelfNaming {
+
+    private enum Policy {
+        DROP, SAMPLE, TRUNCATE
+    }
+
+    private static final String TRUNCATED_MARK = " [truncated]";
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    @Inject
+    private YorcESDao dao;
+
+    /**
+     * Nano time source
+     */
+    LongSupplier clock = System::nanoTime;
+
+    /**
+     * Limits set by the deployment property
+     */
+    private final Map<String, Integer> limits = Maps.newConcurrentMap();
+
+    private final Map<String, Bucket> buckets = Maps.newConcurrentMap();
+
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    private final AtomicLong sampledCount = new AtomicLong(0);
+
+    private final AtomicLong truncatedCount = new AtomicLong(0);
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private Disposable disposable;
+
+    /**
+     * Receives the summary logs
+     */
+    private Consumer<PaaSDeploymentLog> sink;
+
+    private static class Bucket {
+        private final String alienId;
+        private double tokens;
+        private long last;
+
+        // Excess logs seen since the bucket was empty, for sampling
+        private long excess;
+
+        // Since the last summary
+        private long dropped;
+        private long truncated;
+
+        // Set once evicted, the bucket must not be used anymore
+        private boolean evicted;
+
+        private Bucket(String alienId, double tokens, long now) {
+            this.alienId = alienId;
+            this.tokens = tokens;
+            this.last = now;
+        }
+
+        private void refill(long now, int rate, double capacity) {
+            tokens = Math.min(capacity, tokens + (now - last) * rate / 1e9);
+            last = now;
+        }
+    }
+
+    public void init(Consumer<PaaSDeploymentLog> sink) {
+        this.sink = sink;
+        running.set(true);
+        scheduleSummary();
+    }
+
+    public void term() {
+        running.set(false);
+        if (disposable != null) {
+            disposable.dispose();
+        }
+    }
+
+    /**
+     * Restores the limits saved for the active deployments, the others are deleted
+     */
+    public void restore(Set<String> deploymentPaaSIds) {
+        try {
+            for (LogRateLimit data : dao.customFindAll(LogRateLimit.class, QueryBuilders.termQuery("orchestratorId", configuration.getOrchestratorId()))) {
+                if (deploymentPaaSIds.contains(data.getDeploymentPaaSId())) {
+                    limits.putIfAbsent(data.getDeploymentPaaSId(), data.getLimit());
+                } else {
+                    dao.delete(LogRateLimit.class, data.getId());
+                }
+            }
+        } catch(RuntimeException e) {
+            log.warn("Cannot load the log rate limits of the deployments, using the orchestrator limit: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Overrides the limit of a deployment, a null limit restores the orchestrator one
+     */
+    public void setLimit(String deploymentPaaSId, Integer limit) {
+        if (limit == null) {
+            if (limits.remove(deploymentPaaSId) != null) {
+                delete(deploymentPaaSId);
+            }
+        } else {
+            limits.put(deploymentPaaSId, limit);
+            try {
+                dao.save(new LogRateLimit(idFor(deploymentPaaSId), deploymentPaaSId, limit, configuration.getOrchestratorId()));
+            } catch(RuntimeException e) {
+                log.warn("Cannot save the log rate limit of deployment {}, it will be lost on restart: {}", deploymentPaaSId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forgets a deployment, its last summary is emitted
+     */
+    public void remove(String deploymentPaaSId) {
+        if (limits.remove(deploymentPaaSId) != null) {
+            delete(deploymentPaaSId);
+        }
+
+        Bucket bucket = buckets.remove(deploymentPaaSId);
+        if (bucket != null) {
+            PaaSDeploymentLog summary;
+            synchronized (bucket) {
+                bucket.evicted = true;
+                summary = summarize(deploymentPaaSId, bucket);
+            }
+            emit(summary);
+        }
+    }
+
+    private void delete(String deploymentPaaSId) {
+        try {
+            dao.delete(LogRateLimit.class, idFor(deploymentPaaSId));
+        } catch(RuntimeException e) {
+            log.warn("Cannot delete the log rate limit of deployment {}: {}", deploymentPaaSId, e.getMessage());
+        }
+    }
+
+    private String idFor(String deploymentPaaSId) {
+        return configuration.getOrchestratorId() + "_" + deploymentPaaSId;
+    }
+
+    /**
+     * @return the log to publish, truncated with the truncate policy, or null if it is dropped
+     */
+    public PaaSDeploymentLog limit(PaaSDeploymentLog logEvent) {
+        String id = logEvent.getDeploymentPaaSId();
+        int rate = getLimit(id);
+        if (rate <= 0 || FsmMapper.shouldMap(logEvent)) {
+            return logEvent;
+        }
+
+        double capacity = rate + Math.max(0, configuration.getLogRateBurst());
+        for (;;) {
+            long now = clock.getAsLong();
+            Bucket bucket = buckets.computeIfAbsent(id, k -> new Bucket(logEvent.getDeploymentId(), capacity, now));
+            synchronized (bucket) {
+                if (bucket.evicted) {
+                    continue;
+                }
+
+                bucket.refill(now, rate, capacity);
+                if (bucket.tokens >= 1) {
+                    bucket.tokens -= 1;
+                    bucket.excess = 0;
+                    return logEvent;
+                }
+
+                switch (getPolicy()) {
+                    case SAMPLE:
+                        if (bucket.excess++ % Math.max(1, configuration.getLogRateSampleRatio()) == 0) {
+                            sampledCount.incrementAndGet();
+                            return logEvent;
+                        }
+                        break;
+                    case TRUNCATE:
+                        truncate(logEvent);
+                        bucket.truncated++;
+                        truncatedCount.incrementAndGet();
+                        return logEvent;
+                    default:
+                        break;
+                }
+
+                bucket.dropped++;
+                droppedCount.incrementAndGet();
+                return null;
+            }
+        }
+    }
+
+    private void truncate(PaaSDeploymentLog logEvent) {
+        String content = logEvent.getContent();
+        int length = Math.max(0, configuration.getLogRateTruncateLength());
+        if (content != null && content.length() > length) {
+            logEvent.setContent(content.substring(0, length) + TRUNCATED_MARK);
+        }
+    }
+
+    private int getLimit(String deploymentPaaSId) {
+        Integer limit = limits.get(deploymentPaaSId);
+        if (limit == null) {
+            limit = configuration.getLogRateLimit();
+        }
+        return limit == null ? 0 : limit;
+    }
+
+    private Policy getPolicy() {
+        String policy = configuration.getLogRateExcessPolicy();
+        if (policy != null) {
+            try {
+                return Policy.valueOf(policy.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // Fallback to drop
+            }
+        }
+        return Policy.DROP;
+    }
+
+    private void scheduleSummary() {
+        disposable = Completable.timer(configuration.getLogRateSummaryPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::summaryTask);
+    }
+
+    private void summaryTask() {
+        if (running.get() == false) {
+            return;
+        }
+
+        long now = clock.getAsLong();
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            String id = entry.getKey();
+            Bucket bucket = entry.getValue();
+
+            PaaSDeploymentLog summary;
+            synchronized (bucket) {
+                summary = summarize(id, bucket);
+
+                // A full bucket is the same as no bucket
+                int rate = getLimit(id);
+                double capacity = rate + Math.max(0, configuration.getLogRateBurst());
+                bucket.refill(now, Math.max(0, rate), capacity);
+                if (summary == null && (rate <= 0 || bucket.tokens >= capacity)) {
+                    bucket.evicted = true;
+                    buckets.remove(id, bucket);
+                }
+            }
+            emit(summary);
+        }
+
+        scheduleSummary();
+    }
+
+    /**
+     * @return the summary log of the bucket or null if no log was dropped or truncated
+     */
+    private PaaSDeploymentLog summarize(String deploymentPaaSId, Bucket bucket) {
+        if (bucket.dropped == 0 && bucket.truncated == 0) {
+            return null;
+        }
+
+        String content = String.format("Log rate limit of %d logs per second exceeded: %d logs dropped, %d logs truncated", getLimit(deploymentPaaSId), bucket.dropped, bucket.truncated);
+        bucket.dropped = 0;
+        bucket.truncated = 0;
+
+        PaaSDeploymentLog summary = new PaaSDeploymentLog();
+        summary.setDeploymentId(bucket.alienId);
+        summary.setDeploymentPaaSId(deploymentPaaSId);
+        summary.setLevel(PaaSDeploymentLogLevel.WARN);
+        summary.setTimestamp(new Date());
+        summary.setContent(content);
+        return summary;
+    }
+
+    private void emit(PaaSDeploymentLog summary) {
+        if (summary == null) {
+            return;
+        }
+
+        log.warn("Deployment {}: {}", summary.getDeploymentPaaSId(), summary.getContent());
+        if (sink != null) {
+            sink.accept(summary);
+        }
+    }
+
+    @ManagedAttribute
+    public long getDroppedLogCount() {
+        return droppedCount.get();
+    }
+
+    @ManagedAttribute
+    public long getSampledLogCount() {
+        return sampledCount.get();
+    }
+
+    @ManagedAttribute
+    public long getTruncatedLogCount() {
+        return truncatedCount.get();
+    }
+
+    @ManagedAttribute
+    public int getLimitedDeploymentCount() {
+        return buckets.size();
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","LogRateLimiter");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
@@ -0,0 +1,150 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import com.google.common.collect.Lists;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Consumer;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Saves the log batches on logWriterLanes parallel lanes.
+ *
+ * Each deployment belongs to one lane, chosen from the hash of its Yorc id, and a lane saves its batches one at a time:
+ * the logs of a deployment are saved in order while a slow save only holds back the deployments of its lane. A batch
+ * spanning several lanes is split.
+ */
+@Slf4j
+@Service
+@ManagedResource
+public class LogWriterLanes implements SelfNaming {
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Resource
+    private ProviderConfiguration configuration;
+
+    private List<FlowableProcessor<List<PaaSDeploymentLog>>> lanes = Lists.newArrayList();
+
+    /**
+     * Logs dispatched to each lane and not saved yet
+     */
+    private AtomicIntegerArray depths = new AtomicIntegerArray(0);
+
+    /**
+     * The callback receives the batches of a lane one at a time, on the scheduler.
+     */
+    public synchronized void subscribe(Flowable<List<PaaSDeploymentLog>> batches, Consumer<List<PaaSDeploymentLog>> callback) {
+        int count = Math.max(1, configuration.getLogWriterLanes());
+        depths = new AtomicIntegerArray(count);
+
+        List<FlowableProcessor<List<PaaSDeploymentLog>>> processors = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            final int lane = i;
+            FlowableProcessor<List<PaaSDeploymentLog>> processor = PublishProcessor.create();
+            processor
+                // Bounded by the budget: pollers pause when too many logs are waiting
+                .onBackpressureBuffer()
+                .observeOn(scheduler,false,1)
+                .subscribe(batch -> {
+                    try {
+                        callback.accept(batch);
+                    } finally {
+                        depths.addAndGet(lane, -batch.size());
+                    }
+                });
+            processors.add(processor);
+        }
+        lanes = processors;
+
+        batches.subscribe(this::dispatch);
+    }
+
+    /**
+     * Called for one batch at a time
+     */
+    private void dispatch(List<PaaSDeploymentLog> batch) {
+        int count = lanes.size();
+        if (count == 1) {
+            send(0, batch);
+            return;
+        }
+
+        List<List<PaaSDeploymentLog>> parts = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            parts.add(null);
+        }
+        for (PaaSDeploymentLog logEvent : batch) {
+            int lane = laneOf(logEvent.getDeploymentPaaSId(), count);
+            List<PaaSDeploymentLog> part = parts.get(lane);
+            if (part == null) {
+                part = Lists.newArrayList();
+                parts.set(lane, part);
+            }
+            part.add(logEvent);
+        }
+        for (int i = 0; i < count; i++) {
+            if (parts.get(i) != null) {
+                send(i, parts.get(i));
+            }
+        }
+    }
+
+    private void send(int lane, List<PaaSDeploymentLog> batch) {
+        depths.addAndGet(lane, batch.size());
+        lanes.get(lane).onNext(batch);
+    }
+
+    static int laneOf(String deploymentPaaSId, int count) {
+        return deploymentPaaSId == null ? 0 : Math.floorMod(deploymentPaaSId.hashCode(), count);
+    }
+
+    @ManagedAttribute
+    public int getLaneCount() {
+        return lanes.size();
+    }
+
+    @ManagedAttribute
+    public int[] getLaneQueueDepths() {
+        AtomicIntegerArray values = depths;
+        int[] result = new int[values.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    @ManagedAttribute
+    public int getMaxLaneQueueDepth() {
+        int max = 0;
+        for (int depth : getLaneQueueDepths()) {
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name","LogWriterLanes");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
@@ -0,0 +1,180 @@
+package alien4cloud.paas.yorc.context.service.polling;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.rest.PageReplayGuard;
+import alien4cloud.paas.yorc.context.rest.PageStreamExtractor;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Sequential long polling loop on the events or the logs of a single deployment.
+ *
+ * The items are handed over by the query itself, the stream only tracks the index, notifies each page and retries
+ * through its own PollScheduler.
+ *
+ * stop() drops the page in flight, its items may already have been handed over. drain() lets it end first, so that the
+ * index of the stream covers all the items handed over.
+ */
+@Slf4j
+public class DeploymentStream {
+
+    private final String name;
+
+    /**
+     * Query of a page, the items are handed over while it is decoded
+     */
+    @FunctionalInterface
+    public interface Query {
+        Single<PageStreamExtractor.Page> apply(long index, long wait, PageReplayGuard guard);
+    }
+
+    private final Query query;
+
+    private final PageReplayGuard guard = new PageReplayGuard();
+
+    /**
+     * Called with the index of each page received
+     */
+    private final LongConsumer onPage;
+
+    private final PollScheduler pollScheduler;
+
+    /**
+     * Pauses the stream between two pages, may be null
+     */
+    private final PollGate gate;
+
+    private volatile long index;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * A query is in flight, guarded by this
+     */
+    private boolean querying = false;
+
+    /**
+     * Called once drained, guarded by this
+     */
+    private Runnable onDrained;
+
+    public DeploymentStream(String name, long index, ProviderConfiguration configuration, Scheduler scheduler, Query query, LongConsumer onPage) {
+        this(name, index, configuration, scheduler, query, onPage, null);
+    }
+
+    public DeploymentStream(String name, long index, ProviderConfiguration configuration, Scheduler scheduler, Query query, LongConsumer onPage, PollGate gate) {
+        this.name = name;
+        this.index = index;
+        this.query = query;
+        this.onPage = onPage;
+        this.gate = gate;
+        this.pollScheduler = new PollScheduler(name, configuration, scheduler);
+    }
+
+    public void start() {
+        doQuery();
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Stop the stream once the page in flight, if any, has been handed over
+     *
+     * @param onDrained called when the stream has no query in flight anymore, maybe on the calling thread
+     */
+    public void drain(Runnable onDrained) {
+        boolean drained;
+        synchronized (this) {
+            stopped = true;
+            this.onDrained = onDrained;
+            drained = !querying;
+        }
+        if (drained) {
+            onDrained.run();
+        }
+    }
+
+    /**
+     * @return the index the current query started from, or the next one will
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    private void doQuery() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            querying = true;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Querying {} from index <{}>", name, index);
+        }
+        guard.start(index);
+        query.apply(index, pollScheduler.getWait(), guard).subscribe(this::processPage, this::processErrors);
+    }
+
+    private void processPage(PageStreamExtractor.Page page) {
+        synchronized (this) {
+            if (stopped && onDrained == null) {
+                return;
+            }
+        }
+
+        pollScheduler.onSuccess(page.getCount());
+
+        index = page.getLastIndex();
+        onPage.accept(index);
+
+        if (endQuery()) {
+            return;
+        }
+
+        if (gate == null || gate.isOpen()) {
+            doQuery();
+        } else {
+            gate.whenOpen(this::retry);
+        }
+    }
+
+    private void processErrors(Throwable t) {
+        if (endQuery()) {
+            return;
+        }
+
+        if (!stopped) {
+            long delay = pollScheduler.onFailure(t);
+            log.error("{} polling Exception: {}, retrying in {} ms", name, t.getMessage(), delay);
+            pollScheduler.delay(delay).subscribe(this::retry);
+        }
+    }
+
+    /**
+     * @return true if the stream has been drained
+     */
+    private boolean endQuery() {
+        Runnable drained;
+        synchronized (this) {
+            querying = false;
+            drained = onDrained;
+        }
+        if (drained != null) {
+            drained.run();
+            return true;
+        }
+        return false;
+    }
+
+    private void retry() {
+        if (!stopped) {
+            doQuery();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package alien4cloud.paas.yorc.context.service.polling;
+
+/**
+ * Lets a downstream stage pause a poller
+ */
+public interface PollGate {
+
+    /**
+     * @return true if the poller can send its next query
+     */
+    boolean isOpen();
+
+    /**
+     * Run the task once the gate is open again. The task runs exactly once, possibly right away.
+     */
+    void whenOpen(Runnable task);
+}
@@ -0,0 +1,257 @@
+package alien4cloud.paas.yorc.context.service.polling;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.MBeanExportOperations;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of a Yorc poller, exposed by their own MBean named <poller>PollMetrics, registered from start to stop.
+ *
+ * - latency: duration of the polling requests in milliseconds. It includes the time Yorc holds a long polling request,
+ *   so it is only meaningful for non empty responses or compared to the wait.
+ * - batch size: number of items per response
+ * - dispatch: time spent handing the items of a response to the buses, in milliseconds
+ * - lag: last index known by Yorc minus the consumed index. The Yorc index is read every pollingLagRefreshPeriod
+ *   seconds and every time a page is received.
+ *
+ * Comparing them tells whether slow updates come from Yorc (lag, batch size), the network (latency) or A4C (dispatch).
+ */
+@Slf4j
+@ManagedResource
+public class PollMetrics implements SelfNaming {
+
+    private final String name;
+
+    private final ProviderConfiguration configuration;
+
+    private final Scheduler scheduler;
+
+    private final Supplier<Single<Long>> lastIndexQuery;
+
+    private final LongSupplier consumedIndex;
+
+    private final MBeanExportOperations exporter;
+
+    @Getter
+    private final Histogram latency = new Histogram();
+
+    @Getter
+    private final Histogram batchSize = new Histogram();
+
+    @Getter
+    private final Histogram dispatchTime = new Histogram();
+
+    /**
+     * Date of the last successful poll
+     */
+    private volatile long lastSuccess = 0;
+
+    /**
+     * Last index known by Yorc, -1 until known
+     */
+    private volatile long yorcIndex = -1;
+
+    // Lag Task is running
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Lag Task Disposable
+    private Disposable disposable;
+
+    /**
+     * @param lastIndexQuery the query returning the last index known by Yorc
+     * @param consumedIndex the index consumed by the poller
+     * @param exporter registers the MBean, may be null
+     */
+    public PollMetrics(String name, ProviderConfiguration configuration, Scheduler scheduler, Supplier<Single<Long>> lastIndexQuery, LongSupplier consumedIndex, MBeanExportOperations exporter) {
+        this.name = name;
+        this.configuration = configuration;
+        this.scheduler = scheduler;
+        this.lastIndexQuery = lastIndexQuery;
+        this.consumedIndex = consumedIndex;
+        this.exporter = exporter;
+    }
+
+    public void start() {
+        if (exporter != null) {
+            // Replaces the metrics of the previous run
+            exporter.registerManagedResource(this);
+        }
+
+        if (getRefreshPeriod() <= 0) {
+            return;
+        }
+
+        running.set(true);
+
+        // Schedule lag task
+        disposable = Completable.timer(getRefreshPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::lagTask);
+    }
+
+    public void stop() {
+        running.set(false);
+
+        if (disposable != null) {
+            disposable.dispose();
+        }
+
+        if (exporter != null) {
+            try {
+                exporter.unregisterManagedResource(getObjectName());
+            } catch(MalformedObjectNameException | RuntimeException e) {
+                log.debug("Cannot unregister {} poll metrics: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Notify a successful poll
+     *
+     * @param latency request duration in milliseconds
+     * @param count number of items received
+     * @param lastIndex index returned by Yorc
+     */
+    public void onPoll(long latency, int count, long lastIndex) {
+        lastSuccess = System.currentTimeMillis();
+        this.latency.record(latency);
+        batchSize.record(count);
+        updateYorcIndex(lastIndex);
+    }
+
+    /**
+     * Notify the dispatch of a page
+     *
+     * @param duration in milliseconds
+     */
+    public void onDispatch(long duration) {
+        dispatchTime.record(duration);
+    }
+
+    @ManagedAttribute
+    public long getPollLatencyMean() {
+        return latency.getMean();
+    }
+
+    @ManagedAttribute
+    public long getPollLatencyP50() {
+        return latency.getPercentile(50);
+    }
+
+    @ManagedAttribute
+    public long getPollLatencyP99() {
+        return latency.getPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getPollLatencyMax() {
+        return latency.getMax();
+    }
+
+    @ManagedAttribute
+    public long getBatchSizeMean() {
+        return batchSize.getMean();
+    }
+
+    @ManagedAttribute
+    public long getBatchSizeP99() {
+        return batchSize.getPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getBatchSizeMax() {
+        return batchSize.getMax();
+    }
+
+    @ManagedAttribute
+    public long getDispatchTimeMean() {
+        return dispatchTime.getMean();
+    }
+
+    @ManagedAttribute
+    public long getDispatchTimeP99() {
+        return dispatchTime.getPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getDispatchTimeMax() {
+        return dispatchTime.getMax();
+    }
+
+    /**
+     * @return milliseconds since the last successful poll, -1 if none
+     */
+    @ManagedAttribute
+    public long getTimeSinceLastPoll() {
+        long last = lastSuccess;
+        return last == 0 ? -1 : System.currentTimeMillis() - last;
+    }
+
+    /**
+     * @return the number of Yorc indexes not consumed yet, -1 if unknown
+     */
+    @ManagedAttribute
+    public long getLag() {
+        long known = yorcIndex;
+        return known < 0 ? -1 : Math.max(0, known - consumedIndex.getAsLong());
+    }
+
+    @ManagedOperation
+    public void resetMetrics() {
+        latency.reset();
+        batchSize.reset();
+        dispatchTime.reset();
+    }
+
+    private void lagTask() {
+        if (running.get() == false) {
+            return;
+        }
+
+        lastIndexQuery.get().subscribe(this::updateYorcIndex, t -> {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot read {} index from Yorc: {}", name, t.getMessage());
+            }
+        });
+
+        // Reschedule lag task
+        if (running.get() == true) {
+            disposable = Completable.timer(getRefreshPeriod(), TimeUnit.SECONDS, scheduler).subscribe(this::lagTask);
+        }
+    }
+
+    private synchronized void updateYorcIndex(long index) {
+        if (index > yorcIndex) {
+            yorcIndex = index;
+        }
+    }
+
+    private int getRefreshPeriod() {
+        Integer period = configuration.getPollingLagRefreshPeriod();
+        return period == null ? 0 : period;
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        Hashtable<String,String> kv = new Hashtable();
+        kv.put("type","Orchestrators");
+        kv.put("orchestratorName",configuration.getOrchestratorName());
+        kv.put("name",name + "PollMetrics");
+        return new ObjectName("alien4cloud.paas.yorc",kv);
+    }
+}
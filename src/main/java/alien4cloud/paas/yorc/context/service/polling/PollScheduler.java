@@ -0,0 +1,196 @@
+package alien4cloud.paas.yorc.context.service.polling;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when and how a Yorc poller queries again.
+ *
+ * - On success, the long polling wait sent to Yorc grows while responses are empty (idle orchestrator)
+ *   and goes back to pollingMinWait as soon as something is received.
+ * - On error, the retry delay grows exponentially from pollingRetryDelay to pollingMaxRetryDelay with jitter,
+ *   so that all the A4C nodes do not reconnect at the same time.
+ * - After pollingCircuitBreakerThreshold consecutive errors the circuit opens: nothing is sent for
+ *   pollingCircuitBreakerOpenPeriod, then a single probe is sent. A successful probe closes the circuit.
+ * - A read timeout (possibly wrapped by the rest template or the future) halves the wait ceiling and the request is sent
+ *   again at once. It only counts as an error when the wait cannot be lowered anymore. After CEILING_RAISE_POLLS empty
+ *   polls held for the whole ceiling, the ceiling doubles again up to pollingMaxWait, in case the timeout was transient.
+ *
+ * One instance per poller, a poller never has more than one request in flight.
+ */
+@Slf4j
+public class PollScheduler {
+
+    public enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Margin in seconds between the long polling wait and the socket timeout
+     */
+    private static final int SOCKET_TIMEOUT_MARGIN = 10;
+
+    /**
+     * Number of empty polls held for the whole ceiling before raising it
+     */
+    static final int CEILING_RAISE_POLLS = 10;
+
+    private final String name;
+
+    private final ProviderConfiguration configuration;
+
+    private final Scheduler scheduler;
+
+    private CircuitState state = CircuitState.CLOSED;
+
+    private int failures = 0;
+
+    private long wait;
+
+    /**
+     * Upper bound of the wait, lowered when long requests time out
+     */
+    private long waitCeiling;
+
+    /**
+     * Empty polls held for the whole ceiling since it was last changed
+     */
+    private int pollsAtCeiling = 0;
+
+    public PollScheduler(String name, ProviderConfiguration configuration, Scheduler scheduler) {
+        this.name = name;
+        this.configuration = configuration;
+        this.scheduler = scheduler;
+        this.waitCeiling = getMaxWait();
+        this.wait = Math.min(configuration.getPollingMinWait(), waitCeiling);
+    }
+
+    /**
+     * @return the duration in seconds Yorc may hold the next request
+     */
+    public synchronized long getWait() {
+        return wait;
+    }
+
+    /**
+     * Notify a successful poll
+     *
+     * @param count the number of items received
+     */
+    public synchronized void onSuccess(int count) {
+        if (state != CircuitState.CLOSED) {
+            log.info("{} polling is back, closing circuit", name);
+        }
+        state = CircuitState.CLOSED;
+        failures = 0;
+
+        if (count == 0) {
+            if (wait == waitCeiling && waitCeiling < getMaxWait() && ++pollsAtCeiling >= CEILING_RAISE_POLLS) {
+                // Long requests go through again
+                waitCeiling = Math.min(waitCeiling * 2, getMaxWait());
+                pollsAtCeiling = 0;
+                log.debug("{} long polling held {} times, raising wait ceiling to {}s", name, CEILING_RAISE_POLLS, waitCeiling);
+            }
+
+            // Nothing happens, hold the connection longer next time
+            wait = Math.min(wait * 2, waitCeiling);
+        } else {
+            wait = Math.min(configuration.getPollingMinWait(), waitCeiling);
+        }
+    }
+
+    /**
+     * Notify a failed poll
+     *
+     * @return the delay in milliseconds before the next attempt
+     */
+    public synchronized long onFailure(Throwable t) {
+        if (isTimeout(t) && wait > 1) {
+            // Something between us and Yorc does not like long requests
+            waitCeiling = Math.max(1, wait / 2);
+            wait = waitCeiling;
+            pollsAtCeiling = 0;
+            log.debug("{} long polling timed out, lowering wait to {}s", name, wait);
+
+            if (state == CircuitState.CLOSED) {
+                return 0;
+            }
+        }
+
+        failures++;
+
+        if (state == CircuitState.HALF_OPEN || failures >= configuration.getPollingCircuitBreakerThreshold()) {
+            if (state != CircuitState.OPEN) {
+                log.warn("{} polling failed {} times, opening circuit for {}s", name, failures, configuration.getPollingCircuitBreakerOpenPeriod());
+            }
+            state = CircuitState.OPEN;
+            long period = TimeUnit.SECONDS.toMillis(configuration.getPollingCircuitBreakerOpenPeriod());
+            return period + jitter(period / 10);
+        }
+
+        return backoff();
+    }
+
+    /**
+     * @return a Completable completing after the given delay, switching an open circuit to half open
+     */
+    public Completable delay(long millis) {
+        return Completable.timer(millis, TimeUnit.MILLISECONDS, scheduler).doOnComplete(this::probe);
+    }
+
+    private synchronized void probe() {
+        if (state == CircuitState.OPEN) {
+            state = CircuitState.HALF_OPEN;
+        }
+    }
+
+    private long backoff() {
+        long base = TimeUnit.SECONDS.toMillis(configuration.getPollingRetryDelay());
+        long max = TimeUnit.SECONDS.toMillis(configuration.getPollingMaxRetryDelay());
+
+        // Cap the shift to avoid overflows
+        int shift = Math.min(failures - 1, 20);
+        long delay = Math.min(max, base << shift);
+
+        // Equal jitter: half fixed, half random
+        return delay / 2 + jitter(delay / 2);
+    }
+
+    /**
+     * @return true if the error is caused by a socket timeout
+     */
+    static boolean isTimeout(Throwable t) {
+        // Bounded walk, a cause chain may loop
+        for (int i = 0; t != null && i < 16; i++, t = t.getCause()) {
+            if (t instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long jitter(long bound) {
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private long getMaxWait() {
+        long max = configuration.getSocketTimeout() - SOCKET_TIMEOUT_MARGIN;
+        return Math.max(1, Math.min(configuration.getPollingMaxWait(), max));
+    }
+
+    public synchronized CircuitState getState() {
+        return state;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+}
@@ -4,6 +4,8 @@ import alien4cloud.dao.ESGenericSearchDAO;
 import alien4cloud.exception.IndexingServiceException;
 import alien4cloud.paas.yorc.model.EventIndex;
 import alien4cloud.paas.yorc.model.LogEventIndex;
+import alien4cloud.paas.yorc.model.LogRateLimit;
+import alien4cloud.paas.yorc.model.PollerLease;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
@@ -23,7 +25,7 @@ public class YorcESDao extends ESGenericSearchDAO {
             throw new IndexingServiceException("Could not initialize elastic search mapping builder", e);
         }
         // Audit trace index
-        initIndices(ALIEN_YORC_INDEX, null, EventIndex.class, LogEventIndex.class);
+        initIndices(ALIEN_YORC_INDEX, null, EventIndex.class, LogEventIndex.class, PollerLease.class, LogRateLimit.class);
         initCompleted();
     }
 }
@@ -4,6 +4,7 @@ import lombok.*;
 import org.elasticsearch.annotation.ESObject;
 import org.elasticsearch.annotation.Id;
 import org.elasticsearch.annotation.NumberField;
+import org.elasticsearch.annotation.StringField;
 import org.elasticsearch.mapping.IndexType;
 
 @Getter
@@ -19,4 +20,10 @@ public class EventIndex {
 
     @NumberField(index = IndexType.not_analyzed)
     private Long index;
+
+    /**
+     * Orchestrator of the checkpoint, the id of a deployment stream checkpoint is orchestratorId_deploymentId
+     */
+    @StringField(indexType = IndexType.not_analyzed)
+    private String orchestratorId;
 }
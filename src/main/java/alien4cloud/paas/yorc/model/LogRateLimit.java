@@ -0,0 +1,32 @@
+package alien4cloud.paas.yorc.model;
+
+import lombok.*;
+import org.elasticsearch.annotation.ESObject;
+import org.elasticsearch.annotation.Id;
+import org.elasticsearch.annotation.NumberField;
+import org.elasticsearch.annotation.StringField;
+import org.elasticsearch.mapping.IndexType;
+
+/**
+ * Log rate limit set by the log_rate_limit deployment property, the id is orchestratorId_deploymentPaaSId
+ */
+@Getter
+@Setter
+@ToString
+@ESObject
+@NoArgsConstructor
+@AllArgsConstructor
+public class LogRateLimit {
+
+    @Id
+    private String id;
+
+    @StringField(indexType = IndexType.not_analyzed)
+    private String deploymentPaaSId;
+
+    @NumberField(index = IndexType.not_analyzed)
+    private Integer limit;
+
+    @StringField(indexType = IndexType.not_analyzed)
+    private String orchestratorId;
+}
@@ -0,0 +1,32 @@
+package alien4cloud.paas.yorc.model;
+
+import lombok.*;
+import org.elasticsearch.annotation.ESObject;
+import org.elasticsearch.annotation.Id;
+import org.elasticsearch.annotation.NumberField;
+import org.elasticsearch.annotation.StringField;
+import org.elasticsearch.mapping.IndexType;
+
+/**
+ * Lease on the Yorc pollers of an orchestrator, the id is the orchestrator id
+ */
+@Getter
+@Setter
+@ToString
+@ESObject
+@NoArgsConstructor
+@AllArgsConstructor
+public class PollerLease {
+
+    @Id
+    private String id;
+
+    @StringField(indexType = IndexType.not_analyzed)
+    private String owner;
+
+    /**
+     * Expiration date in milliseconds since epoch
+     */
+    @NumberField(index = IndexType.not_analyzed)
+    private Long expiry;
+}
@@ -0,0 +1,146 @@
+package alien4cloud.paas.yorc.util;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Parses Yorc timestamps to milliseconds since epoch.
+ *
+ * Yorc writes RFC 3339 timestamps with Go's RFC3339Nano layout: 2006-01-02T15:04:05.999999999Z07:00, where the fraction
+ * is optional with up to 9 digits and the offset is Z or +hh:mm / -hh:mm. That layout is parsed in place without creating
+ * any object. Anything else goes through OffsetDateTime.
+ */
+public class YorcTimestamps {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private YorcTimestamps() {
+    }
+
+    /**
+     * @return milliseconds since epoch, the offset of the timestamp is taken into account
+     * @throws java.time.format.DateTimeParseException if the timestamp is not a valid RFC 3339 timestamp
+     */
+    public static long toEpochMillis(CharSequence s) {
+        long result = parse(s);
+        if (result == Long.MIN_VALUE) {
+            return OffsetDateTime.parse(s).toInstant().toEpochMilli();
+        }
+        return result;
+    }
+
+    /**
+     * @return milliseconds since epoch or Long.MIN_VALUE if the timestamp does not follow the Yorc layout
+     */
+    static long parse(CharSequence s) {
+        int len = s.length();
+        if (len < 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+
+        // Optional fraction, only the milliseconds are kept
+        int pos = 19;
+        int millis = 0;
+        if (s.charAt(pos) == '.') {
+            pos++;
+            int start = pos;
+            while (pos < len && pos - start < 9) {
+                char c = s.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (pos - start < 3) {
+                    millis = millis * 10 + (c - '0');
+                }
+                pos++;
+            }
+            int count = pos - start;
+            if (count == 0) {
+                return Long.MIN_VALUE;
+            }
+            for (int i = count; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        // Offset
+        if (pos >= len) {
+            return Long.MIN_VALUE;
+        }
+        int offsetSeconds;
+        char c = s.charAt(pos);
+        if (c == 'Z' || c == 'z') {
+            if (pos + 1 != len) {
+                return Long.MIN_VALUE;
+            }
+            offsetSeconds = 0;
+        } else if ((c == '+' || c == '-') && pos + 6 == len && s.charAt(pos + 3) == ':') {
+            int offsetHours = digits(s, pos + 1, 2);
+            int offsetMinutes = digits(s, pos + 4, 2);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return Long.MIN_VALUE;
+            }
+            offsetSeconds = (offsetHours * 3600 + offsetMinutes * 60) * (c == '-' ? -1 : 1);
+        } else {
+            return Long.MIN_VALUE;
+        }
+
+        long seconds = hour * 3600 + minute * 60 + second - offsetSeconds;
+        return epochDay(year, month, day) * MILLIS_PER_DAY + seconds * 1000 + millis;
+    }
+
+    /**
+     * @return the value of count decimal digits or -1
+     */
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeap(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeap(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic gregorian date
+     */
+    private static long epochDay(int year, int month, int day) {
+        // Years start in March so that the leap day is the last one
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
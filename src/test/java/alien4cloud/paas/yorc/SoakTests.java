@@ -0,0 +1,7 @@
+package alien4cloud.paas.yorc;
+
+/**
+ * JUnit category of the long running tests, only run by the soak profile: mvn test -Psoak
+ */
+public interface SoakTests {
+}
@@ -0,0 +1,148 @@
+package alien4cloud.paas.yorc.context.rest;
+
+import alien4cloud.paas.yorc.context.rest.response.Event;
+import com.google.common.collect.Lists;
+import lombok.Getter;
+import lombok.Setter;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+public class PageStreamExtractorTest {
+
+    @Getter
+    @Setter
+    public static class Item {
+        private String name;
+        private long size;
+        private Map<String,Object> context;
+        private String deploymentId;
+    }
+
+    private static ClientHttpResponse response(String body) throws IOException {
+        ClientHttpResponse response = Mockito.mock(ClientHttpResponse.class);
+        Mockito.when(response.getBody()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        return response;
+    }
+
+    private static String event(String deploymentId, String status) {
+        return "{\"timestamp\":\"now\",\"status\":\"" + status + "\",\"deploymentId\":\"" + deploymentId + "\",\"type\":\"instance\"}";
+    }
+
+    private static String page(String... events) {
+        return "{\"events\":[" + String.join(",", events) + "],\"last_index\":42}";
+    }
+
+    @Test
+    public void fieldsBeforeTheDeploymentIdAreKept() throws IOException {
+        List<Event> events = Lists.newArrayList();
+        PageStreamExtractor<Event> extractor = new PageStreamExtractor<>("events", Event.class, events::add, id -> true);
+
+        PageStreamExtractor.Page page = extractor.extractData(response(page(event("d1", "started"))));
+
+        Assert.assertEquals(42, page.getLastIndex());
+        Assert.assertEquals(1, page.getCount());
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("now", events.get(0).getTimestamp());
+        Assert.assertEquals("started", events.get(0).getStatus());
+        Assert.assertEquals("d1", events.get(0).getDeploymentId());
+        Assert.assertEquals("instance", events.get(0).getType());
+    }
+
+    @Test
+    public void nestedValuesAreKept() throws IOException {
+        List<Item> items = Lists.newArrayList();
+        PageStreamExtractor<Item> extractor = new PageStreamExtractor<>("items", Item.class, items::add, id -> true);
+
+        extractor.extractData(response("{\"items\":[{\"name\":\"a\",\"size\":3,\"context\":{\"host\":\"h1\",\"tags\":[1,2]},\"deploymentId\":\"d1\"}],\"last_index\":1}"));
+
+        Assert.assertEquals(1, items.size());
+        Item item = items.get(0);
+        Assert.assertEquals("a", item.getName());
+        Assert.assertEquals(3, item.getSize());
+        Assert.assertEquals("h1", item.getContext().get("host"));
+        Assert.assertEquals(Lists.newArrayList(1, 2), item.getContext().get("tags"));
+        Assert.assertEquals("d1", item.getDeploymentId());
+    }
+
+    @Test
+    public void itemsOfOtherDeploymentsAreDiscarded() throws IOException {
+        List<Event> events = Lists.newArrayList();
+        PageStreamExtractor<Event> extractor = new PageStreamExtractor<>("events", Event.class, events::add, "d1"::equals);
+
+        PageStreamExtractor.Page page = extractor.extractData(response(page(event("d2", "a"), event("d1", "b"), "{\"status\":\"c\"}", event("d3", "d"))));
+
+        Assert.assertEquals(4, page.getCount());
+        Assert.assertEquals(3, page.getDiscarded());
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("b", events.get(0).getStatus());
+    }
+
+    @Test
+    public void truncatedBodyFails() throws IOException {
+        List<Event> events = Lists.newArrayList();
+        PageStreamExtractor<Event> extractor = new PageStreamExtractor<>("events", Event.class, events::add, id -> true);
+
+        String body = page(event("d1", "a"), event("d1", "b"));
+        try {
+            extractor.extractData(response(body.substring(0, body.indexOf("\"b\""))));
+            Assert.fail("A truncated page must fail");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The items before the failure have been handed over
+        Assert.assertEquals(1, events.size());
+    }
+
+    @Test
+    public void missingLastIndexFails() throws IOException {
+        PageStreamExtractor<Event> extractor = new PageStreamExtractor<>("events", Event.class, event -> {});
+
+        try {
+            extractor.extractData(response("{\"events\":[]}"));
+            Assert.fail("A page without last_index must fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void retriedPageIsNotDispatchedTwice() throws IOException {
+        List<String> statuses = Lists.newArrayList();
+        PageReplayGuard guard = new PageReplayGuard();
+        String body = page(event("d2", "a"), event("d1", "b"), event("d1", "c"), event("d1", "d"));
+
+        // Fails on the third item
+        guard.start(10);
+        try {
+            new PageStreamExtractor<>("events", Event.class, (Event e) -> statuses.add(e.getStatus()), "d1"::equals, guard)
+                    .extractData(response(body.substring(0, body.indexOf("\"c\""))));
+            Assert.fail("A truncated page must fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        Assert.assertEquals(Lists.newArrayList("b"), statuses);
+
+        // Same index again: the discarded and dispatched items are skipped
+        guard.start(10);
+        PageStreamExtractor.Page page = new PageStreamExtractor<>("events", Event.class, (Event e) -> statuses.add(e.getStatus()), "d1"::equals, guard)
+                .extractData(response(body));
+        Assert.assertEquals(Lists.newArrayList("b", "c", "d"), statuses);
+        Assert.assertEquals(4, page.getCount());
+
+        // Next page: nothing is skipped
+        statuses.clear();
+        guard.start(42);
+        new PageStreamExtractor<>("events", Event.class, (Event e) -> statuses.add(e.getStatus()), "d1"::equals, guard)
+                .extractData(response(body));
+        Assert.assertEquals(Lists.newArrayList("b", "c", "d"), statuses);
+    }
+}
@@ -0,0 +1,162 @@
+package alien4cloud.paas.yorc.context.rest;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class StreamingResponseConsumerTest {
+
+    private final IOControl ioctrl = Mockito.mock(IOControl.class);
+
+    /**
+     * A chunk of the body as received by the IO thread
+     */
+    private static class Chunk implements ContentDecoder {
+        private final ByteBuffer data;
+
+        private Chunk(int size) {
+            data = ByteBuffer.allocate(size);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining()) {
+                return 0;
+            }
+            int count = Math.min(dst.remaining(), data.remaining());
+            for (int i = 0; i < count; i++) {
+                dst.put(data.get());
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            // The end of the body is signaled by the consumer
+            return false;
+        }
+    }
+
+    private static <T> StreamingResponseConsumer<T> consumer(ResponseExtractor<T> extractor, TestObserver<T> observer) {
+        AtomicReference<StreamingResponseConsumer<T>> consumer = new AtomicReference<>();
+        Single.<T>create(emitter -> consumer.set(new StreamingResponseConsumer<>(extractor, Schedulers.newThread(), emitter))).subscribe(observer);
+        return consumer.get();
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        long total = 0;
+        byte[] bytes = new byte[1024];
+        for (int count = in.read(bytes); count >= 0; count = in.read(bytes)) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static BasicHttpResponse response(int code) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, code, "reason");
+    }
+
+    @Test
+    public void bodyIsReadBeforeItEnds() throws Exception {
+        CountDownLatch firstChunk = new CountDownLatch(1);
+        TestObserver<Long> observer = new TestObserver<>();
+        StreamingResponseConsumer<Long> consumer = consumer(response -> {
+            InputStream in = response.getBody();
+            byte[] bytes = new byte[100];
+            int count = 0;
+            while (count < bytes.length) {
+                count += in.read(bytes, count, bytes.length - count);
+            }
+            firstChunk.countDown();
+            return count + drain(in);
+        }, observer);
+
+        consumer.responseReceived(response(200));
+        consumer.consumeContent(new Chunk(100), ioctrl);
+
+        // The extractor got the first chunk while the rest is not received
+        Assert.assertTrue(firstChunk.await(5, TimeUnit.SECONDS));
+        observer.assertNoValues();
+
+        consumer.consumeContent(new Chunk(50), ioctrl);
+        consumer.responseCompleted(new BasicHttpContext());
+
+        observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        observer.assertValue(150L);
+    }
+
+    @Test
+    public void fullBufferSuspendsTheConnection() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        TestObserver<Long> observer = new TestObserver<>();
+        StreamingResponseConsumer<Long> consumer = consumer(response -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return drain(response.getBody());
+        }, observer);
+
+        consumer.responseReceived(response(200));
+        consumer.consumeContent(new Chunk(StreamingResponseConsumer.BUFFER_SIZE), ioctrl);
+
+        // The extractor is late: no more than the buffer is held
+        Mockito.verify(ioctrl).suspendInput();
+
+        // It catches up and asks for more
+        blocked.countDown();
+        Mockito.verify(ioctrl, Mockito.timeout(5000).atLeastOnce()).requestInput();
+
+        consumer.consumeContent(new Chunk(10), ioctrl);
+        consumer.responseCompleted(new BasicHttpContext());
+
+        observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        observer.assertValue((long) StreamingResponseConsumer.BUFFER_SIZE + 10);
+    }
+
+    @Test
+    public void errorStatusFails() throws Exception {
+        TestObserver<Long> observer = new TestObserver<>();
+        StreamingResponseConsumer<Long> consumer = consumer(response -> drain(response.getBody()), observer);
+
+        consumer.responseReceived(response(404));
+        consumer.consumeContent(new Chunk(10), ioctrl);
+        consumer.responseCompleted(new BasicHttpContext());
+
+        observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        observer.assertError(HttpClientErrorException.class);
+    }
+
+    @Test
+    public void connectionFailureIsReported() throws Exception {
+        TestObserver<Long> observer = new TestObserver<>();
+        StreamingResponseConsumer<Long> consumer = consumer(response -> drain(response.getBody()), observer);
+
+        consumer.responseReceived(response(200));
+        consumer.consumeContent(new Chunk(10), ioctrl);
+        consumer.failed(new SocketTimeoutException());
+
+        // And not the error of the extractor
+        observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        observer.assertError(SocketTimeoutException.class);
+    }
+}
@@ -0,0 +1,116 @@
+package alien4cloud.paas.yorc.context.rest.browser;
+
+import alien4cloud.paas.yorc.context.rest.response.Link;
+import com.google.common.collect.Maps;
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crawl of a synthetic deployment with 10k attributes (10 nodes, 100 instances each, 10 attributes each) by the Browser
+ * against the previous implementation, with an in memory Yorc so that only the crawl itself is measured.
+ *
+ * Run it from the IDE or with: java -cp target/test-classes:<test classpath> alien4cloud.paas.yorc.context.rest.browser.BrowserBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrowserBenchmark {
+
+    /**
+     * The browser before the crawl engine
+     */
+    private static class LegacyBrowser {
+
+        private static class Context {
+
+            private final Object[] context;
+
+            Context(Object t) {
+                this.context = new Object[] { t };
+            }
+
+            Context(Context parent, Object t) {
+                this.context = Arrays.copyOf(parent.context,parent.context.length + 1);
+                this.context[this.context.length - 1] = t;
+            }
+
+            Object last() {
+                return this.context[this.context.length - 1];
+            }
+
+            <T> Observable<Context> follow(String rel, Function<String,Observable<T>> func, int concurrency) {
+                return Observable.just(last())
+                    .cast(BrowseableDTO.class)
+                    .flatMapIterable(BrowseableDTO::getLinks)
+                    .filter(link -> link.getRel().equals(rel))
+                    .map(Link::getHref)
+                    .flatMap(x -> Observable.defer(() ->func.apply(x)), true, concurrency)
+                    .map(object -> new Context(this, object));
+            }
+        }
+
+        static <T> Observable<Context> browserFor(Observable<String> links, Function<String,Observable<T>> func, int concurrency) {
+            return links.flatMap(x -> Observable.defer(() -> func.apply(x)), true, concurrency).map( object -> new Context(object));
+        }
+    }
+
+    private SyntheticDeployment deployment;
+
+    private Map<String,Integer> concurrencies;
+
+    @Setup
+    public void setUp() {
+        deployment = new SyntheticDeployment(10, 100, 10);
+
+        concurrencies = Maps.newHashMap();
+        concurrencies.put("node", 5);
+        concurrencies.put("instance", 10);
+        concurrencies.put("attribute", 16);
+    }
+
+    @Benchmark
+    public long legacy() {
+        return LegacyBrowser.browserFor(Observable.just(SyntheticDeployment.ROOT), deployment::get, 1)
+                .flatMap( agg -> agg.follow("node", deployment::get, 5))
+                .flatMap( agg -> agg.follow("instance", deployment::get, 5))
+                .flatMap( agg -> agg.follow("attribute", deployment::get, 10), true)
+                .count()
+                .blockingGet();
+    }
+
+    @Benchmark
+    public long engine() {
+        Browser browser = new Browser(Schedulers.computation(), concurrencies, 3, 500, x -> true);
+        return browser.browse(SyntheticDeployment.ROOT, deployment::get)
+                .compose(browser.follow("node", deployment::get))
+                .compose(browser.follow("instance", deployment::get))
+                .compose(browser.follow("attribute", deployment::get))
+                .count()
+                .blockingGet();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BrowserBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,109 @@
+package alien4cloud.paas.yorc.context.rest.browser;
+
+import alien4cloud.paas.yorc.context.rest.response.AttributeDTO;
+import alien4cloud.paas.yorc.context.rest.response.InstanceDTO;
+import alien4cloud.paas.yorc.context.rest.response.NodeDTO;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BrowserTest {
+
+    private SyntheticDeployment deployment;
+
+    private Map<String,Integer> concurrencies;
+
+    @Before
+    public void setUp() {
+        deployment = new SyntheticDeployment(2, 3, 4);
+        concurrencies = Maps.newHashMap();
+        concurrencies.put("attribute", 4);
+    }
+
+    private Browser newBrowser(int maxRetries) {
+        return new Browser(Schedulers.trampoline(), concurrencies, maxRetries, 1, x -> !(x instanceof IllegalArgumentException));
+    }
+
+    private static Observable<Browser.Context> crawl(Browser browser, Function<String,Observable<Object>> func) {
+        return browser.browse(SyntheticDeployment.ROOT, func)
+                .compose(browser.follow("node", func))
+                .compose(browser.follow("instance", func))
+                .compose(browser.follow("attribute", func));
+    }
+
+    @Test
+    public void contextsPointToTheirParents() {
+        List<Browser.Context> contexts = crawl(newBrowser(0), deployment::get).toList().blockingGet();
+
+        Assert.assertEquals(2 * 3 * 4, contexts.size());
+        for (Browser.Context context : contexts) {
+            Assert.assertEquals(4, context.size());
+            NodeDTO node = (NodeDTO) context.get(1);
+            InstanceDTO instance = (InstanceDTO) context.get(2);
+            AttributeDTO attribute = (AttributeDTO) context.last();
+            Assert.assertTrue(node.getName().startsWith("Node"));
+            Assert.assertNotNull(instance.getId());
+            Assert.assertSame(attribute, context.get(3));
+        }
+    }
+
+    @Test
+    public void urlsAreFetchedOnce() {
+        // Both nodes link the instances of the first one
+        NodeDTO node = (NodeDTO) deployment.get(SyntheticDeployment.ROOT + "/nodes/Node1").blockingFirst();
+        node.getLinks().add(SyntheticDeployment.link("instance", SyntheticDeployment.ROOT + "/nodes/Node0/instances/0"));
+
+        Browser browser = newBrowser(0);
+        Assert.assertEquals(2 * 3 * 4, crawl(browser, deployment::get).count().blockingGet().longValue());
+        Assert.assertEquals(1, browser.getDuplicateCount());
+        Assert.assertEquals(1 + 2 + 2 * 3 + 2 * 3 * 4, browser.getRequestCount());
+    }
+
+    @Test
+    public void failedRequestsAreRetried() {
+        AtomicInteger failures = new AtomicInteger(2);
+        Function<String,Observable<Object>> flaky = url -> {
+            if (url.endsWith("/attributes/attribute0") && failures.getAndDecrement() > 0) {
+                return Observable.error(new IllegalStateException("Server error"));
+            }
+            return deployment.get(url);
+        };
+
+        Browser browser = newBrowser(3);
+        Assert.assertEquals(2 * 3 * 4, crawl(browser, flaky).count().blockingGet().longValue());
+        Assert.assertEquals(2, browser.getRetryCount());
+    }
+
+    @Test
+    public void retriesAreBounded() {
+        Function<String,Observable<Object>> failing = url -> url.endsWith("/attributes/attribute0") ? Observable.error(new IllegalStateException("Server error")) : deployment.get(url);
+
+        Browser browser = newBrowser(2);
+        List<Browser.Context> contexts = Lists.newArrayList();
+        Throwable[] error = new Throwable[1];
+        crawl(browser, failing).blockingSubscribe(contexts::add, e -> error[0] = e);
+
+        // The errors are delayed, the other attributes are there
+        Assert.assertNotNull(error[0]);
+        Assert.assertEquals(2 * 3 * 3, contexts.size());
+        Assert.assertEquals(2 * 3 * 2, browser.getRetryCount());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        Function<String,Observable<Object>> missing = url -> url.endsWith("/attributes/attribute0") ? Observable.error(new IllegalArgumentException("Not found")) : deployment.get(url);
+
+        Browser browser = newBrowser(3);
+        crawl(browser, missing).blockingSubscribe(x -> {}, e -> {});
+        Assert.assertEquals(0, browser.getRetryCount());
+    }
+}
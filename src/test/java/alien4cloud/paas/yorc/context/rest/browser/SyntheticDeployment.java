@@ -0,0 +1,76 @@
+package alien4cloud.paas.yorc.context.rest.browser;
+
+import alien4cloud.paas.yorc.context.rest.response.AttributeDTO;
+import alien4cloud.paas.yorc.context.rest.response.DeploymentDTO;
+import alien4cloud.paas.yorc.context.rest.response.InstanceDTO;
+import alien4cloud.paas.yorc.context.rest.response.Link;
+import alien4cloud.paas.yorc.context.rest.response.NodeDTO;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.reactivex.Observable;
+
+import java.util.Map;
+
+/**
+ * The resources Yorc serves for a deployment, in memory.
+ */
+class SyntheticDeployment {
+
+    static final String ROOT = "/deployments/synthetic";
+
+    private final Map<String,Object> resources = Maps.newHashMap();
+
+    SyntheticDeployment(int nodes, int instances, int attributes) {
+        DeploymentDTO deployment = new DeploymentDTO();
+        deployment.setId("synthetic");
+        deployment.setLinks(Lists.newArrayList());
+        resources.put(ROOT, deployment);
+
+        for (int n = 0; n < nodes; n++) {
+            String nodeUrl = ROOT + "/nodes/Node" + n;
+            deployment.getLinks().add(link("node", nodeUrl));
+
+            NodeDTO node = new NodeDTO();
+            node.setName("Node" + n);
+            node.setLinks(Lists.newArrayList());
+            resources.put(nodeUrl, node);
+
+            for (int i = 0; i < instances; i++) {
+                String instanceUrl = nodeUrl + "/instances/" + i;
+                node.getLinks().add(link("instance", instanceUrl));
+
+                InstanceDTO instance = new InstanceDTO();
+                instance.setId(Integer.toString(i));
+                instance.setStatus("started");
+                instance.setLinks(Lists.newArrayList());
+                resources.put(instanceUrl, instance);
+
+                for (int a = 0; a < attributes; a++) {
+                    String attributeUrl = instanceUrl + "/attributes/attribute" + a;
+                    instance.getLinks().add(link("attribute", attributeUrl));
+
+                    AttributeDTO attribute = new AttributeDTO();
+                    attribute.setName("attribute" + a);
+                    attribute.setValue("value" + a);
+                    resources.put(attributeUrl, attribute);
+                }
+            }
+        }
+    }
+
+    static Link link(String rel, String href) {
+        Link link = new Link();
+        link.setRel(rel);
+        link.setHref(href);
+        return link;
+    }
+
+    void put(String url, Object resource) {
+        resources.put(url, resource);
+    }
+
+    <T> Observable<T> get(String url) {
+        Object resource = resources.get(url);
+        return resource == null ? Observable.error(new IllegalStateException("Not found: " + url)) : Observable.just((T) resource);
+    }
+}
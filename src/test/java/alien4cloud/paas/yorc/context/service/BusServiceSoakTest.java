@@ -0,0 +1,267 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.SoakTests;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.rest.response.Event;
+import alien4cloud.paas.yorc.context.service.fsm.FsmActions;
+import alien4cloud.paas.yorc.context.service.fsm.FsmEvents;
+import alien4cloud.paas.yorc.context.service.fsm.FsmStates;
+import alien4cloud.paas.yorc.context.service.fsm.StateMachineService;
+import alien4cloud.paas.yorc.context.service.log.AdaptiveLogBatcher;
+import alien4cloud.paas.yorc.context.service.log.LogContentPolicy;
+import alien4cloud.paas.yorc.context.service.log.LogIngestionBudget;
+import alien4cloud.paas.yorc.context.service.log.LogRateLimiter;
+import alien4cloud.paas.yorc.context.service.log.LogWriterLanes;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+import org.springframework.messaging.Message;
+import org.springframework.statemachine.ExtendedState;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.action.Action;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deploys and undeploys deployments through the BusService, cleaned up by FsmActions, and checks that nothing of them is
+ * retained. The heap check runs 10k cycles and is only run by the soak profile.
+ */
+public class BusServiceSoakTest {
+
+    private static final int REFERENCE_CYCLES = 200;
+
+    private static final int WARMUP_CYCLES = 1000;
+
+    private static final int CYCLES = 10000;
+
+    /**
+     * Each deployment retains this much, 10k leaked deployments would be 160 MB
+     */
+    private static final int DEPLOYMENT_STATE_SIZE = 16 * 1024;
+
+    private static final long MAX_HEAP_GROWTH = 32 * 1024 * 1024;
+
+    private ExecutorService executor;
+
+    private BusService bus;
+
+    private LogIngestionBudget budget;
+
+    private LogRateLimiter rateLimiter;
+
+    private EventDispatcher dispatcher;
+
+    private StateMachineService stateMachineService;
+
+    private DeploymentRegistry registry;
+
+    private InstanceInformationService instanceInformationService;
+
+    /**
+     * The cleanup action run by the state machine once the last log has been received
+     */
+    private Action<FsmStates, FsmEvents> cleanup;
+
+    /**
+     * Stands for the state machine of a deployment, its cleanup is the one of FsmActions
+     */
+    private class Deployment {
+        private final String id;
+        private final byte[] state = new byte[DEPLOYMENT_STATE_SIZE];
+        private final CountDownLatch cleaned = new CountDownLatch(1);
+
+        private Deployment(String id) {
+            this.id = id;
+        }
+
+        private void onEvent(Event event) {
+            state[0]++;
+        }
+
+        private void onMessage(Message<FsmEvents> message) {
+            if (message.getPayload() == FsmEvents.LAST_LOG_RECEIVED) {
+                cleanup.execute(context(id));
+                cleaned.countDown();
+            }
+        }
+    }
+
+    /**
+     * Publishes what Yorc sends for a deployment
+     */
+    private void yorc(String id) {
+        for (String status : new String[] { "INITIAL", "DEPLOYMENT_IN_PROGRESS", "DEPLOYED", "UNDEPLOYMENT_IN_PROGRESS", "UNDEPLOYED" }) {
+            Event event = new Event();
+            event.setType(Event.EVT_DEPLOYMENT);
+            event.setDeploymentId(id);
+            event.setStatus(status);
+            bus.publish(event);
+
+            Event instance = new Event();
+            instance.setType(Event.EVT_INSTANCE);
+            instance.setDeploymentId(id);
+            instance.setNodeId("Compute");
+            instance.setInstanceId("0");
+            instance.setStatus(status);
+            bus.publish(instance);
+
+            bus.publish(newLog(id, null, "Deployment " + id + " is " + status));
+        }
+
+        bus.publish(newLog(id, "uninstall", "Status for deployment \"" + id + "\" changed to \"undeployed\""));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StateContext<FsmStates, FsmEvents> context(String id) {
+        ExtendedState state = Mockito.mock(ExtendedState.class);
+        Mockito.when(state.getVariables()).thenReturn(Collections.<Object,Object>singletonMap(StateMachineService.YORC_DEPLOYMENT_ID, id));
+        StateContext<FsmStates, FsmEvents> context = Mockito.mock(StateContext.class);
+        Mockito.when(context.getExtendedState()).thenReturn(state);
+        return context;
+    }
+
+    private static PaaSDeploymentLog newLog(String id, String workflowId, String content) {
+        PaaSDeploymentLog log = new PaaSDeploymentLog();
+        log.setDeploymentId("alien-" + id);
+        log.setDeploymentPaaSId(id);
+        log.setWorkflowId(workflowId);
+        log.setContent(content);
+        return log;
+    }
+
+    @Before
+    public void setUp() {
+        ProviderConfiguration configuration = new ProviderConfiguration();
+        configuration.setLogRateLimit(100);
+        executor = Executors.newFixedThreadPool(4);
+        Scheduler scheduler = Schedulers.from(executor);
+
+        dispatcher = new EventDispatcher();
+        budget = new LogIngestionBudget();
+        rateLimiter = new LogRateLimiter();
+        LogContentPolicy contentPolicy = new LogContentPolicy();
+        AdaptiveLogBatcher batcher = new AdaptiveLogBatcher();
+        LogWriterLanes writerLanes = new LogWriterLanes();
+        for (Object service : new Object[] { dispatcher, budget, rateLimiter, contentPolicy, batcher, writerLanes }) {
+            ReflectionTestUtils.setField(service, "configuration", configuration);
+        }
+        for (Object service : new Object[] { dispatcher, budget, batcher, writerLanes }) {
+            ReflectionTestUtils.setField(service, "scheduler", scheduler);
+        }
+
+        bus = new BusService();
+        ReflectionTestUtils.setField(bus, "budget", budget);
+        ReflectionTestUtils.setField(bus, "rateLimiter", rateLimiter);
+        ReflectionTestUtils.setField(bus, "contentPolicy", contentPolicy);
+        ReflectionTestUtils.setField(bus, "batcher", batcher);
+        ReflectionTestUtils.setField(bus, "writerLanes", writerLanes);
+        ReflectionTestUtils.setField(bus, "dispatcher", dispatcher);
+
+        BusMetrics metrics = new BusMetrics();
+        ReflectionTestUtils.setField(metrics, "configuration", configuration);
+        ReflectionTestUtils.setField(metrics, "dispatcher", dispatcher);
+        ReflectionTestUtils.setField(metrics, "executorService", executor);
+        ReflectionTestUtils.setField(bus, "metrics", metrics);
+
+        bus.subscribeLogs(batch -> budget.release(batch.size()));
+
+        stateMachineService = Mockito.mock(StateMachineService.class);
+        registry = Mockito.mock(DeploymentRegistry.class);
+        instanceInformationService = Mockito.mock(InstanceInformationService.class);
+        FsmActions actions = new FsmActions() {
+            {
+                cleanup = cleanupNoEvt();
+            }
+        };
+        ReflectionTestUtils.setField(actions, "busService", bus);
+        ReflectionTestUtils.setField(actions, "stateMachineService", stateMachineService);
+        ReflectionTestUtils.setField(actions, "registry", registry);
+        ReflectionTestUtils.setField(actions, "instanceInformationService", instanceInformationService);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void cycles(int start, int count) throws InterruptedException {
+        for (int i = start; i < start + count; i++) {
+            String id = "deployment-" + i;
+            Deployment deployment = new Deployment(id);
+            bus.createEventBuses(id);
+            bus.subscribe(id, deployment::onMessage);
+            bus.subscribeEvents(id, deployment::onEvent);
+
+            yorc(id);
+
+            Assert.assertTrue("Deployment " + id + " not cleaned up", deployment.cleaned.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Wait for the logs and the dispatcher lanes to be drained
+     */
+    private void drain() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((budget.getInFlightLogCount() > 0 || maxDepth() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, budget.getInFlightLogCount());
+    }
+
+    private long retainedHeap() throws InterruptedException {
+        drain();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private int maxDepth() {
+        int max = 0;
+        for (int depth : dispatcher.getLaneDepths()) {
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+
+    @Test
+    public void nothingIsRetained() throws InterruptedException {
+        cycles(0, REFERENCE_CYCLES);
+        drain();
+
+        Assert.assertEquals(0, bus.getChannelCount());
+        Assert.assertEquals(0, rateLimiter.getLimitedDeploymentCount());
+        Mockito.verify(stateMachineService, Mockito.times(REFERENCE_CYCLES)).deleteStateMachine(Mockito.anyString());
+        Mockito.verify(registry, Mockito.times(REFERENCE_CYCLES)).unregister(Mockito.anyString());
+        Mockito.verify(instanceInformationService, Mockito.times(REFERENCE_CYCLES)).remove(Mockito.anyString());
+    }
+
+    @Test
+    @Category(SoakTests.class)
+    public void heapStaysFlat() throws InterruptedException {
+        cycles(0, WARMUP_CYCLES);
+        long before = retainedHeap();
+
+        cycles(WARMUP_CYCLES, CYCLES);
+        long after = retainedHeap();
+
+        Assert.assertEquals(0, bus.getChannelCount());
+        Assert.assertEquals(0, rateLimiter.getLimitedDeploymentCount());
+        Assert.assertTrue(String.format("Retained heap grew by %d bytes over %d cycles", after - before, CYCLES), after - before < MAX_HEAP_GROWTH);
+    }
+}
@@ -0,0 +1,94 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.dao.YorcESDao;
+import alien4cloud.paas.yorc.model.EventIndex;
+import com.google.common.collect.Maps;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+public class CheckpointServiceTest {
+
+    private static final String ID = "orchestrator";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // What ES holds: id -> index
+    private final Map<String,Long> es = Maps.newHashMap();
+
+    private CheckpointService service;
+
+    @Before
+    public void setUp() {
+        ProviderConfiguration configuration = new ProviderConfiguration();
+        configuration.setOrchestratorId(ID);
+        configuration.setCheckpointFlushCount(1000);
+        configuration.setCheckpointSlowThreshold(60000);
+        configuration.setCheckpointJournalPath(folder.getRoot().getAbsolutePath());
+
+        YorcESDao dao = Mockito.mock(YorcESDao.class);
+        Mockito.doAnswer(invocation -> {
+            EventIndex index = (EventIndex) invocation.getArguments()[0];
+            es.put(index.getId(), index.getIndex());
+            return null;
+        }).when(dao).save(Mockito.any(EventIndex.class));
+        Mockito.when(dao.findById(Mockito.eq(EventIndex.class), Mockito.anyString()))
+                .thenAnswer(invocation -> {
+                    Long index = es.get((String) invocation.getArguments()[1]);
+                    return index == null ? null : new EventIndex(ID, index, ID);
+                });
+
+        service = new CheckpointService();
+        ReflectionTestUtils.setField(service, "configuration", configuration);
+        ReflectionTestUtils.setField(service, "dao", dao);
+        ReflectionTestUtils.setField(service, "scheduler", Schedulers.trampoline());
+    }
+
+    @Test
+    public void indexesNeverMoveBackwards() {
+        service.checkpoint(EventIndex.class, ID, 10);
+        service.checkpoint(EventIndex.class, ID, 8);
+        service.flush();
+        Assert.assertEquals(Long.valueOf(10), es.get(ID));
+
+        service.checkpoint(EventIndex.class, ID, 5);
+        service.checkpointNow(EventIndex.class, ID, 7);
+        service.flush();
+        Assert.assertEquals(Long.valueOf(10), es.get(ID));
+        Assert.assertEquals(2, service.getRejectedCheckpointCount());
+    }
+
+    @Test
+    public void lateCheckpointsAreDroppedOnceTheLeaseIsLost() {
+        service.checkpoint(EventIndex.class, ID, 10);
+
+        // The pending checkpoint is written by the last flush
+        service.suspend();
+        Assert.assertEquals(Long.valueOf(10), es.get(ID));
+
+        // The page in flight on this node ends, then the new holder moves on
+        service.checkpoint(EventIndex.class, ID, 12);
+        es.put(ID, 20L);
+        service.flush();
+        service.term();
+        Assert.assertEquals(Long.valueOf(20), es.get(ID));
+        Assert.assertEquals(0, service.getPendingCheckpointCount());
+
+        // Acquired again: starts from the index of the previous holder
+        service.resume();
+        Assert.assertEquals(Long.valueOf(20), service.load(EventIndex.class, ID));
+        service.checkpoint(EventIndex.class, ID, 12);
+        service.checkpoint(EventIndex.class, ID, 22);
+        service.flush();
+        Assert.assertEquals(Long.valueOf(22), es.get(ID));
+    }
+}
@@ -0,0 +1,111 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import com.google.common.collect.Lists;
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+public class CrawlSchedulerTest {
+
+    private CrawlScheduler crawls;
+
+    // Deployment of each request, in start order
+    private final List<String> started = Lists.newArrayList();
+
+    // Pending responses, in start order
+    private final List<PublishSubject<String>> responses = Lists.newArrayList();
+
+    @Before
+    public void setUp() {
+        ProviderConfiguration configuration = new ProviderConfiguration();
+        configuration.setCrawlBudget(2);
+
+        crawls = new CrawlScheduler();
+        ReflectionTestUtils.setField(crawls, "configuration", configuration);
+    }
+
+    private Observable<String> request(String deploymentId) {
+        return crawls.schedule(deploymentId, () -> {
+            PublishSubject<String> response = PublishSubject.create();
+            started.add(deploymentId);
+            responses.add(response);
+            return response;
+        });
+    }
+
+    private void respond(int index) {
+        responses.get(index).onNext("ok");
+        responses.get(index).onComplete();
+    }
+
+    @Test
+    public void budgetIsSharedInTurn() {
+        for (int i = 0; i < 4; i++) {
+            request("big").subscribe();
+        }
+        request("small").subscribe();
+
+        Assert.assertEquals(Lists.newArrayList("big", "big"), started);
+        Assert.assertEquals(2, crawls.getInFlightRequestCount());
+        Assert.assertEquals(3, crawls.getQueuedRequestCount());
+
+        // The small deployment does not wait for all the requests of the big one
+        respond(0);
+        respond(1);
+        Assert.assertEquals(Lists.newArrayList("big", "big", "big", "small"), started);
+
+        respond(2);
+        respond(3);
+        respond(4);
+        Assert.assertEquals(5, started.size());
+        Assert.assertEquals(0, crawls.getInFlightRequestCount());
+        Assert.assertEquals(5, crawls.getCompletedRequestCount());
+    }
+
+    @Test
+    public void prioritizedDeploymentsGoFirst() {
+        for (int i = 0; i < 3; i++) {
+            request("d1").subscribe();
+        }
+        request("d2").subscribe();
+        request("d3").subscribe();
+
+        crawls.prioritize("d3");
+        respond(0);
+        Assert.assertEquals("d3", started.get(2));
+
+        crawls.done("d3");
+        Assert.assertEquals(0, crawls.getPrioritizedDeploymentCount());
+    }
+
+    @Test
+    public void disposedRequestsGiveTheirSlotBack() {
+        // Disposed while running
+        request("d1").subscribe().dispose();
+        request("d1").subscribe();
+        request("d2").subscribe();
+        Assert.assertEquals(2, crawls.getInFlightRequestCount());
+
+        // Disposed while waiting, never started
+        request("d3").subscribe().dispose();
+        respond(1);
+        Assert.assertEquals(Lists.newArrayList("d1", "d1", "d2"), started);
+        Assert.assertEquals(1, crawls.getInFlightRequestCount());
+    }
+
+    @Test
+    public void synchronousRequestsDoNotRecurse() {
+        int[] count = new int[1];
+        for (int i = 0; i < 100000; i++) {
+            crawls.schedule("d1", () -> Observable.just("ok")).subscribe(x -> count[0]++);
+        }
+        Assert.assertEquals(100000, count[0]);
+        Assert.assertEquals(0, crawls.getInFlightRequestCount());
+    }
+}
@@ -0,0 +1,102 @@
+package alien4cloud.paas.yorc.context.service;
+
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contended toAlienId throughput of the DeploymentRegistry against the previous synchronized implementation.
+ *
+ * Run it from the IDE (8 threads) or with: java -cp target/test-classes:<test classpath> alien4cloud.paas.yorc.context.service.DeploymentRegistryBenchmark
+ * which runs it with 8, 16 and 32 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class DeploymentRegistryBenchmark {
+
+    private static final int DEPLOYMENTS = 1000;
+
+    /**
+     * The registry before it was made lock free
+     */
+    private static class LegacyRegistry {
+
+        private static class DeploymentData {
+            private String yorcId;
+            private String alienId;
+        }
+
+        private static final DeploymentData defVal = new DeploymentData();
+
+        private final Map<String,DeploymentData> aMap = Maps.newHashMap();
+
+        private final Map<String,DeploymentData> yMap = Maps.newHashMap();
+
+        public synchronized void register(String yDeploymentId, String aDeploymentId) {
+            DeploymentData data = new DeploymentData();
+            data.yorcId = yDeploymentId;
+            data.alienId = aDeploymentId;
+
+            yMap.remove(yDeploymentId);
+
+            aMap.put(aDeploymentId,data);
+            yMap.put(yDeploymentId,data);
+        }
+
+        public synchronized String toAlienId(String yDeploymentId) {
+            return yMap.getOrDefault(yDeploymentId,defVal).alienId;
+        }
+    }
+
+    private final LegacyRegistry legacy = new LegacyRegistry();
+
+    private final DeploymentRegistry registry = new DeploymentRegistry();
+
+    private final String[] yorcIds = new String[DEPLOYMENTS];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < DEPLOYMENTS; i++) {
+            yorcIds[i] = "yorc-deployment-" + i;
+            legacy.register(yorcIds[i], "alien-deployment-" + i);
+            registry.register(yorcIds[i], "alien-deployment-" + i);
+        }
+    }
+
+    @Benchmark
+    public String legacy() {
+        return legacy.toAlienId(yorcIds[ThreadLocalRandom.current().nextInt(DEPLOYMENTS)]);
+    }
+
+    @Benchmark
+    public String lockFree() {
+        return registry.toAlienId(yorcIds[ThreadLocalRandom.current().nextInt(DEPLOYMENTS)]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] { 8, 16, 32 }) {
+            new Runner(new OptionsBuilder().include(DeploymentRegistryBenchmark.class.getSimpleName()).threads(threads).build()).run();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class DeploymentRegistryTest {
+
+    private DeploymentRegistry registry;
+
+    @Before
+    public void setUp() {
+        ProviderConfiguration configuration = new ProviderConfiguration();
+        configuration.setRegistryEntryTtl(0);
+        configuration.setRegistryEvictionPerdiod(3600);
+
+        registry = new DeploymentRegistry();
+        registry.configuration = configuration;
+        ReflectionTestUtils.setField(registry, "scheduler", Schedulers.single());
+        registry.init();
+    }
+
+    @After
+    public void tearDown() {
+        registry.term();
+    }
+
+    @Test
+    public void lookup() {
+        registry.register("y1", "a1");
+
+        Assert.assertEquals("a1", registry.toAlienId("y1"));
+        Assert.assertEquals("y1", registry.toYorcId("a1"));
+        Assert.assertNull(registry.toAlienId("y2"));
+        Assert.assertNull(registry.toYorcId("a2"));
+    }
+
+    @Test
+    public void unregisteredEntriesAreEvictedByTheWheel() {
+        registry.register("y1", "a1");
+        registry.register("y2", "a2");
+        registry.unregister("y1");
+
+        // Still mapped until the next tick
+        Assert.assertEquals("a1", registry.toAlienId("y1"));
+
+        registry.doEviction();
+
+        Assert.assertNull(registry.toAlienId("y1"));
+        Assert.assertNull(registry.toYorcId("a1"));
+        Assert.assertEquals("a2", registry.toAlienId("y2"));
+        Assert.assertEquals(1, registry.getYorcIds().size());
+    }
+
+    @Test
+    public void evictionKeepsANewRegistration() {
+        registry.register("y1", "a1");
+        registry.unregister("y1");
+
+        // Redeployed with the same A4C id before the eviction
+        registry.register("y2", "a1");
+        registry.doEviction();
+
+        Assert.assertNull(registry.toAlienId("y1"));
+        Assert.assertEquals("y2", registry.toYorcId("a1"));
+        Assert.assertEquals("a1", registry.toAlienId("y2"));
+    }
+}
@@ -0,0 +1,435 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.IPaaSCallback;
+import alien4cloud.paas.model.InstanceInformation;
+import alien4cloud.paas.model.InstanceStatus;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.YorcOrchestrator;
+import alien4cloud.paas.yorc.context.rest.DeploymentClient;
+import alien4cloud.paas.yorc.context.rest.response.AttributeDTO;
+import alien4cloud.paas.yorc.context.rest.response.DeploymentDTO;
+import alien4cloud.paas.yorc.context.rest.response.Event;
+import alien4cloud.paas.yorc.context.rest.response.InstanceDTO;
+import alien4cloud.paas.yorc.context.rest.response.Link;
+import alien4cloud.paas.yorc.context.rest.response.NodeDTO;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class InstanceInformationServiceTest {
+
+    private InstanceInformationService service;
+
+    private ProviderConfiguration configuration;
+
+    /**
+     * Resources served by the Yorc mock, by url. An Observable is served as the response itself.
+     */
+    private Map<String,Object> yorc = Maps.newConcurrentMap();
+
+    @Before
+    public void setUp() {
+        configuration = new ProviderConfiguration();
+        service = new InstanceInformationService();
+        ReflectionTestUtils.setField(service, "configuration", configuration);
+        ReflectionTestUtils.setField(service, "registry", new DeploymentRegistry());
+        ReflectionTestUtils.setField(service, "orchestrator", Mockito.mock(YorcOrchestrator.class));
+        ReflectionTestUtils.setField(service, "scheduler", Schedulers.trampoline());
+
+        DeploymentClient client = Mockito.mock(DeploymentClient.class);
+        Mockito.when(client.queryUrl(Mockito.anyString(), Mockito.any(Class.class))).thenAnswer(invocation -> {
+            Object resource = yorc.get(invocation.getArguments()[0]);
+            if (resource instanceof Observable) {
+                return resource;
+            }
+            return resource == null ? Observable.error(new IllegalStateException("Not found")) : Observable.just(resource);
+        });
+        ReflectionTestUtils.setField(service, "client", client);
+
+        CrawlScheduler crawls = new CrawlScheduler();
+        ReflectionTestUtils.setField(crawls, "configuration", configuration);
+        ReflectionTestUtils.setField(service, "crawls", crawls);
+    }
+
+    private static Link link(String rel, String href) {
+        Link link = new Link();
+        link.setRel(rel);
+        link.setHref(href);
+        return link;
+    }
+
+    /**
+     * Serves a deployment with a Compute node, each instance having the given attributes
+     */
+    private void serve(Map<String,Map<String,String>> instances) {
+        yorc.clear();
+
+        DeploymentDTO deployment = new DeploymentDTO();
+        deployment.setId("d1");
+        deployment.setLinks(Lists.newArrayList(link("node", "/deployments/d1/nodes/Compute")));
+        yorc.put("/deployments/d1", deployment);
+
+        NodeDTO node = new NodeDTO();
+        node.setName("Compute");
+        List<Link> nodeLinks = Lists.newArrayList();
+        node.setLinks(nodeLinks);
+        yorc.put("/deployments/d1/nodes/Compute", node);
+
+        instances.forEach((instanceId, attributes) -> {
+            String instanceUrl = "/deployments/d1/nodes/Compute/instances/" + instanceId;
+            nodeLinks.add(link("instance", instanceUrl));
+
+            InstanceDTO instance = new InstanceDTO();
+            instance.setId(instanceId);
+            instance.setStatus("started");
+            List<Link> instanceLinks = Lists.newArrayList();
+            instance.setLinks(instanceLinks);
+            yorc.put(instanceUrl, instance);
+
+            attributes.forEach((name, value) -> {
+                String attributeUrl = instanceUrl + "/attributes/" + name;
+                instanceLinks.add(link("attribute", attributeUrl));
+
+                AttributeDTO attribute = new AttributeDTO();
+                attribute.setName(name);
+                attribute.setValue(value);
+                yorc.put(attributeUrl, attribute);
+            });
+        });
+    }
+
+    private static Event instanceEvent(String instanceId, String status) {
+        Event event = new Event();
+        event.setType(Event.EVT_INSTANCE);
+        event.setDeploymentId("d1");
+        event.setNodeId("Compute");
+        event.setInstanceId(instanceId);
+        event.setStatus(status);
+        return event;
+    }
+
+    private static Event attributeEvent(String instanceId, String attribute, String value) {
+        Event event = new Event();
+        event.setType(Event.EVT_ATTRIBUTE);
+        event.setDeploymentId("d1");
+        event.setNodeId("Compute");
+        event.setInstanceId(instanceId);
+        event.setStatus("updated");
+        event.setAttribute(attribute);
+        event.setValue(value);
+        return event;
+    }
+
+    private Map<String,Map<String,InstanceInformation>> read() {
+        List<Map<String,Map<String,InstanceInformation>>> replies = ask();
+        Assert.assertEquals(1, replies.size());
+        return replies.get(0);
+    }
+
+    /**
+     * @return the replies to a getInformation, filled when they come
+     */
+    private List<Map<String,Map<String,InstanceInformation>>> ask() {
+        List<Map<String,Map<String,InstanceInformation>>> replies = Lists.newCopyOnWriteArrayList();
+        service.getInformation("d1", new IPaaSCallback<Map<String,Map<String,InstanceInformation>>>() {
+            @Override
+            public void onSuccess(Map<String,Map<String,InstanceInformation>> data) {
+                replies.add(data);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                Assert.fail(throwable.getMessage());
+            }
+        });
+        return replies;
+    }
+
+    /**
+     * Serves instance 0 with an ip_address attribute whose response is sent by the returned subject
+     */
+    private PublishSubject<AttributeDTO> serveSlowAttribute() {
+        serve(Collections.singletonMap("0", Collections.singletonMap("ip_address", "10.0.0.1")));
+        PublishSubject<AttributeDTO> response = PublishSubject.create();
+        yorc.put("/deployments/d1/nodes/Compute/instances/0/attributes/ip_address", response);
+        return response;
+    }
+
+    private static AttributeDTO attribute(String name, String value) {
+        AttributeDTO attribute = new AttributeDTO();
+        attribute.setName(name);
+        attribute.setValue(value);
+        return attribute;
+    }
+
+    @Test
+    public void replyAtTheEndOfTheInitialCrawl() {
+        TestScheduler scheduler = new TestScheduler();
+        ReflectionTestUtils.setField(service, "scheduler", scheduler);
+
+        PublishSubject<AttributeDTO> response = serveSlowAttribute();
+        service.init(Collections.singleton("d1"));
+
+        // The crawl is not over, the caller is not blocked
+        List<Map<String,Map<String,InstanceInformation>>> replies = ask();
+        scheduler.triggerActions();
+        Assert.assertTrue(replies.isEmpty());
+
+        response.onNext(attribute("ip_address", "10.0.0.1"));
+        response.onComplete();
+        scheduler.triggerActions();
+
+        Assert.assertEquals(1, replies.size());
+        InstanceInformation ii = replies.get(0).get("Compute").get("0");
+        Assert.assertEquals("10.0.0.1", ii.getAttributes().get("ip_address"));
+        Assert.assertFalse(ii.getRuntimeProperties().containsKey(InstanceInformationService.STALE_PROPERTY));
+    }
+
+    @Test
+    public void partialReplyAtTheDeadline() {
+        TestScheduler scheduler = new TestScheduler();
+        ReflectionTestUtils.setField(service, "scheduler", scheduler);
+        configuration.setInstanceInformationDeadline(5);
+
+        PublishSubject<AttributeDTO> response = serveSlowAttribute();
+        service.init(Collections.singleton("d1"));
+        service.onEvent(instanceEvent("0", "started"));
+
+        List<Map<String,Map<String,InstanceInformation>>> replies = ask();
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+        Assert.assertTrue(replies.isEmpty());
+
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(1, replies.size());
+        InstanceInformation ii = replies.get(0).get("Compute").get("0");
+        Assert.assertEquals("started", ii.getState());
+        Assert.assertEquals("true", ii.getRuntimeProperties().get(InstanceInformationService.STALE_PROPERTY));
+
+        // The end of the crawl does not reply again
+        response.onNext(attribute("ip_address", "10.0.0.1"));
+        response.onComplete();
+        scheduler.triggerActions();
+        Assert.assertEquals(1, replies.size());
+
+        // Only the reply was marked, the next ones are complete
+        replies = ask();
+        Assert.assertEquals(1, replies.size());
+        ii = replies.get(0).get("Compute").get("0");
+        Assert.assertEquals("10.0.0.1", ii.getAttributes().get("ip_address"));
+        Assert.assertFalse(ii.getRuntimeProperties().containsKey(InstanceInformationService.STALE_PROPERTY));
+    }
+
+    @Test
+    public void initialCrawlIsAppliedByBatches() {
+        TestScheduler scheduler = new TestScheduler();
+        ReflectionTestUtils.setField(service, "scheduler", scheduler);
+
+        Map<String,Map<String,String>> instances = Maps.newLinkedHashMap();
+        for (int i = 0; i < 50; i++) {
+            Map<String,String> attributes = Maps.newLinkedHashMap();
+            attributes.put("ip_address", "10.0.0." + i);
+            attributes.put("hostname", "vm" + i);
+            instances.put(Integer.toString(i), attributes);
+        }
+        serve(instances);
+
+        service.init(Collections.singleton("d1"));
+        scheduler.triggerActions();
+
+        // One version for the whole crawl
+        InstanceInformationDelta delta = service.getChangesSince("d1", 0);
+        Assert.assertEquals(1, delta.getVersion());
+
+        Map<String,Map<String,InstanceInformation>> informations = read();
+        Assert.assertEquals(50, informations.get("Compute").size());
+        Assert.assertEquals("vm0", informations.get("Compute").get("0").getAttributes().get("hostname"));
+        Assert.assertEquals("10.0.0.0", informations.get("Compute").get("0").getAttributes().get("ip_address"));
+        Assert.assertEquals("vm49", informations.get("Compute").get("49").getAttributes().get("hostname"));
+        Assert.assertEquals("started", informations.get("Compute").get("49").getState());
+    }
+
+    @Test
+    public void readersKeepTheirSnapshot() {
+        service.onEvent(instanceEvent("0", "creating"));
+        service.onEvent(instanceEvent("1", "started"));
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.1"));
+
+        Map<String,Map<String,InstanceInformation>> before = read();
+
+        service.onEvent(instanceEvent("0", "started"));
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.2"));
+        service.onEvent(instanceEvent("1", "deleted"));
+
+        // The snapshot handed out is not modified by the later events
+        Assert.assertEquals("creating", before.get("Compute").get("0").getState());
+        Assert.assertEquals("10.0.0.1", before.get("Compute").get("0").getAttributes().get("ip_address"));
+        Assert.assertTrue(before.get("Compute").containsKey("1"));
+
+        Map<String,Map<String,InstanceInformation>> after = read();
+        Assert.assertEquals("started", after.get("Compute").get("0").getState());
+        Assert.assertEquals(InstanceStatus.SUCCESS, after.get("Compute").get("0").getInstanceStatus());
+        Assert.assertEquals("10.0.0.2", after.get("Compute").get("0").getAttributes().get("ip_address"));
+        Assert.assertFalse(after.get("Compute").containsKey("1"));
+    }
+
+    @Test
+    public void unchangedInstancesAreShared() {
+        service.onEvent(instanceEvent("0", "started"));
+        service.onEvent(instanceEvent("1", "started"));
+
+        Map<String,Map<String,InstanceInformation>> before = read();
+
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.1"));
+
+        Map<String,Map<String,InstanceInformation>> after = read();
+        Assert.assertSame(before.get("Compute").get("1"), after.get("Compute").get("1"));
+        Assert.assertNotSame(before.get("Compute").get("0"), after.get("Compute").get("0"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotsAreReadOnly() {
+        service.onEvent(instanceEvent("0", "started"));
+
+        read().get("Compute").remove("0");
+    }
+
+    @Test
+    public void changesSinceAVersion() {
+        service.onEvent(instanceEvent("0", "started"));
+        service.onEvent(instanceEvent("1", "started"));
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.1"));
+        service.onEvent(attributeEvent("0", "hostname", "vm0"));
+
+        long version = service.getChangesSince("d1", 0).getVersion();
+        Assert.assertEquals(4, version);
+
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.2"));
+        service.onEvent(instanceEvent("1", "deleted"));
+
+        InstanceInformationDelta delta = service.getChangesSince("d1", version);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(6, delta.getVersion());
+        Assert.assertEquals(1, delta.getChanged().get("Compute").size());
+        InstanceInformation ii = delta.getChanged().get("Compute").get("0");
+        Assert.assertEquals("started", ii.getState());
+        Assert.assertEquals(1, ii.getAttributes().size());
+        Assert.assertEquals("10.0.0.2", ii.getAttributes().get("ip_address"));
+        Assert.assertEquals(Collections.singleton("1"), delta.getRemoved().get("Compute"));
+
+        delta = service.getChangesSince("d1", delta.getVersion());
+        Assert.assertFalse(delta.isFull());
+        Assert.assertTrue(delta.getChanged().isEmpty());
+        Assert.assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void compactedVersionsGetAFullSnapshot() {
+        configuration.setInstanceInformationChangeLogSize(10);
+
+        service.onEvent(instanceEvent("0", "started"));
+        for (int i = 0; i < 30; i++) {
+            service.onEvent(attributeEvent("0", "counter", Integer.toString(i)));
+        }
+
+        InstanceInformationDelta delta = service.getChangesSince("d1", 1);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(31, delta.getVersion());
+        Assert.assertEquals("29", delta.getChanged().get("Compute").get("0").getAttributes().get("counter"));
+
+        // The last changes are still there
+        delta = service.getChangesSince("d1", 25);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals("29", delta.getChanged().get("Compute").get("0").getAttributes().get("counter"));
+    }
+
+    @Test
+    public void refreshMergesTheDiff() throws Exception {
+        configuration.setInstanceInformationRefreshDebounce(0);
+
+        service.onEvent(instanceEvent("0", "creating"));
+        service.onEvent(instanceEvent("1", "started"));
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.1"));
+        service.onEvent(attributeEvent("0", "hostname", "vm0"));
+
+        Map<String,Map<String,String>> instances = Maps.newHashMap();
+        instances.put("0", Collections.singletonMap("ip_address", "10.0.0.2"));
+        instances.put("2", Collections.emptyMap());
+        serve(instances);
+
+        long version = service.getChangesSince("d1", 0).getVersion();
+        service.forceRefresh("d1").get(10, TimeUnit.SECONDS);
+
+        Map<String,Map<String,InstanceInformation>> informations = read();
+        Assert.assertEquals("started", informations.get("Compute").get("0").getState());
+        Assert.assertEquals("10.0.0.2", informations.get("Compute").get("0").getAttributes().get("ip_address"));
+        // Not fetched but not removed either
+        Assert.assertEquals("vm0", informations.get("Compute").get("0").getAttributes().get("hostname"));
+        Assert.assertFalse(informations.get("Compute").containsKey("1"));
+        Assert.assertTrue(informations.get("Compute").containsKey("2"));
+
+        InstanceInformationDelta delta = service.getChangesSince("d1", version);
+        Assert.assertEquals(Collections.singleton("ip_address"), delta.getChanged().get("Compute").get("0").getAttributes().keySet());
+        Assert.assertEquals(Collections.singleton("1"), delta.getRemoved().get("Compute"));
+
+        // Nothing changed, nothing published
+        version = delta.getVersion();
+        service.forceRefresh("d1").get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(version, service.getChangesSince("d1", 0).getVersion());
+    }
+
+    @Test
+    public void refreshKeepsWhatEventsChangedWithoutChangeLog() throws Exception {
+        configuration.setInstanceInformationChangeLogSize(0);
+        configuration.setInstanceInformationRefreshDebounce(0);
+
+        service.onEvent(instanceEvent("0", "started"));
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.1"));
+
+        PublishSubject<AttributeDTO> response = serveSlowAttribute();
+        CompletableFuture<Void> refresh = service.forceRefresh("d1");
+
+        // Changed during the crawl, the change log cannot tell
+        service.onEvent(attributeEvent("0", "ip_address", "10.0.0.2"));
+        service.onEvent(instanceEvent("1", "started"));
+
+        response.onNext(attribute("ip_address", "10.0.0.1"));
+        response.onComplete();
+        refresh.get(10, TimeUnit.SECONDS);
+
+        Map<String,Map<String,InstanceInformation>> informations = read();
+        Assert.assertEquals("10.0.0.2", informations.get("Compute").get("0").getAttributes().get("ip_address"));
+        Assert.assertTrue(informations.get("Compute").containsKey("1"));
+    }
+
+    @Test
+    public void concurrentRefreshesJoin() throws Exception {
+        configuration.setInstanceInformationRefreshDebounce(200);
+        ReflectionTestUtils.setField(service, "scheduler", Schedulers.computation());
+        serve(Collections.singletonMap("0", Collections.singletonMap("ip_address", "10.0.0.1")));
+
+        CompletableFuture<Void> first = service.forceRefresh("d1");
+        Assert.assertSame(first, service.forceRefresh("d1"));
+        Assert.assertSame(first, service.forceRefresh("d1"));
+        first.get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, service.getRefreshCount());
+        Assert.assertEquals(2, service.getJoinedRefreshCount());
+
+        // The next request starts a new refresh
+        Assert.assertNotSame(first, service.forceRefresh("d1"));
+    }
+}
@@ -0,0 +1,240 @@
+package alien4cloud.paas.yorc.context.service;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.context.rest.EventClient;
+import alien4cloud.paas.yorc.context.rest.LogEventClient;
+import alien4cloud.paas.yorc.context.rest.PageReplayGuard;
+import alien4cloud.paas.yorc.context.rest.PageStreamExtractor;
+import alien4cloud.paas.yorc.context.rest.response.Event;
+import alien4cloud.paas.yorc.context.service.log.LogIngestionBudget;
+import alien4cloud.paas.yorc.model.EventIndex;
+import alien4cloud.paas.yorc.model.LogEventIndex;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.SingleSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public class PollingModeServiceTest {
+
+    private static final String ID = "orchestrator";
+
+    private ProviderConfiguration configuration;
+
+    private TestScheduler scheduler;
+
+    // What the checkpoint store holds: type/id -> index
+    private final Map<String,Long> stored = Maps.newHashMap();
+
+    private Set<String> deployments;
+
+    /**
+     * A query sent by a deployment stream
+     */
+    private static class Query {
+        private final String deploymentId;
+        private final long index;
+        private final Consumer<Event> consumer;
+        private final SingleSubject<PageStreamExtractor.Page> response = SingleSubject.create();
+
+        private Query(String deploymentId, long index, Consumer<Event> consumer) {
+            this.deploymentId = deploymentId;
+            this.index = index;
+            this.consumer = consumer;
+        }
+
+        private void reply(long lastIndex, int count) {
+            response.onSuccess(new PageStreamExtractor.Page(lastIndex, count, 0));
+        }
+    }
+
+    /**
+     * A service and its collaborators, a new node restarts with the checkpoints of the previous one
+     */
+    private class Node {
+        private final PollingModeService service = new PollingModeService();
+        private final EventPollingService eventPolling = Mockito.mock(EventPollingService.class);
+        private final LogEventPollingService logPolling = Mockito.mock(LogEventPollingService.class);
+        private final List<Query> eventQueries = Lists.newArrayList();
+        private final List<Query> logQueries = Lists.newArrayList();
+
+        @SuppressWarnings("unchecked")
+        private Node() {
+            // The global pollers start from their checkpoints
+            Mockito.when(eventPolling.getDispatchedIndex()).thenAnswer(invocation -> stored.getOrDefault(key(EventIndex.class, ID), 10L));
+            Mockito.when(logPolling.getConsumedIndex()).thenAnswer(invocation -> stored.getOrDefault(key(LogEventIndex.class, ID), 10L));
+
+            EventClient eventClient = Mockito.mock(EventClient.class);
+            Mockito.when(eventClient.stream(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any(Consumer.class), Mockito.any(PageReplayGuard.class)))
+                    .thenAnswer(invocation -> {
+                        Query query = new Query((String) invocation.getArguments()[0], (Long) invocation.getArguments()[1], (Consumer<Event>) invocation.getArguments()[3]);
+                        eventQueries.add(query);
+                        return query.response;
+                    });
+
+            LogEventClient logClient = Mockito.mock(LogEventClient.class);
+            Mockito.when(logClient.stream(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any(Consumer.class), Mockito.any(PageReplayGuard.class)))
+                    .thenAnswer(invocation -> {
+                        Query query = new Query((String) invocation.getArguments()[0], (Long) invocation.getArguments()[1], null);
+                        logQueries.add(query);
+                        return query.response;
+                    });
+
+            DeploymentRegistry registry = Mockito.mock(DeploymentRegistry.class);
+            Mockito.when(registry.getYorcIds()).thenAnswer(invocation -> Sets.newHashSet(deployments));
+
+            LogIngestionBudget budget = Mockito.mock(LogIngestionBudget.class);
+            Mockito.when(budget.isOpen()).thenReturn(true);
+
+            ReflectionTestUtils.setField(service, "configuration", configuration);
+            ReflectionTestUtils.setField(service, "scheduler", scheduler);
+            ReflectionTestUtils.setField(service, "registry", registry);
+            ReflectionTestUtils.setField(service, "eventPollingService", eventPolling);
+            ReflectionTestUtils.setField(service, "logEventPollingService", logPolling);
+            ReflectionTestUtils.setField(service, "checkpoints", checkpoints());
+            ReflectionTestUtils.setField(service, "eventClient", eventClient);
+            ReflectionTestUtils.setField(service, "logClient", logClient);
+            ReflectionTestUtils.setField(service, "budget", budget);
+        }
+
+        /**
+         * @return the last event query of the deployment
+         */
+        private Query eventQuery(String deploymentId) {
+            return Lists.reverse(eventQueries).stream().filter(query -> query.deploymentId.equals(deploymentId)).findFirst().orElse(null);
+        }
+
+        private Query logQuery(String deploymentId) {
+            return Lists.reverse(logQueries).stream().filter(query -> query.deploymentId.equals(deploymentId)).findFirst().orElse(null);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        configuration = new ProviderConfiguration();
+        configuration.setOrchestratorId(ID);
+        configuration.setScopedPollingThreshold(5);
+        configuration.setScopedPollingCheckPeriod(60);
+        configuration.setConnectionMaxPoolSize(40);
+        scheduler = new TestScheduler();
+        deployments = Sets.newHashSet("d1", "d2");
+    }
+
+    private static String key(Class<?> type, String id) {
+        return type.getSimpleName() + "/" + id;
+    }
+
+    private CheckpointService checkpoints() {
+        CheckpointService checkpoints = Mockito.mock(CheckpointService.class);
+        Mockito.doAnswer(invocation -> {
+            stored.merge(key((Class<?>) invocation.getArguments()[0], (String) invocation.getArguments()[1]), (Long) invocation.getArguments()[2], Math::max);
+            return null;
+        }).when(checkpoints).checkpoint(Mockito.any(Class.class), Mockito.anyString(), Mockito.anyLong());
+        Mockito.doAnswer(invocation -> {
+            stored.merge(key((Class<?>) invocation.getArguments()[0], (String) invocation.getArguments()[1]), (Long) invocation.getArguments()[2], Math::max);
+            return null;
+        }).when(checkpoints).checkpointNow(Mockito.any(Class.class), Mockito.anyString(), Mockito.anyLong());
+        Mockito.doAnswer(invocation -> {
+            stored.remove(key((Class<?>) invocation.getArguments()[0], (String) invocation.getArguments()[1]));
+            return null;
+        }).when(checkpoints).remove(Mockito.any(Class.class), Mockito.anyString());
+        Mockito.when(checkpoints.load(Mockito.any(Class.class), Mockito.anyString()))
+                .thenAnswer(invocation -> stored.get(key((Class<?>) invocation.getArguments()[0], (String) invocation.getArguments()[1])));
+        return checkpoints;
+    }
+
+    @Test
+    public void idleStreamsHoldTheGlobalIndexAcrossACrash() {
+        Node node = new Node();
+        node.service.start();
+        Assert.assertEquals("SCOPED", node.service.getMode());
+        Assert.assertEquals(10, node.eventQuery("d2").index);
+
+        // d2 has nothing yet and polls again from 20, d1 moves on to 50
+        node.eventQuery("d2").reply(20, 0);
+        node.eventQuery("d1").reply(50, 3);
+        Assert.assertEquals(20, node.eventQuery("d2").index);
+        Assert.assertEquals(50, node.eventQuery("d1").index);
+
+        // The query of d2 may still return an item after 20
+        Assert.assertEquals(Long.valueOf(20), stored.get(key(EventIndex.class, ID)));
+
+        // Crash: the next node restarts d2 from there
+        Node next = new Node();
+        next.service.start();
+        Assert.assertEquals("SCOPED", next.service.getMode());
+        Assert.assertEquals(20, next.eventQuery("d2").index);
+        Assert.assertEquals(50, next.eventQuery("d1").index);
+    }
+
+    @Test
+    public void switchToGlobalWaitsForThePagesInFlight() {
+        Node node = new Node();
+        node.service.start();
+        node.eventQuery("d1").reply(50, 3);
+
+        // d2 is decoding a page when the deployments go over the threshold
+        Query inFlight = node.eventQuery("d2");
+        Event event = new Event();
+        event.setType(Event.EVT_INSTANCE);
+        event.setDeploymentId("d2");
+        inFlight.consumer.accept(event);
+        deployments = Sets.newHashSet("d1", "d2", "d3", "d4", "d5", "d6");
+        node.service.onDeploymentRegistered();
+        scheduler.triggerActions();
+
+        Assert.assertEquals("SWITCHING", node.service.getMode());
+        Mockito.verify(node.eventPolling, Mockito.times(1)).init();
+
+        // The pages in flight end, nothing else is queried
+        int queries = node.eventQueries.size() + node.logQueries.size();
+        inFlight.reply(60, 2);
+        node.eventQuery("d1").reply(70, 1);
+        node.logQuery("d1").reply(10, 0);
+        node.logQuery("d2").reply(10, 0);
+        scheduler.triggerActions();
+        Assert.assertEquals(queries, node.eventQueries.size() + node.logQueries.size());
+
+        // The global pollers start after the items of the page of d2, its checkpoint is gone
+        Assert.assertEquals("GLOBAL", node.service.getMode());
+        Mockito.verify(node.eventPolling, Mockito.times(2)).init();
+        Assert.assertEquals(Long.valueOf(60), stored.get(key(EventIndex.class, ID)));
+        Assert.assertEquals(Long.valueOf(10), stored.get(key(LogEventIndex.class, ID)));
+        Assert.assertNull(stored.get(key(EventIndex.class, ID + "_d2")));
+        Mockito.verify(node.eventPolling, Mockito.times(1)).publishScoped(event);
+        Assert.assertEquals(1, node.service.getSwitchCount());
+    }
+
+    @Test
+    public void thresholdLeavesConnectionsToTheOtherRequests() {
+        // 2 long polls per stream and 16 crawl requests: a single stream fits in 20 connections
+        configuration.setConnectionMaxPoolSize(20);
+
+        Node node = new Node();
+        node.service.start();
+        Assert.assertEquals("GLOBAL", node.service.getMode());
+        Assert.assertTrue(node.eventQueries.isEmpty());
+
+        // Capped to 1
+        deployments = Sets.newHashSet();
+        node.service.onDeploymentRegistered();
+        scheduler.triggerActions();
+        Assert.assertEquals("SCOPED", node.service.getMode());
+
+        deployments = Sets.newHashSet("d1");
+        node.service.onDeploymentRegistered();
+        scheduler.triggerActions();
+        Assert.assertEquals("SCOPED", node.service.getMode());
+        Assert.assertEquals(1, node.eventQueries.size());
+    }
+}
@@ -0,0 +1,38 @@
+package alien4cloud.paas.yorc.context.service.lease;
+
+import alien4cloud.paas.yorc.model.PollerLease;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * Stand-in for the ES lease store, shared by several LeaseService in a test
+ */
+public class InMemoryLeaseStore implements LeaseStore {
+
+    private final Map<String,PollerLease> leases = Maps.newConcurrentMap();
+
+    /**
+     * When set, every call fails like an unreachable ES
+     */
+    boolean unavailable = false;
+
+    @Override
+    public PollerLease get(String id) {
+        check();
+        PollerLease lease = leases.get(id);
+        return lease == null ? null : new PollerLease(lease.getId(), lease.getOwner(), lease.getExpiry());
+    }
+
+    @Override
+    public void save(PollerLease lease) {
+        check();
+        leases.put(lease.getId(), new PollerLease(lease.getId(), lease.getOwner(), lease.getExpiry()));
+    }
+
+    private void check() {
+        if (unavailable) {
+            throw new IllegalStateException("Store unavailable");
+        }
+    }
+}
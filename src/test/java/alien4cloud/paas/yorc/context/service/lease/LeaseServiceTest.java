@@ -0,0 +1,123 @@
+package alien4cloud.paas.yorc.context.service.lease;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+public class LeaseServiceTest {
+
+    private static final long TTL = 30000;
+
+    private InMemoryLeaseStore store;
+
+    private ProviderConfiguration configuration;
+
+    private Node node1;
+
+    private Node node2;
+
+    /**
+     * A LeaseService and the state of its pollers
+     */
+    private class Node implements LeaseService.Listener {
+        private final LeaseService service = new LeaseService();
+
+        private boolean polling = false;
+
+        private Node() {
+            ReflectionTestUtils.setField(service, "store", store);
+            ReflectionTestUtils.setField(service, "configuration", configuration);
+            ReflectionTestUtils.setField(service, "listener", this);
+        }
+
+        private void update(long now) {
+            service.clock = Clock.fixed(Instant.ofEpochMilli(now), ZoneOffset.UTC);
+            service.update();
+        }
+
+        @Override
+        public void onAcquired() {
+            polling = true;
+        }
+
+        @Override
+        public void onLost() {
+            polling = false;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        store = new InMemoryLeaseStore();
+
+        configuration = new ProviderConfiguration();
+        configuration.setOrchestratorId("orchestrator");
+        configuration.setPollingLeaseTtl((int) (TTL / 1000));
+
+        node1 = new Node();
+        node2 = new Node();
+    }
+
+    @Test
+    public void only_one_node_polls() {
+        node1.update(0);
+        node2.update(0);
+
+        Assert.assertTrue(node1.polling);
+        Assert.assertFalse(node2.polling);
+
+        // Renewals keep the lease on the first node
+        node1.update(TTL / 2);
+        node2.update(TTL);
+        node1.update(TTL);
+        node2.update(TTL + TTL / 2);
+
+        Assert.assertTrue(node1.polling);
+        Assert.assertFalse(node2.polling);
+    }
+
+    @Test
+    public void other_node_takes_over_on_expiry() {
+        node1.update(0);
+
+        // node1 is frozen, its lease expires
+        node2.update(TTL - 1);
+        Assert.assertFalse(node2.polling);
+
+        node2.update(TTL + 1);
+        Assert.assertTrue(node2.polling);
+
+        // node1 comes back and steps down
+        node1.update(TTL + 2);
+        Assert.assertFalse(node1.polling);
+        Assert.assertTrue(node2.polling);
+    }
+
+    @Test
+    public void release_on_term() {
+        node1.update(0);
+        node1.service.term();
+        Assert.assertFalse(node1.polling);
+
+        node2.update(1);
+        Assert.assertTrue(node2.polling);
+    }
+
+    @Test
+    public void holder_keeps_lease_until_expiry_when_store_is_unavailable() {
+        node1.update(0);
+
+        store.unavailable = true;
+        node1.update(TTL / 2);
+        Assert.assertTrue(node1.polling);
+
+        node1.update(TTL);
+        Assert.assertFalse(node1.polling);
+    }
+}
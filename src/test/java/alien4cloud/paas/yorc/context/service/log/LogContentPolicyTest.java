@@ -0,0 +1,119 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class LogContentPolicyTest {
+
+    private ProviderConfiguration configuration;
+
+    private LogContentPolicy policy;
+
+    @Before
+    public void setUp() {
+        configuration = new ProviderConfiguration();
+        configuration.setLogContentMaxSize(10);
+        configuration.setLogContentPreviewSize(4);
+
+        policy = new LogContentPolicy();
+        ReflectionTestUtils.setField(policy, "configuration", configuration);
+    }
+
+    private static PaaSDeploymentLog newLog(String content) {
+        PaaSDeploymentLog log = new PaaSDeploymentLog();
+        log.setDeploymentPaaSId("d1");
+        log.setTimestamp(new Date(1000));
+        log.setContent(content);
+        return log;
+    }
+
+    @Test
+    public void disabledByDefault() {
+        configuration.setLogContentMaxSize(new ProviderConfiguration().getLogContentMaxSize());
+
+        PaaSDeploymentLog log = newLog(StringUtils.repeat('a', 100000));
+        List<PaaSDeploymentLog> result = policy.apply(log);
+        Assert.assertEquals(1, result.size());
+        Assert.assertSame(log, result.get(0));
+    }
+
+    @Test
+    public void shortContentIsKept() {
+        PaaSDeploymentLog log = newLog("0123456789");
+        List<PaaSDeploymentLog> result = policy.apply(log);
+        Assert.assertEquals(1, result.size());
+        Assert.assertSame(log, result.get(0));
+    }
+
+    @Test
+    public void chunk() {
+        String content = StringUtils.repeat('a', 10) + StringUtils.repeat('b', 10) + "c";
+        List<PaaSDeploymentLog> result = policy.apply(newLog(content));
+
+        // All the parts carry the id of the log
+        Assert.assertEquals(3, result.size());
+        String id = result.get(0).getContent().substring("[part 1/3 of ".length(), result.get(0).getContent().indexOf(']'));
+        Assert.assertEquals(8, id.length());
+        Assert.assertEquals("[part 1/3 of " + id + "] aaaaaaaaaa", result.get(0).getContent());
+        Assert.assertEquals("[part 2/3 of " + id + "] bbbbbbbbbb", result.get(1).getContent());
+        Assert.assertEquals("[part 3/3 of " + id + "] c", result.get(2).getContent());
+        for (int i = 0; i < result.size(); i++) {
+            Assert.assertEquals("d1", result.get(i).getDeploymentPaaSId());
+            // Strictly ordered
+            Assert.assertEquals(new Date(1000 + i), result.get(i).getTimestamp());
+        }
+    }
+
+    private String partId(String content) {
+        String part = policy.apply(newLog(content)).get(0).getContent();
+        return part.substring(part.indexOf(" of ") + 4, part.indexOf(']'));
+    }
+
+    @Test
+    public void partIdIsStable() {
+        String id = partId(StringUtils.repeat('a', 25));
+
+        // The same log received again
+        Assert.assertEquals(id, partId(StringUtils.repeat('a', 25)));
+
+        // Another log
+        Assert.assertNotEquals(id, partId(StringUtils.repeat('a', 24) + "b"));
+    }
+
+    @Test
+    public void compress() throws IOException {
+        configuration.setLogContentPolicy("compress");
+        String content = StringUtils.repeat("0123456789", 100);
+
+        List<PaaSDeploymentLog> result = policy.apply(newLog(content));
+
+        Assert.assertEquals(1, result.size());
+        String compressed = result.get(0).getContent();
+        Assert.assertTrue(compressed.startsWith("0123\n[content compressed, 1000 characters"));
+
+        String encoded = compressed.substring(compressed.lastIndexOf('\n') + 1);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoded)))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            Assert.assertEquals(content, new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.deployment.DeploymentLoggingService;
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import io.reactivex.schedulers.TestScheduler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class LogJournalTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    // Big enough for a batch to fill a 1 MB segment on its own
+    private static final int BIG = 700 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ProviderConfiguration configuration;
+
+    /**
+     * A journal and what it saved in ES
+     */
+    private class Node {
+        private final LogJournal journal = new LogJournal();
+        private final TestScheduler scheduler = new TestScheduler();
+        private final DeploymentLoggingService es = Mockito.mock(DeploymentLoggingService.class);
+        private final List<String> saved = Lists.newArrayList();
+
+        private Node(long now) {
+            Mockito.doAnswer(invocation -> {
+                for (PaaSDeploymentLog log : (PaaSDeploymentLog[]) invocation.getArguments()[0]) {
+                    saved.add(log.getContent());
+                }
+                return null;
+            }).when(es).save(Mockito.any(PaaSDeploymentLog[].class));
+
+            ReflectionTestUtils.setField(journal, "configuration", configuration);
+            ReflectionTestUtils.setField(journal, "scheduler", scheduler);
+            ReflectionTestUtils.setField(journal, "loggingService", es);
+            at(now);
+            journal.init();
+        }
+
+        private void at(long now) {
+            journal.clock = Clock.fixed(Instant.ofEpochMilli(now), ZoneOffset.UTC);
+        }
+
+        private void replay(long delay) {
+            scheduler.advanceTimeBy(delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void failSaves() {
+            Mockito.doThrow(new RuntimeException("ES is down")).when(es).save(Mockito.any(PaaSDeploymentLog[].class));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        configuration = new ProviderConfiguration();
+        configuration.setOrchestratorId("orchestrator");
+        configuration.setLogJournalEnabled(true);
+        configuration.setLogJournalPath(folder.getRoot().getAbsolutePath());
+        configuration.setLogJournalSegmentSize(1);
+        configuration.setLogJournalRetention(1);
+    }
+
+    private static PaaSDeploymentLog[] batch(String... contents) {
+        PaaSDeploymentLog[] logs = new PaaSDeploymentLog[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            logs[i] = new PaaSDeploymentLog();
+            logs[i].setDeploymentId("d1");
+            logs[i].setContent(contents[i]);
+        }
+        return logs;
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().toPath().resolve("orchestrator").toFile().listFiles((dir, name) -> name.endsWith(".segment"));
+    }
+
+    @Test
+    public void batchesAreReplayedInOrder() {
+        Node node = new Node(0);
+
+        Assert.assertTrue(node.journal.append(batch("a", "b")));
+        Assert.assertTrue(node.journal.append(batch("c")));
+        Assert.assertEquals(2, node.journal.getPendingBatchCount());
+        Assert.assertTrue(node.journal.isActive());
+
+        node.replay(1000);
+
+        Assert.assertEquals(Lists.newArrayList("a", "b", "c"), node.saved);
+        Assert.assertEquals(0, node.journal.getPendingBatchCount());
+        Assert.assertEquals(3, node.journal.getReplayedLogCount());
+        Assert.assertFalse(node.journal.isActive());
+    }
+
+    @Test
+    public void replayedBatchesAreNotReplayedAfterACrash() {
+        Node node = new Node(0);
+        node.journal.append(batch("a"));
+        node.replay(1000);
+        node.journal.append(batch("b"));
+        node.journal.append(batch("c"));
+
+        // The first node is gone without term(), the next one only replays the pending batches
+        Node next = new Node(0);
+        Assert.assertEquals(2, next.journal.getPendingBatchCount());
+
+        next.replay(1000);
+        Assert.assertEquals(Lists.newArrayList("b", "c"), next.saved);
+        Assert.assertEquals(0, next.journal.getPendingBatchCount());
+    }
+
+    @Test
+    public void corruptedBatchesAreSkipped() throws IOException {
+        Node node = new Node(0);
+        node.journal.append(batch("a"));
+        node.journal.append(batch("b"));
+
+        // Flip a byte of the first record data, after its [length][crc] header
+        Path segment = segmentFiles()[0].toPath();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, 10);
+            b.put(0, (byte) (b.get(0) ^ 0xFF));
+            b.rewind();
+            channel.write(b, 10);
+        }
+
+        Node next = new Node(0);
+        next.replay(1000);
+        Assert.assertEquals(Lists.newArrayList("b"), next.saved);
+        Assert.assertEquals(0, next.journal.getPendingBatchCount());
+    }
+
+    @Test
+    public void tornTailEndsTheSegment() throws IOException {
+        Node node = new Node(0);
+        node.journal.append(batch("a"));
+        node.journal.append(batch("b"));
+
+        // Garbage length after the last record, as left by a crash in the middle of a write
+        Path segment = segmentFiles()[0].toPath();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(4);
+            int pos = 0;
+            for (int i = 0; i < 2; i++) {
+                b.clear();
+                channel.read(b, pos);
+                pos += 8 + b.getInt(0);
+            }
+            b.clear();
+            b.putInt(Integer.MIN_VALUE);
+            b.flip();
+            channel.write(b, pos);
+        }
+
+        Node next = new Node(0);
+        Assert.assertEquals(2, next.journal.getPendingBatchCount());
+
+        // The journal goes on after it
+        next.journal.append(batch("c"));
+        next.replay(1000);
+        Assert.assertEquals(Lists.newArrayList("a", "b", "c"), next.saved);
+        Assert.assertEquals(0, next.journal.getPendingBatchCount());
+    }
+
+    @Test
+    public void replayedSegmentsAreDeleted() {
+        Node node = new Node(0);
+        node.journal.append(batch(Strings.repeat("a", BIG)));
+        node.journal.append(batch(Strings.repeat("b", BIG)));
+        node.journal.append(batch("c"));
+        Assert.assertEquals(2, node.journal.getSegmentCount());
+        Assert.assertEquals(2, segmentFiles().length);
+
+        node.replay(1000);
+
+        Assert.assertEquals(3, node.saved.size());
+        Assert.assertEquals("c", node.saved.get(2));
+        // The writer is kept
+        Assert.assertEquals(1, node.journal.getSegmentCount());
+        Assert.assertEquals(1, segmentFiles().length);
+    }
+
+    @Test
+    public void oldSegmentsAreDroppedWhileEsIsDown() {
+        Node node = new Node(0);
+        node.failSaves();
+        node.journal.append(batch(Strings.repeat("a", BIG)));
+
+        node.at(2 * HOUR);
+        node.journal.append(batch(Strings.repeat("b", BIG)));
+        node.journal.append(batch("c"));
+
+        node.replay(1000);
+
+        // The first segment is older than the retention, its creation date is in its name
+        Assert.assertEquals(1, node.journal.getDroppedSegmentCount());
+        Assert.assertEquals(1, node.journal.getSegmentCount());
+        Assert.assertEquals(2, node.journal.getPendingBatchCount());
+        Assert.assertTrue(node.saved.isEmpty());
+    }
+}
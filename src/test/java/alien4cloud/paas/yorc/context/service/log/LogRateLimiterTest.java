@@ -0,0 +1,174 @@
+package alien4cloud.paas.yorc.context.service.log;
+
+import alien4cloud.paas.model.PaaSDeploymentLog;
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import alien4cloud.paas.yorc.dao.YorcESDao;
+import alien4cloud.paas.yorc.model.LogRateLimit;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class LogRateLimiterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private ProviderConfiguration configuration;
+
+    private LogRateLimiter limiter;
+
+    private List<PaaSDeploymentLog> summaries;
+
+    // What ES holds
+    private final Map<String, LogRateLimit> stored = Maps.newHashMap();
+
+    private long now;
+
+    @Before
+    public void setUp() {
+        configuration = new ProviderConfiguration();
+        configuration.setLogRateLimit(10);
+        configuration.setLogRateBurst(0);
+        configuration.setOrchestratorId("orchestrator");
+
+        summaries = Lists.newArrayList();
+
+        limiter = newLimiter();
+    }
+
+    private LogRateLimiter newLimiter() {
+        YorcESDao dao = Mockito.mock(YorcESDao.class);
+        Mockito.doAnswer(invocation -> {
+            LogRateLimit data = (LogRateLimit) invocation.getArguments()[0];
+            stored.put(data.getId(), data);
+            return null;
+        }).when(dao).save(Mockito.any(LogRateLimit.class));
+        Mockito.doAnswer(invocation -> {
+            stored.remove((String) invocation.getArguments()[1]);
+            return null;
+        }).when(dao).delete(Mockito.eq(LogRateLimit.class), Mockito.anyString());
+        Mockito.when(dao.customFindAll(Mockito.eq(LogRateLimit.class), Mockito.any(QueryBuilder.class))).thenAnswer(invocation -> Lists.newArrayList(stored.values()));
+
+        LogRateLimiter limiter = new LogRateLimiter();
+        ReflectionTestUtils.setField(limiter, "configuration", configuration);
+        ReflectionTestUtils.setField(limiter, "dao", dao);
+        ReflectionTestUtils.setField(limiter, "sink", (Consumer<PaaSDeploymentLog>) summaries::add);
+        limiter.clock = () -> now;
+        return limiter;
+    }
+
+    private static PaaSDeploymentLog newLog(String deploymentId, String content) {
+        PaaSDeploymentLog log = new PaaSDeploymentLog();
+        log.setDeploymentId("alien-" + deploymentId);
+        log.setDeploymentPaaSId(deploymentId);
+        log.setContent(content);
+        return log;
+    }
+
+    private int send(String deploymentId, int count) {
+        int published = 0;
+        for (int i = 0; i < count; i++) {
+            if (limiter.limit(newLog(deploymentId, "line " + i)) != null) {
+                published++;
+            }
+        }
+        return published;
+    }
+
+    @Test
+    public void dropAboveTheLimit() {
+        Assert.assertEquals(10, send("d1", 50));
+        Assert.assertEquals(40, limiter.getDroppedLogCount());
+
+        // Other deployments have their own bucket
+        Assert.assertEquals(10, send("d2", 10));
+
+        // Refilled after one second
+        now += SECOND;
+        Assert.assertEquals(10, send("d1", 50));
+    }
+
+    @Test
+    public void deploymentLimitOverridesTheConfiguration() {
+        limiter.setLimit("d1", 0);
+        Assert.assertEquals(50, send("d1", 50));
+
+        limiter.setLimit("d1", 5);
+        Assert.assertEquals(5, send("d1", 50));
+
+        limiter.setLimit("d1", null);
+        now += SECOND;
+        Assert.assertEquals(10, send("d1", 50));
+    }
+
+    @Test
+    public void sampleAboveTheLimit() {
+        configuration.setLogRateExcessPolicy("sample");
+        configuration.setLogRateSampleRatio(10);
+
+        Assert.assertEquals(10 + 5, send("d1", 60));
+        Assert.assertEquals(5, limiter.getSampledLogCount());
+        Assert.assertEquals(45, limiter.getDroppedLogCount());
+    }
+
+    @Test
+    public void truncateAboveTheLimit() {
+        configuration.setLogRateExcessPolicy("truncate");
+        configuration.setLogRateTruncateLength(4);
+
+        send("d1", 10);
+        PaaSDeploymentLog log = limiter.limit(newLog("d1", "a long line"));
+        Assert.assertEquals("a lo [truncated]", log.getContent());
+        Assert.assertEquals(1, limiter.getTruncatedLogCount());
+    }
+
+    @Test
+    public void undeploymentLogIsNeverDropped() {
+        send("d1", 10);
+
+        PaaSDeploymentLog log = newLog("d1", "Status for deployment \"d1\" changed to \"undeployed\"");
+        log.setWorkflowId("uninstall");
+        Assert.assertSame(log, limiter.limit(log));
+    }
+
+    @Test
+    public void removeEmitsTheLastSummary() {
+        send("d1", 15);
+        limiter.remove("d1");
+
+        Assert.assertEquals(1, summaries.size());
+        Assert.assertEquals("alien-d1", summaries.get(0).getDeploymentId());
+        Assert.assertTrue(summaries.get(0).getContent().contains("5 logs dropped"));
+        Assert.assertEquals(0, limiter.getLimitedDeploymentCount());
+    }
+
+    @Test
+    public void deploymentLimitsSurviveARestart() {
+        limiter.setLimit("d1", 5);
+        limiter.setLimit("d2", 0);
+        limiter.setLimit("d3", 20);
+
+        // d3 is undeployed while the orchestrator is down
+        LogRateLimiter restarted = newLimiter();
+        restarted.restore(Sets.newHashSet("d1", "d2"));
+        limiter = restarted;
+
+        Assert.assertEquals(5, send("d1", 50));
+        Assert.assertEquals(50, send("d2", 50));
+        Assert.assertEquals(2, stored.size());
+
+        // Back to the orchestrator limit
+        limiter.setLimit("d1", null);
+        limiter.remove("d2");
+        Assert.assertTrue(stored.isEmpty());
+    }
+}
@@ -0,0 +1,63 @@
+package alien4cloud.paas.yorc.context.service.polling;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void meanAndMax() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getMean());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(-5);
+
+        // Negative values count as 0
+        Assert.assertEquals(3, histogram.getCount());
+        Assert.assertEquals(10, histogram.getMean());
+        Assert.assertEquals(20, histogram.getMax());
+    }
+
+    @Test
+    public void percentilesAreTheUpperBoundOfTheirBucket() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(5);
+        }
+        histogram.record(1000);
+
+        // 5 is in [4, 8[
+        Assert.assertEquals(7, histogram.getPercentile(50));
+        Assert.assertEquals(7, histogram.getPercentile(99));
+
+        // Capped to the max
+        Assert.assertEquals(1000, histogram.getPercentile(99.5));
+        Assert.assertEquals(1000, histogram.getPercentile(100));
+        Assert.assertEquals(0, histogram.getPercentile(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileAbove100Fails() {
+        Histogram histogram = new Histogram();
+        histogram.record(1);
+        histogram.getPercentile(100.5);
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.reset();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMean());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+
+        histogram.record(3);
+        Assert.assertEquals(3, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,85 @@
+package alien4cloud.paas.yorc.context.service.polling;
+
+import alien4cloud.paas.yorc.configuration.ProviderConfiguration;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+
+public class PollSchedulerTest {
+
+    private PollScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        ProviderConfiguration configuration = new ProviderConfiguration();
+        configuration.setPollingMinWait(60);
+        configuration.setPollingMaxWait(60);
+        configuration.setSocketTimeout(3600);
+        configuration.setPollingCircuitBreakerThreshold(2);
+
+        scheduler = new PollScheduler("test", configuration, Schedulers.trampoline());
+    }
+
+    @Test
+    public void wrappedTimeoutsAreDetected() {
+        SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+
+        Assert.assertTrue(PollScheduler.isTimeout(timeout));
+        Assert.assertTrue(PollScheduler.isTimeout(new ResourceAccessException("I/O error", timeout)));
+        Assert.assertTrue(PollScheduler.isTimeout(new ExecutionException(new ResourceAccessException("I/O error", timeout))));
+        Assert.assertFalse(PollScheduler.isTimeout(new ResourceAccessException("I/O error", new IOException("Connection refused"))));
+    }
+
+    @Test
+    public void timeoutsLowerTheWaitWithoutOpeningTheCircuit() {
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(0, scheduler.onFailure(new ExecutionException(new ResourceAccessException("I/O error", new SocketTimeoutException()))));
+        }
+
+        Assert.assertEquals(60 / 16, scheduler.getWait());
+        Assert.assertEquals(0, scheduler.getFailures());
+        Assert.assertEquals(PollScheduler.CircuitState.CLOSED, scheduler.getState());
+    }
+
+    @Test
+    public void timeoutsAtTheMinimumWaitAreFailures() {
+        while (scheduler.getWait() > 1) {
+            scheduler.onFailure(new SocketTimeoutException());
+        }
+
+        scheduler.onFailure(new SocketTimeoutException());
+        scheduler.onFailure(new SocketTimeoutException());
+        Assert.assertEquals(PollScheduler.CircuitState.OPEN, scheduler.getState());
+    }
+
+    @Test
+    public void waitCeilingGrowsBackAfterLongPollsHold() {
+        scheduler.onFailure(new SocketTimeoutException());
+        scheduler.onFailure(new SocketTimeoutException());
+        Assert.assertEquals(15, scheduler.getWait());
+
+        // The ceiling holds for a while
+        for (int i = 1; i < PollScheduler.CEILING_RAISE_POLLS; i++) {
+            scheduler.onSuccess(0);
+        }
+        Assert.assertEquals(15, scheduler.getWait());
+
+        scheduler.onSuccess(0);
+        Assert.assertEquals(30, scheduler.getWait());
+
+        for (int i = 0; i < 2 * PollScheduler.CEILING_RAISE_POLLS; i++) {
+            scheduler.onSuccess(0);
+        }
+        Assert.assertEquals(60, scheduler.getWait());
+
+        // A timeout lowers it again
+        scheduler.onFailure(new SocketTimeoutException());
+        Assert.assertEquals(30, scheduler.getWait());
+    }
+}
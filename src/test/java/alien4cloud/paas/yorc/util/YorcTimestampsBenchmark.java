@@ -0,0 +1,51 @@
+package alien4cloud.paas.yorc.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the LogEvent timestamp parsing before and after YorcTimestamps.
+ *
+ * Run it from the IDE or with: java -cp target/test-classes:<test classpath> alien4cloud.paas.yorc.util.YorcTimestampsBenchmark
+ * Add -prof gc to the options to see the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YorcTimestampsBenchmark {
+
+    private final String timestamp = "2019-03-12T10:11:12.123456789+01:00";
+
+    @Benchmark
+    public Date legacy() {
+        return Date.from(LocalDateTime.parse(timestamp, DateTimeFormatter.ISO_OFFSET_DATE_TIME).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @Benchmark
+    public long yorcTimestamps() {
+        return YorcTimestamps.toEpochMillis(timestamp);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(YorcTimestampsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
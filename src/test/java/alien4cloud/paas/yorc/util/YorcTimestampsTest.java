@@ -0,0 +1,46 @@
+package alien4cloud.paas.yorc.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+public class YorcTimestampsTest {
+
+    @Test
+    public void yorc_layout() {
+        Assert.assertEquals(1552381872123L, YorcTimestamps.toEpochMillis("2019-03-12T10:11:12.123456789+01:00"));
+        Assert.assertEquals(1552385472000L, YorcTimestamps.toEpochMillis("2019-03-12T10:11:12Z"));
+        Assert.assertEquals(1552385472500L, YorcTimestamps.toEpochMillis("2019-03-12T10:11:12.5Z"));
+        Assert.assertEquals(1552385472000L, YorcTimestamps.toEpochMillis("2019-03-12T05:41:12-04:30"));
+        Assert.assertEquals(951782400000L, YorcTimestamps.toEpochMillis("2000-02-29T00:00:00Z"));
+    }
+
+    @Test
+    public void same_as_offset_date_time() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long seconds = (long) (random.nextDouble() * 4e9);
+            int offset = (random.nextInt(48) - 24) * 900;
+            OffsetDateTime date = OffsetDateTime.ofInstant(Instant.ofEpochSecond(seconds, random.nextInt(1000000000)), ZoneOffset.ofTotalSeconds(offset));
+
+            String timestamp = date.toString();
+            Assert.assertEquals(timestamp, date.toInstant().toEpochMilli(), YorcTimestamps.toEpochMillis(timestamp));
+        }
+    }
+
+    @Test
+    public void other_layouts_use_the_fallback() {
+        // No seconds
+        Assert.assertEquals(Long.MIN_VALUE, YorcTimestamps.parse("2019-03-12T10:11Z"));
+        Assert.assertEquals(1552385460000L, YorcTimestamps.toEpochMillis("2019-03-12T10:11Z"));
+    }
+
+    @Test(expected = java.time.format.DateTimeParseException.class)
+    public void invalid() {
+        YorcTimestamps.toEpochMillis("2019-02-30T10:11:12Z");
+    }
+}